@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.api.QueryStorage;
+
+/**
+ * Measures the heap retained by a {@link QueryDefinitionRepository} loaded with a synthetic catalog, for each
+ * {@link QueryStorage}. It is not a JMH benchmark, run it with
+ *
+ * <PRE>
+ * java -cp target/benchmarks.jar es.indaba.sqld.benchmarks.CatalogFootprint [queries] [distinct bodies]
+ * </PRE>
+ *
+ * The catalog is split in files of {@value #FILE_SIZE} queries and the bodies repeat every <tt>distinct bodies</tt>
+ * queries, as dialect variants of the same query would. Every other body has <tt>:name</tt> parameters, so the figure
+ * includes their JDBC translation when the repository holds it. The figure is the used heap after a full GC with the
+ * repository loaded minus the used heap before, so it includes the key strings.
+ */
+public final class CatalogFootprint {
+
+    private static final int FILE_SIZE = 100;
+    private static final int GC_ROUNDS = 5;
+
+    public static void main(final String[] args) throws InterruptedException {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int distinct = args.length > 1 ? Integer.parseInt(args[1]) : size;
+        System.out.printf("%d queries, %d distinct bodies%n", size, distinct);
+        for (final QueryStorage storage : QueryStorage.values()) {
+            final long before = usedHeap();
+            final QueryDefinitionRepository repository = new QueryDefinitionRepository(storage, 0);
+            repository.addQueries(catalog(size, distinct));
+            final long after = usedHeap();
+            System.out.printf("%-8s %,14d bytes %,8d bytes/query in %d files%n", storage, after - before,
+                    (after - before) / size, repository.getProcessedFiles().size());
+        }
+    }
+
+    private static Map<String, Properties> catalog(final int size, final int distinct) {
+        final Map<String, Properties> files = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String file = "synthetic/file_" + (i / FILE_SIZE) + ".sqld";
+            Properties properties = files.get(file);
+            if (properties == null) {
+                properties = new Properties();
+                files.put(file, properties);
+            }
+            // body() returns a new String on each call, as the parsers do
+            final int body = i % distinct;
+            properties.setProperty(SyntheticCatalog.key(i).toLowerCase(),
+                    body % 2 == 0 ? SyntheticCatalog.body(body) : SyntheticCatalog.namedBody(body));
+        }
+        return files;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private CatalogFootprint() {
+        // Avoid instantiation of a Utility
+    }
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.indaba.sqld.api.QueryDefinition;
+
+/**
+ * Parameter interpolation with {@link QueryDefinition#getQueryAsString(Object...)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpolationBenchmark {
+
+    private final QueryDefinition strings = new QueryDefinition("strings",
+            "SELECT * FROM {0} WHERE STATUS = 'A' AND NAME = ''{1}'' AND TYPE IN ({2})");
+
+    private final QueryDefinition numbers = new QueryDefinition("numbers",
+            "SELECT * FROM REPORT WHERE YEAR = {0} AND AMOUNT > {1} AND CREATED < ''{2}'' FETCH FIRST {3} ROWS ONLY");
+
+    private final Date date = new Date(0);
+
+    @Benchmark
+    public String interpolateStrings() {
+        return strings.getQueryAsString("CUSTOMER", "Smith", "'X', 'Y'");
+    }
+
+    @Benchmark
+    public String interpolateNumbersAndDates() {
+        return numbers.getQueryAsString(2024, new BigDecimal("1500.25"), date, 1000);
+    }
+}
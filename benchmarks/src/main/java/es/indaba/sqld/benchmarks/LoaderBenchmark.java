@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+import es.indaba.sqld.impl.loader.QueryDefinitionDirectoryLoader;
+
+/**
+ * Full load (classpath scan and parse) of a synthetic classpath with
+ * {@link QueryDefinitionClassPathLoader#loadQueryDefinitionFiles(String, QueryDefinitionRepository)}, and the same
+ * load from an up to date snapshot, where the files are fingerprinted instead of parsed. <code>loadDirectory</code>
+ * loads the same files with {@link QueryDefinitionDirectoryLoader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoaderBenchmark {
+
+    @Param({"100", "2000"})
+    public int files;
+
+    @Param({"20"})
+    public int queriesPerFile;
+
+    private URLClassLoader classLoader;
+    private Path snapshot;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, URISyntaxException {
+        classLoader = SyntheticFiles.classpath(files, queriesPerFile);
+        directory = Paths.get(classLoader.getURLs()[0].toURI());
+        snapshot = Files.createTempFile("sqld-benchmark", ".snapshot");
+        Files.delete(snapshot);
+        loadFromSnapshot();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        classLoader.close();
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public QueryDefinitionRepository loadQueryDefinitionFiles() {
+        final QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            QueryDefinitionClassPathLoader.loadQueryDefinitionFiles(SyntheticFiles.PREFIX, repository);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+        return repository;
+    }
+
+    @Benchmark
+    public QueryDefinitionRepository loadFromSnapshot() {
+        final QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            QueryDefinitionClassPathLoader.loadQueryDefinitionFiles(SyntheticFiles.PREFIX, repository, snapshot);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+        return repository;
+    }
+
+    @Benchmark
+    public QueryDefinitionRepository loadDirectory() {
+        final QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(directory, repository);
+        return repository;
+    }
+}
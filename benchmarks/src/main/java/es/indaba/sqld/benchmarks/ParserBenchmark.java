@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.indaba.sqld.impl.parser.TextBlockReader;
+import es.indaba.sqld.impl.parser.YamlFileReader;
+
+/**
+ * Parsing cost of {@link TextBlockReader} and {@link YamlFileReader} for a small and a very large file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"10", "10000"})
+    public int queries;
+
+    private byte[] textBlockContent;
+    private byte[] yamlContent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        textBlockContent = SyntheticFiles.textBlockFile(0, queries).getBytes(StandardCharsets.UTF_8);
+        yamlContent = SyntheticFiles.yamlFile(0, queries).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Properties textBlockReader() throws IOException {
+        return new TextBlockReader(new ByteArrayInputStream(textBlockContent), "benchmark.sqld").read();
+    }
+
+    @Benchmark
+    public Properties yamlFileReader() {
+        return new YamlFileReader(new ByteArrayInputStream(yamlContent), "benchmark.ysqld").read();
+    }
+}
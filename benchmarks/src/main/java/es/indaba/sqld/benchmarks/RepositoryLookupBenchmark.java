@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.indaba.sqld.api.QueryBundle;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.api.QueryHandle;
+
+/**
+ * Contention benchmark for {@link QueryDefinitionRepository} lookups. The same lookup is run with 1, 2, 4 and all the
+ * available threads; with a lock-free read path the aggregated throughput should grow with the thread count. The
+ * <code>properties*</code> benchmarks run the same access pattern over a synchronized {@link Properties} table as a
+ * reference of the previous implementation, and the <code>handle*</code> benchmarks read the same queries through
+ * {@link QueryHandle}s resolved at setup. <code>bundle1</code> reads the 111 queries under the <tt>QUERY_1</tt> prefix
+ * in a {@link QueryBundle}, and <code>keyLookups1</code> looks up the same keys one by one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositoryLookupBenchmark {
+
+    private static final String BUNDLE_PREFIX = "QUERY_1";
+
+    @State(Scope.Benchmark)
+    public static class Catalog {
+
+        @Param({"1000"})
+        public int size;
+
+        public QueryDefinitionRepository repository;
+        public Properties properties;
+        public String[] keys;
+        public QueryHandle[] handles;
+        public String[] prefixKeys;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            properties = SyntheticCatalog.properties(size);
+            repository = new QueryDefinitionRepository();
+            repository.addQueries(Collections.singletonMap("synthetic.sqld", properties));
+            keys = SyntheticCatalog.keys(size);
+            handles = new QueryHandle[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                handles[i] = repository.getHandle(keys[i]);
+            }
+            prefixKeys = repository.getKeys(BUNDLE_PREFIX).toArray(new String[0]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        public String nextKey(final String[] keys) {
+            next = (next + 1) % keys.length;
+            return keys[next];
+        }
+
+        public QueryHandle nextHandle(final QueryHandle[] handles) {
+            next = (next + 1) % handles.length;
+            return handles[next];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String repository1(final Catalog catalog, final Cursor cursor) {
+        return catalog.repository.getQuery(cursor.nextKey(catalog.keys));
+    }
+
+    @Benchmark
+    @Threads(2)
+    public String repository2(final Catalog catalog, final Cursor cursor) {
+        return catalog.repository.getQuery(cursor.nextKey(catalog.keys));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String repository4(final Catalog catalog, final Cursor cursor) {
+        return catalog.repository.getQuery(cursor.nextKey(catalog.keys));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String repositoryMax(final Catalog catalog, final Cursor cursor) {
+        return catalog.repository.getQuery(cursor.nextKey(catalog.keys));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String handle1(final Catalog catalog, final Cursor cursor) {
+        return cursor.nextHandle(catalog.handles).getQuery();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String handleMax(final Catalog catalog, final Cursor cursor) {
+        return cursor.nextHandle(catalog.handles).getQuery();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public QueryBundle bundle1(final Catalog catalog) {
+        return catalog.repository.getBundleByPrefix(BUNDLE_PREFIX);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int keyLookups1(final Catalog catalog) {
+        int length = 0;
+        for (final String key : catalog.prefixKeys) {
+            length += catalog.repository.getQuery(key).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String properties1(final Catalog catalog, final Cursor cursor) {
+        return catalog.properties.getProperty(cursor.nextKey(catalog.keys).toLowerCase());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String propertiesMax(final Catalog catalog, final Cursor cursor) {
+        return catalog.properties.getProperty(cursor.nextKey(catalog.keys).toLowerCase());
+    }
+}
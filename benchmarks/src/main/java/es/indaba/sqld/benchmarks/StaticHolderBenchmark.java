@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.indaba.sqld.QueryDefinitionsStaticHolder;
+
+/**
+ * {@link QueryDefinitionsStaticHolder#getQueryAsString(String)} run from a single thread and from all the available
+ * threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StaticHolderBenchmark {
+
+    private static final int FILES = 10;
+    private static final int QUERIES_PER_FILE = 100;
+
+    @State(Scope.Benchmark)
+    public static class Holder {
+
+        public String[] keys;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader previous = thread.getContextClassLoader();
+            try (URLClassLoader classLoader = SyntheticFiles.classpath(FILES, QUERIES_PER_FILE)) {
+                thread.setContextClassLoader(classLoader);
+                QueryDefinitionsStaticHolder.loadQueryDefinitions(SyntheticFiles.PREFIX);
+            } finally {
+                thread.setContextClassLoader(previous);
+            }
+            keys = SyntheticCatalog.keys(FILES * QUERIES_PER_FILE);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            QueryDefinitionsStaticHolder.clear();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        public String nextKey(final String[] keys) {
+            next = (next + 1) % keys.length;
+            return keys[next];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String singleThreaded(final Holder holder, final Cursor cursor) {
+        return QueryDefinitionsStaticHolder.getQueryAsString(cursor.nextKey(holder.keys));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String contended(final Holder holder, final Cursor cursor) {
+        return QueryDefinitionsStaticHolder.getQueryAsString(cursor.nextKey(holder.keys));
+    }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.util.Properties;
+
+/**
+ * Generates synthetic query catalogs for the benchmarks.
+ */
+public final class SyntheticCatalog {
+
+    public static String key(final int index) {
+        return "QUERY_" + index;
+    }
+
+    public static String body(final int index) {
+        return "SELECT ID, NAME, DESCRIPTION, CREATED\n FROM TABLE_" + index + "\n WHERE ID = ? AND STATUS = 'A'";
+    }
+
+    public static String namedBody(final int index) {
+        return "SELECT ID, NAME, DESCRIPTION, CREATED\n FROM TABLE_" + index + "\n WHERE ID = :id AND STATUS = :status";
+    }
+
+    /**
+     * @param size - number of queries
+     * @return the catalog as it is returned by the parsers, with lower case keys
+     */
+    public static Properties properties(final int size) {
+        final Properties properties = new Properties();
+        for (int i = 0; i < size; i++) {
+            properties.setProperty(key(i).toLowerCase(), body(i));
+        }
+        return properties;
+    }
+
+    /**
+     * @param size - number of queries
+     * @return the keys of the catalog as they are written by the callers
+     */
+    public static String[] keys(final int size) {
+        final String[] keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = key(i);
+        }
+        return keys;
+    }
+
+    private SyntheticCatalog() {
+        // Avoid instantiation of a Utility
+    }
+}
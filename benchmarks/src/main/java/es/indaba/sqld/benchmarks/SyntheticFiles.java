@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.benchmarks;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates synthetic definition files and classpaths for the benchmarks.
+ */
+public final class SyntheticFiles {
+
+    public static final String PREFIX = "es.indaba.sqld.benchmarks.synthetic";
+
+    /**
+     * @param first - index of the first query
+     * @param size - number of queries
+     * @return the content of a .sqld file
+     */
+    public static String textBlockFile(final int first, final int size) {
+        final StringBuilder content = new StringBuilder();
+        for (int i = first; i < first + size; i++) {
+            content.append("-- Query ").append(i).append('\n');
+            content.append(SyntheticCatalog.key(i)).append(" {\n");
+            content.append(' ').append(SyntheticCatalog.body(i).replace("\n", "\n ")).append('\n');
+            content.append("}\n\n");
+        }
+        return content.toString();
+    }
+
+    /**
+     * @param first - index of the first query
+     * @param size - number of queries
+     * @return the content of a .ysqld file
+     */
+    public static String yamlFile(final int first, final int size) {
+        final StringBuilder content = new StringBuilder();
+        for (int i = first; i < first + size; i++) {
+            content.append(SyntheticCatalog.key(i)).append(": |\n");
+            content.append(' ').append(SyntheticCatalog.body(i).replace("\n", "\n ")).append('\n');
+        }
+        return content.toString();
+    }
+
+    /**
+     * Writes a classpath directory with the definition files under {@link #PREFIX}. Half of the files are .sqld and
+     * half .ysqld.
+     *
+     * @param files - number of files
+     * @param queriesPerFile - number of queries in each file
+     * @return a class loader over the generated directory
+     */
+    public static URLClassLoader classpath(final int files, final int queriesPerFile) throws IOException {
+        final Path root = Files.createTempDirectory("sqld-benchmark");
+        root.toFile().deleteOnExit();
+        final Path dir = Files.createDirectories(root.resolve(PREFIX.replace('.', '/')));
+        for (int i = 0; i < files; i++) {
+            final int first = i * queriesPerFile;
+            final boolean yaml = i % 2 == 1;
+            final String content = yaml ? yamlFile(first, queriesPerFile) : textBlockFile(first, queriesPerFile);
+            final Path file = dir.resolve("file" + i + (yaml ? ".ysqld" : ".sqld"));
+            Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+            file.toFile().deleteOnExit();
+        }
+        return new URLClassLoader(new URL[] {root.toUri().toURL()}, SyntheticFiles.class.getClassLoader());
+    }
+
+    private SyntheticFiles() {
+        // Avoid instantiation of a Utility
+    }
+}
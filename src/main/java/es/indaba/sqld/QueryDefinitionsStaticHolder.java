@@ -9,13 +9,25 @@
  *******************************************************************************/
 package es.indaba.sqld;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.indaba.sqld.api.NamedParameterQuery;
+import es.indaba.sqld.api.QueryBundle;
 import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.api.QueryDefinitionMetrics;
 import es.indaba.sqld.api.QueryDefinitionRepository;
-import es.indaba.sqld.impl.QueryDefinitionStaticImpl;
+import es.indaba.sqld.api.QueryHandle;
 import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+import es.indaba.sqld.impl.loader.QueryDefinitionDirectoryLoader;
+import es.indaba.sqld.impl.loader.QueryDefinitionFileWatcher;
 
 public final class QueryDefinitionsStaticHolder {
 
@@ -23,10 +35,103 @@ public final class QueryDefinitionsStaticHolder {
 
     private static final QueryDefinitionRepository QUERY_REPOSITORY = new QueryDefinitionRepository();
 
+    private static final Executor BACKGROUND_LOADER = command -> {
+        final Thread thread = new Thread(command, "sqld-loader");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
     public static synchronized void loadQueryDefinitions(String prefix) {
         QueryDefinitionClassPathLoader.loadQueryDefinitionFiles(prefix, QUERY_REPOSITORY);
     }
 
+    /**
+     * Loads the query definitions under the prefix, parsing the files on the provided executor
+     * 
+     * @param prefix - The package prefix where the definition files are located
+     * @param executor - The executor where the files are parsed
+     */
+    public static synchronized void loadQueryDefinitions(String prefix, Executor executor) {
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles(prefix, QUERY_REPOSITORY, executor);
+    }
+
+    /**
+     * Loads the query definitions under the prefix, reading them from a snapshot of a previous load when the files have
+     * not changed. The snapshot is written when it is missing or outdated.
+     * 
+     * @param prefix - The package prefix where the definition files are located
+     * @param snapshot - The snapshot file
+     */
+    public static synchronized void loadQueryDefinitions(String prefix, Path snapshot) {
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles(prefix, QUERY_REPOSITORY, snapshot);
+    }
+
+    /**
+     * Loads the query definitions under a directory of the file system, like a directory mounted out of the
+     * application, see {@link QueryDefinitionDirectoryLoader}
+     * 
+     * @param directory - The directory where the definition files are located, at any depth
+     */
+    public static synchronized void loadQueryDefinitionsFromDirectory(Path directory) {
+        QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(directory, QUERY_REPOSITORY);
+    }
+
+    /**
+     * Loads the query definitions under the prefix in a background thread, so the caller is not blocked. Until the
+     * load finishes, requests of queries not loaded yet wait for it, up to the load timeout of the default repository.
+     * 
+     * @param prefix - The package prefix where the definition files are located
+     * @return - A future completed when the queries are loaded
+     */
+    public static CompletableFuture<Void> loadQueryDefinitionsInBackground(final String prefix) {
+        return loadQueryDefinitionsInBackground(prefix, BACKGROUND_LOADER);
+    }
+
+    /**
+     * Loads the query definitions under the prefix on the provided executor, see
+     * {@link #loadQueryDefinitionsInBackground(String)}
+     * 
+     * @param prefix - The package prefix where the definition files are located
+     * @param executor - The executor where the load runs
+     * @return - A future completed when the queries are loaded
+     */
+    public static CompletableFuture<Void> loadQueryDefinitionsInBackground(final String prefix,
+            final Executor executor) {
+        // The definition files are found through the context class loader of the caller
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return QUERY_REPOSITORY.loadInBackground(repository -> {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader previous = thread.getContextClassLoader();
+            thread.setContextClassLoader(classLoader);
+            try {
+                loadQueryDefinitions(prefix);
+            } finally {
+                thread.setContextClassLoader(previous);
+            }
+        }, executor);
+    }
+
+    /**
+     * Registers the query definitions under the prefix to be loaded on demand. Only the keys of the files are read
+     * now; each file is parsed the first time one of its queries is requested.
+     * 
+     * @param prefix - The package prefix where the definition files are located
+     */
+    public static synchronized void loadQueryDefinitionsLazily(String prefix) {
+        QueryDefinitionClassPathLoader.indexQueryDefinitionFiles(prefix, QUERY_REPOSITORY);
+    }
+
+    /**
+     * Checks if a query is present in the query store, loaded or pending to be loaded on demand
+     * 
+     * @param queryName - The query key
+     * @return - true if the query is present
+     */
+    public static boolean containsQuery(final String queryName) {
+        assert queryName != null;
+        return QUERY_REPOSITORY.containsQuery(queryName);
+    }
+
     /**
      * Get the query string from the query store
      * 
@@ -35,22 +140,135 @@ public final class QueryDefinitionsStaticHolder {
      */
     public static String getQueryAsString(final String queryName) {
         assert queryName != null;
-        if (!QUERY_REPOSITORY.containsQuery(queryName)) {
+        final String query = QUERY_REPOSITORY.getQuery(queryName);
+        if (query == null) {
+            LOGGER.error("The query with key '{}' is not present.", queryName);
+            throw new IllegalArgumentException("The query '" + queryName + "' is not present");
+        }
+        return query;
+    }
+
+    /**
+     * Get the query with its <tt>:name</tt> parameters translated to JDBC placeholders
+     * 
+     * @param queryName - The query key
+     * @return - The parsed query
+     */
+    public static NamedParameterQuery getNamedParameterQuery(final String queryName) {
+        assert queryName != null;
+        final NamedParameterQuery query = QUERY_REPOSITORY.getNamedParameterQuery(queryName);
+        if (query == null) {
             LOGGER.error("The query with key '{}' is not present.", queryName);
             throw new IllegalArgumentException("The query '" + queryName + "' is not present");
         }
-        return QUERY_REPOSITORY.getQuery(queryName);
+        return query;
     }
 
     /**
-     * Get the QueryDefinition object for the query
+     * Get the QueryDefinition object for the query. Once the key is present the object is canonical: every call for
+     * the key returns the same one, so it can be kept in a static field or asked for on each use.
      * 
      * @param queryName - The query key
      * @return - A QueryDefinition object
      */
     public static QueryDefinition getQueryDefinition(final String queryName) {
         assert queryName != null;
-        return new QueryDefinitionStaticImpl(queryName);
+        return QUERY_REPOSITORY.getQueryDefinition(queryName);
+    }
+
+    /**
+     * Get the handle of a query, whose query is read without a lookup by key
+     * 
+     * @param queryName - The query key
+     * @return - The handle, valid while the query store is reloaded
+     */
+    public static QueryHandle getQueryHandle(final String queryName) {
+        assert queryName != null;
+        return QUERY_REPOSITORY.getHandle(queryName);
+    }
+
+    /**
+     * List the keys of the query store that start with a prefix
+     * 
+     * @param prefix - The start of the keys, in any case. Empty to list every key
+     * @return - The keys, sorted and in lower case
+     */
+    public static List<String> getQueryKeys(final String prefix) {
+        assert prefix != null;
+        return QUERY_REPOSITORY.getKeys(prefix);
+    }
+
+    /**
+     * Get the queries of every key that starts with a prefix in a single call, like the queries of a DAO
+     * 
+     * @param prefix - The start of the keys, in any case
+     * @return - An immutable bundle with the queries
+     */
+    public static QueryBundle getQueryBundleByPrefix(final String prefix) {
+        assert prefix != null;
+        return QUERY_REPOSITORY.getBundleByPrefix(prefix);
+    }
+
+    /**
+     * Get the queries of several keys in a single call, checking that all of them are present
+     * 
+     * @param queryNames - The query keys
+     * @return - An immutable bundle with the queries
+     */
+    public static QueryBundle getQueryBundle(final Collection<String> queryNames) {
+        assert queryNames != null;
+        return QUERY_REPOSITORY.getBundle(queryNames);
+    }
+
+    /**
+     * Get the version of the query store. It changes every time the store is modified, so it can be used to cache
+     * what is read from it.
+     * 
+     * @return - The current version
+     */
+    public static long getVersion() {
+        return QUERY_REPOSITORY.getVersion();
+    }
+
+    /**
+     * Get the repository behind this holder. Modules that need their own queries can create an overlay over it with
+     * {@link QueryDefinitionRepository#createOverlay()} once the common queries are loaded.
+     * 
+     * @return - The default query store
+     */
+    public static QueryDefinitionRepository getDefaultRepository() {
+        return QUERY_REPOSITORY;
+    }
+
+    /**
+     * Get the lookup and load counters of the query store. Register them with
+     * {@link QueryDefinitionMetrics#registerMBean(String)} to read them through JMX.
+     * 
+     * @return - The metrics of the query store
+     */
+    public static QueryDefinitionMetrics getMetrics() {
+        return QUERY_REPOSITORY.getMetrics();
+    }
+
+    /**
+     * Sets the dialects whose scoped queries, like <tt>postgres.MY_QUERY</tt>, are returned for the unscoped key. The
+     * first dialect defining a query wins and the unscoped query is the last fallback.
+     *
+     * @param dialects - The dialect names in order of preference, none to resolve the keys as they are written
+     */
+    public static synchronized void setDialects(final String... dialects) {
+        QUERY_REPOSITORY.setDialects(dialects);
+    }
+
+    /**
+     * Watches the loaded definition files that are in a directory of the file system, like the output directory of
+     * the IDE, and reloads them as they change. Files in jars are not watched.
+     * 
+     * @return - The watcher, that has to be closed to stop watching
+     * @throws IOException if the file system can not be watched
+     */
+    public static QueryDefinitionFileWatcher watchQueryDefinitions() throws IOException {
+        return QueryDefinitionFileWatcher.watch(QUERY_REPOSITORY, Thread.currentThread().getContextClassLoader());
     }
 
     /**
@@ -60,8 +278,6 @@ public final class QueryDefinitionsStaticHolder {
         QUERY_REPOSITORY.clear();
     }
 
-
-
     private QueryDefinitionsStaticHolder() {
         // Avoid instantiation of a Utility
     }
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+import es.indaba.sqld.impl.parser.ParsedQueries;
+
+/**
+ * The queries of a file converted to bodies, out of the write lock, ready to be added to a snapshot.
+ */
+final class FileQueries {
+
+    private static final int[] NO_LINES = new int[0];
+
+    /*
+     * The body of each key, as written
+     */
+    final Map<String, Object> bodies;
+    /*
+     * Only the queries with named parameters
+     */
+    final Map<String, NamedParameterQuery> namedQueries;
+    /*
+     * The keys whose body has <tt>${KEY}</tt> includes, with the lines of the file of the body: empty if they are not
+     * known
+     */
+    final Map<String, int[]> includeLines;
+    final long estimatedBytes;
+
+    private FileQueries(final Map<String, Object> bodies, final Map<String, NamedParameterQuery> namedQueries,
+            final Map<String, int[]> includeLines) {
+        this.bodies = bodies;
+        this.namedQueries = namedQueries;
+        this.includeLines = includeLines;
+        this.estimatedBytes = QueryBodies.estimateBytes(bodies);
+    }
+
+    /**
+     * @param written - the queries of the file. The lines are known for the queries of the parsers, if they were not
+     *        normalized
+     * @param keys - the keys to convert
+     * @param converter - the converter of the batch
+     * @return the converted queries
+     */
+    static FileQueries convert(final Properties written, final Predicate<String> keys, final QueryBodies converter) {
+        final Map<String, Object> bodies = new HashMap<>();
+        final Map<String, NamedParameterQuery> namedQueries = new HashMap<>();
+        final Map<String, int[]> includeLines = new HashMap<>();
+        for (final String key : written.stringPropertyNames()) {
+            if (!keys.test(key)) {
+                continue;
+            }
+            final String query = written.getProperty(key);
+            bodies.put(key, converter.toBody(query));
+            converter.putNamed(namedQueries, key, query);
+            if (QueryIncludes.hasIncludes(query)) {
+                includeLines.put(key, lines(written, key));
+            }
+        }
+        return new FileQueries(bodies, namedQueries, includeLines);
+    }
+
+    private static int[] lines(final Properties written, final String key) {
+        final int[] lines = written instanceof ParsedQueries ? ((ParsedQueries) written).getLines(key) : null;
+        return lines == null ? NO_LINES : lines;
+    }
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A file registered with its keys, parsed on the first request of any of them
+ */
+final class LazyFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazyFile.class);
+
+    final String name;
+    final Set<String> keys;
+    final Function<String, Properties> reader;
+
+    LazyFile(final String name, final Set<String> keys, final Function<String, Properties> reader) {
+        this.name = name;
+        this.keys = keys;
+        this.reader = reader;
+    }
+
+    /**
+     * @param key - a key read from the file
+     * @return true if the key was registered with the file. The others are logged and ignored
+     */
+    boolean isRegistered(final String key) {
+        if (keys.contains(key)) {
+            return true;
+        }
+        LOGGER.warn("The query {} of the file {} was not registered, so it is ignored", key, name);
+        return false;
+    }
+}
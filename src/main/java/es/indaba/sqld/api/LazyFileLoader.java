@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the lazy files of a repository on demand. Concurrent first requests for the same file wait for a single read,
+ * and the file is published once read. A file that can not be read, or whose includes are cyclic, is published
+ * without queries: the error is logged once and the file is not read again on every lookup, as the loaders skip a file
+ * they can not read.
+ */
+final class LazyFileLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazyFileLoader.class);
+
+    /*
+     * One lock per lazy file being read
+     */
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    /*
+     * True while the file has not been published, by this loader or a write of the repository
+     */
+    private final Predicate<LazyFile> pending;
+    /*
+     * Publishes the queries of a file, throwing an IllegalArgumentException if they can not be published
+     */
+    private final BiConsumer<LazyFile, Properties> publisher;
+
+    LazyFileLoader(final Predicate<LazyFile> pending, final BiConsumer<LazyFile, Properties> publisher) {
+        this.pending = pending;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Reads and publishes a file, unless it has been published meanwhile
+     *
+     * @param lazyFile - the file
+     * @param lowerCaseKey - the key requested
+     */
+    void load(final LazyFile lazyFile, final String lowerCaseKey) {
+        final Object lock = locks.computeIfAbsent(lazyFile.name, name -> new Object());
+        synchronized (lock) {
+            // Another thread may have loaded the file while waiting
+            if (pending.test(lazyFile)) {
+                LOGGER.debug("Loading on demand the file {} for the query {}", lazyFile.name, lowerCaseKey);
+                read(lazyFile);
+            }
+            // Removed once the file is not pending, so no other lock is created for it while it is read
+            locks.remove(lazyFile.name, lock);
+        }
+    }
+
+    private void read(final LazyFile lazyFile) {
+        Properties queries;
+        try {
+            queries = lazyFile.reader.apply(lazyFile.name);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Error loading on demand the file {}, its queries are not available", lazyFile.name, e);
+            queries = null;
+        }
+        if (queries != null) {
+            try {
+                publisher.accept(lazyFile, queries);
+                return;
+            } catch (final IllegalArgumentException e) {
+                // The cycle has been logged
+                LOGGER.warn("The queries of the file {} are not available", lazyFile.name);
+            }
+        }
+        publisher.accept(lazyFile, new Properties());
+    }
+}
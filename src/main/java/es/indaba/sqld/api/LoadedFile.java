@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Map;
+
+/**
+ * The queries of a lazy file once parsed, kept with the file instead of copied into the catalog
+ */
+final class LoadedFile {
+
+    /*
+     * The queries as written, to expand them again when the contents change
+     */
+    final FileQueries written;
+    /*
+     * The body of each key, with its includes expanded
+     */
+    final Map<String, Object> bodies;
+    final Map<String, NamedParameterQuery> namedQueries;
+    final long estimatedBytes;
+
+    /**
+     * @param written - the queries of the file, not expanded yet
+     */
+    LoadedFile(final FileQueries written) {
+        this(written, written.bodies, written.namedQueries);
+    }
+
+    /**
+     * @param written - the queries of the file
+     * @param bodies - the bodies with their includes expanded
+     * @param namedQueries - the named queries of the expanded bodies
+     */
+    LoadedFile(final FileQueries written, final Map<String, Object> bodies,
+            final Map<String, NamedParameterQuery> namedQueries) {
+        this.written = written;
+        this.bodies = bodies;
+        this.namedQueries = namedQueries;
+        long bytes = QueryBodies.estimateBytes(bodies);
+        for (final String key : written.includeLines.keySet()) {
+            // The written body is kept as well
+            bytes += QueryBodies.estimateBytes(key, written.bodies.get(key));
+        }
+        this.estimatedBytes = bytes;
+    }
+
+    boolean hasIncludes() {
+        return !written.includeLines.isEmpty();
+    }
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import es.indaba.sqld.impl.parser.QueryLexer;
+
+/**
+ * A query with <tt>:name</tt> parameters translated to JDBC <tt>?</tt> placeholders.
+ *
+ * <P> The query is scanned once: parameters inside string literals, quoted identifiers and comments are ignored, as
+ * are PostgreSQL casts (<tt>::type</tt>). Positional <tt>?</tt> placeholders already present keep their position and
+ * are counted in the JDBC indexes, but they can not be bound by name.
+ *
+ * <P> Instances are immutable and thread-safe.
+ */
+public final class NamedParameterQuery {
+
+    private static final int[] NO_INDEXES = new int[0];
+
+    private static final ClassValue<Map<String, Method>> BEAN_GETTERS = new ClassValue<Map<String, Method>>() {
+        @Override
+        protected Map<String, Method> computeValue(final Class<?> type) {
+            return getters(type);
+        }
+    };
+
+    private final String sql;
+    private final int parameterCount;
+    /*
+     * JDBC (1 based) indexes of each name, in order of first appearance
+     */
+    private final Map<String, int[]> indexes;
+
+    private NamedParameterQuery(final String sql, final int parameterCount, final Map<String, int[]> indexes) {
+        this.sql = sql;
+        this.parameterCount = parameterCount;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Parses a query
+     *
+     * @param query - the query with <tt>:name</tt> parameters
+     * @return the parsed query
+     */
+    public static NamedParameterQuery parse(final String query) {
+        final int length = query.length();
+        StringBuilder sql = null;
+        final Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        int parameterCount = 0;
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            final int skipped = QueryLexer.skip(query, i);
+            if (skipped != i) {
+                i = skipped;
+                continue;
+            }
+            final int end = QueryLexer.parameterEnd(query, i);
+            if (end != -1) {
+                if (sql == null) {
+                    sql = new StringBuilder(length);
+                }
+                sql.append(query, copied, i).append('?');
+                copied = end;
+                parameterCount++;
+                final String name = query.substring(i + 1, end);
+                List<Integer> namePositions = positions.get(name);
+                if (namePositions == null) {
+                    namePositions = new ArrayList<>(1);
+                    positions.put(name, namePositions);
+                }
+                namePositions.add(parameterCount);
+                i = end;
+            } else if (query.charAt(i) == '?') {
+                parameterCount++;
+                i++;
+            } else {
+                i++;
+            }
+        }
+        if (sql == null) {
+            return new NamedParameterQuery(query, parameterCount, Collections.<String, int[]>emptyMap());
+        }
+        sql.append(query, copied, length);
+
+        final Map<String, int[]> indexes = new LinkedHashMap<>();
+        for (final Entry<String, List<Integer>> entry : positions.entrySet()) {
+            final List<Integer> namePositions = entry.getValue();
+            final int[] nameIndexes = new int[namePositions.size()];
+            for (int p = 0; p < nameIndexes.length; p++) {
+                nameIndexes[p] = namePositions.get(p);
+            }
+            indexes.put(entry.getKey(), nameIndexes);
+        }
+        return new NamedParameterQuery(sql.toString(), parameterCount, Collections.unmodifiableMap(indexes));
+    }
+
+    /**
+     * @return the query with JDBC <tt>?</tt> placeholders
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the number of JDBC placeholders, named or positional
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * @return true if the query has any <tt>:name</tt> parameter
+     */
+    public boolean hasNamedParameters() {
+        return !indexes.isEmpty();
+    }
+
+    /**
+     * @return the distinct parameter names, in order of first appearance
+     */
+    public List<String> getParameterNames() {
+        return new ArrayList<>(indexes.keySet());
+    }
+
+    /**
+     * @param name - a parameter name
+     * @return the JDBC (1 based) indexes where the parameter is used, empty if it is not used
+     */
+    public int[] getParameterIndexes(final String name) {
+        final int[] nameIndexes = indexes.get(name);
+        return nameIndexes == null ? NO_INDEXES : nameIndexes.clone();
+    }
+
+    /**
+     * Sets every named parameter of the statement from the values of a map.
+     *
+     * @param statement - a statement prepared with {@link #getSql()}
+     * @param values - the value of each parameter name
+     * @throws SQLException if the driver fails setting a value
+     * @throws IllegalArgumentException if a parameter is missing from the map
+     */
+    public void bind(final PreparedStatement statement, final Map<String, ?> values) throws SQLException {
+        for (final Entry<String, int[]> entry : indexes.entrySet()) {
+            final String name = entry.getKey();
+            if (!values.containsKey(name)) {
+                throw new IllegalArgumentException("No value for the parameter '" + name + "'");
+            }
+            setValue(statement, entry.getValue(), values.get(name));
+        }
+    }
+
+    /**
+     * Sets every named parameter of the statement from the properties of a bean. A {@link Map} is bound as in
+     * {@link #bind(PreparedStatement, Map)}.
+     *
+     * @param statement - a statement prepared with {@link #getSql()}
+     * @param bean - a bean with a readable property for each parameter name
+     * @throws SQLException if the driver fails setting a value
+     * @throws IllegalArgumentException if a property is missing or can not be read
+     */
+    @SuppressWarnings("unchecked")
+    public void bind(final PreparedStatement statement, final Object bean) throws SQLException {
+        if (bean instanceof Map) {
+            bind(statement, (Map<String, ?>) bean);
+            return;
+        }
+        final Map<String, Method> getters = BEAN_GETTERS.get(bean.getClass());
+        for (final Entry<String, int[]> entry : indexes.entrySet()) {
+            final String name = entry.getKey();
+            final Method getter = getters.get(name);
+            if (getter == null) {
+                throw new IllegalArgumentException(
+                        "No readable property for the parameter '" + name + "' in " + bean.getClass().getName());
+            }
+            try {
+                setValue(statement, entry.getValue(), getter.invoke(bean));
+            } catch (final IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalArgumentException("Unable to read the property '" + name + "'", e);
+            }
+        }
+    }
+
+    private static void setValue(final PreparedStatement statement, final int[] nameIndexes, final Object value)
+            throws SQLException {
+        for (final int index : nameIndexes) {
+            statement.setObject(index, value);
+        }
+    }
+
+    private static Map<String, Method> getters(final Class<?> type) {
+        try {
+            final Map<String, Method> getters = new HashMap<>();
+            for (final PropertyDescriptor descriptor : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+                final Method getter = descriptor.getReadMethod();
+                if (getter != null) {
+                    getter.setAccessible(true);
+                    getters.put(descriptor.getName(), getter);
+                }
+            }
+            return getters;
+        } catch (final IntrospectionException e) {
+            throw new IllegalArgumentException("Unable to introspect " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
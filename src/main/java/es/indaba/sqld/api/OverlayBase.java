@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The frozen repository an overlay looks up the queries it does not have in. A repository that is not an overlay has
+ * {@link #NONE}, which has no queries, so the lookups fall through to the base in any case.
+ */
+final class OverlayBase {
+
+    static final OverlayBase NONE = new OverlayBase(null);
+
+    private final QueryDefinitionRepository repository;
+
+    OverlayBase(final QueryDefinitionRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @return the base repository, or <code>null</code> for {@link #NONE}
+     */
+    QueryDefinitionRepository getRepository() {
+        return repository;
+    }
+
+    boolean isFileProcessed(final String file) {
+        return repository != null && repository.isFileProcessed(file);
+    }
+
+    boolean containsQuery(final String key) {
+        return repository != null && repository.containsQuery(key);
+    }
+
+    /*
+     * 0 without a base, so the version of an overlay is the sum of both
+     */
+    long getVersion() {
+        return repository == null ? 0 : repository.getVersion();
+    }
+
+    List<String> getKeys(final String prefix) {
+        return repository == null ? Collections.<String>emptyList() : repository.getKeys(prefix);
+    }
+
+    /*
+     * The query of the base, loading its lazy files
+     */
+    String find(final String lowerCaseKey) {
+        return repository == null ? null : repository.find(lowerCaseKey);
+    }
+
+    NamedParameterQuery findNamed(final String lowerCaseKey) {
+        return repository == null ? null : repository.findNamed(lowerCaseKey);
+    }
+
+    /*
+     * The query of the base, without loading its lazy files
+     */
+    String peek(final String lowerCaseKey) {
+        return repository == null ? null : repository.peek(lowerCaseKey);
+    }
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepared statements of a connection, cached by query key. It saves the parse round trip of preparing the same query
+ * again on drivers and pools that do not cache statements.
+ *
+ * <P> The cache is bounded: when it is full the least recently used statement is closed. The statements are prepared
+ * from {@link QueryDefinition#getNamedParameterQuery()}, so the <tt>:name</tt> parameters are bound with
+ * {@link NamedParameterQuery#bind(PreparedStatement, Map)}. If a query changes, e.g. its file is reloaded, its
+ * statement is prepared again.
+ *
+ * <P> The statements returned are owned by the cache and must not be closed by the caller; they are closed with the
+ * cache. As a connection, a cache is not thread-safe.
+ */
+public class PreparedStatementCache implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+    private final Connection connection;
+    private final int maxSize;
+    private final Map<String, CachedStatement> statements;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param connection - the connection the statements are prepared on. It is not closed with the cache
+     * @param maxSize - the maximum number of statements kept open
+     */
+    public PreparedStatementCache(final Connection connection, final int maxSize) {
+        if (maxSize <= 0) {
+            LOGGER.error("The size of the statement cache must be positive: {}", maxSize);
+            throw new IllegalArgumentException("The size of the statement cache must be positive: " + maxSize);
+        }
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the statement of a query, preparing it if it is not cached
+     *
+     * @param query - the query
+     * @return the statement, with the parameters of a previous use cleared
+     * @throws SQLException if the statement can not be prepared
+     */
+    public PreparedStatement prepare(final QueryDefinition query) throws SQLException {
+        final String key = query.getKey().toLowerCase();
+        final String sql = query.getNamedParameterQuery().getSql();
+        final CachedStatement cached = statements.get(key);
+        if (cached != null) {
+            if (cached.sql.equals(sql) && !cached.statement.isClosed()) {
+                hitCount++;
+                cached.statement.clearParameters();
+                return cached.statement;
+            }
+            statements.remove(key);
+            closeQuietly(cached);
+        }
+        missCount++;
+        final PreparedStatement statement = connection.prepareStatement(sql);
+        statements.put(key, new CachedStatement(sql, statement));
+        if (statements.size() > maxSize) {
+            evictEldest();
+        }
+        return statement;
+    }
+
+    /**
+     * @return the number of statements served from the cache
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of statements prepared
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of statements closed to make room for others
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of statements open
+     */
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all the cached statements. The cache can still be used afterwards.
+     *
+     * @throws SQLException if a statement can not be closed. The rest are closed anyway
+     */
+    @Override
+    public void close() throws SQLException {
+        final List<CachedStatement> open = new ArrayList<>(statements.values());
+        statements.clear();
+        SQLException failure = null;
+        for (final CachedStatement cached : open) {
+            try {
+                cached.statement.close();
+            } catch (SQLException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void evictEldest() {
+        final Map.Entry<String, CachedStatement> eldest = statements.entrySet().iterator().next();
+        statements.remove(eldest.getKey());
+        evictionCount++;
+        LOGGER.debug("Closing the statement of the query {} to make room in the cache", eldest.getKey());
+        closeQuietly(eldest.getValue());
+    }
+
+    private static void closeQuietly(final CachedStatement cached) {
+        try {
+            cached.statement.close();
+        } catch (SQLException e) {
+            LOGGER.warn("The cached statement can not be closed", e);
+        }
+    }
+
+    private static final class CachedStatement {
+
+        private final String sql;
+        private final PreparedStatement statement;
+
+        private CachedStatement(final String sql, final PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Converts queries to the bodies a repository holds, as configured with {@link QueryStorage}, and estimates the heap
+ * they take. An instance converts a batch: identical bodies of the batch share the same instance.
+ */
+final class QueryBodies {
+
+    /*
+     * Rough sizes on a 64 bit JVM with compressed references, used to estimate the heap taken by the queries
+     */
+    private static final int ENTRY_BYTES = 40;
+    private static final int STRING_BYTES = 40;
+    private static final int ARRAY_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    private final QueryStorage storage;
+    private final Map<Object, Object> distinctBodies = new HashMap<>();
+
+    QueryBodies(final QueryStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * @param query - a query
+     * @return its body, a String or its UTF-8 bytes depending on the storage
+     */
+    Object toBody(final String query) {
+        if (storage == QueryStorage.STRINGS) {
+            final Object distinct = distinctBodies.putIfAbsent(query, query);
+            return distinct == null ? query : distinct;
+        }
+        final byte[] body = query.getBytes(StandardCharsets.UTF_8);
+        // ByteBuffer equality is based on the content
+        final Object distinct = distinctBodies.putIfAbsent(ByteBuffer.wrap(body), body);
+        return distinct == null ? body : distinct;
+    }
+
+    /**
+     * Sets the named query of a key, or removes it if the query has no named parameters
+     *
+     * @param namedQueries - the named queries by key
+     * @param key - the key
+     * @param query - its query
+     */
+    void putNamed(final Map<String, NamedParameterQuery> namedQueries, final String key, final String query) {
+        final NamedParameterQuery named = namedParameters(query);
+        if (named == null) {
+            namedQueries.remove(key);
+        } else {
+            namedQueries.put(key, named);
+        }
+    }
+
+    /**
+     * @param query - a query
+     * @return the parsed query, or null if it has no named parameters. The translation is a string, so it is not held
+     *         with UTF-8 bodies
+     */
+    NamedParameterQuery namedParameters(final String query) {
+        if (storage != QueryStorage.STRINGS) {
+            return null;
+        }
+        final NamedParameterQuery named = NamedParameterQuery.parse(query);
+        return named.hasNamedParameters() ? named : null;
+    }
+
+    static String text(final Object body) {
+        return body instanceof String ? (String) body : new String((byte[]) body, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Identical bodies shared by several keys are counted for each key
+     */
+    static long estimateBytes(final Map<String, Object> queries) {
+        long bytes = 0;
+        for (final Entry<String, Object> query : queries.entrySet()) {
+            bytes += estimateBytes(query.getKey(), query.getValue());
+        }
+        return bytes;
+    }
+
+    static long estimateBytes(final String key, final Object body) {
+        final long keyBytes = ENTRY_BYTES + REFERENCE_BYTES + STRING_BYTES + 2L * key.length();
+        if (body instanceof String) {
+            return keyBytes + STRING_BYTES + 2L * ((String) body).length();
+        }
+        return keyBytes + ARRAY_BYTES + ((byte[]) body).length;
+    }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queries of several keys read from a {@link QueryDefinitionRepository} in a single call, like every query of a
+ * DAO. A bundle is immutable: it keeps the queries as they were when it was read, so a DAO can read its bundle once
+ * when it is created. Check {@link #getVersion()} against {@link QueryDefinitionRepository#getVersion()} to know if
+ * it has to be read again.
+ *
+ * <P> The keys are held sorted in lower case, and a query is found by a binary search of its key.
+ */
+public final class QueryBundle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryBundle.class);
+
+    private final long version;
+    private final String[] keys;
+    private final String[] queries;
+    /*
+     * Null for the queries without named parameters
+     */
+    private final NamedParameterQuery[] namedQueries;
+
+    QueryBundle(final long version, final String[] keys, final String[] queries,
+            final NamedParameterQuery[] namedQueries) {
+        this.version = version;
+        this.keys = keys;
+        this.queries = queries;
+        this.namedQueries = namedQueries;
+    }
+
+    /**
+     * @return the version of the repository the queries were read from
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the keys of the bundle, sorted and in lower case
+     */
+    public List<String> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /**
+     * @return the number of queries
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param key - The query key
+     * @return true if the query is in the bundle
+     */
+    public boolean containsQuery(final String key) {
+        return Arrays.binarySearch(keys, key.toLowerCase()) >= 0;
+    }
+
+    /**
+     * @param key - The query key
+     * @return - the query
+     * @throws IllegalArgumentException if the query is not in the bundle
+     */
+    public String getQuery(final String key) {
+        return queries[indexOf(key)];
+    }
+
+    /**
+     * @param key - The query key
+     * @return - the query with its <tt>:name</tt> parameters translated to JDBC placeholders
+     * @throws IllegalArgumentException if the query is not in the bundle
+     */
+    public NamedParameterQuery getNamedParameterQuery(final String key) {
+        final int index = indexOf(key);
+        final NamedParameterQuery named = namedQueries[index];
+        // Queries without named parameters are not stored twice
+        return named != null ? named : NamedParameterQuery.parse(queries[index]);
+    }
+
+    private int indexOf(final String key) {
+        final int index = Arrays.binarySearch(keys, key.toLowerCase());
+        if (index < 0) {
+            LOGGER.error("The query with key '{}' is not present in the bundle.", key);
+            throw new IllegalArgumentException("The query '" + key + "' is not present in the bundle");
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryBundle" + Arrays.toString(keys);
+    }
+}
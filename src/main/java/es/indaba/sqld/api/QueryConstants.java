@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Requests the generation, at compile time, of a class with a constant for each query of the listed definition files.
+ * The files are parsed by the annotation processor, so syntax errors and duplicated keys are reported as compilation
+ * errors.
+ *
+ * <PRE>
+ * &#64;QueryConstants({"com/test/test-queries.sqld", "com/test/test.ysqld"})
+ * public class MyDao { ... }
+ * </PRE>
+ *
+ * generates <tt>MyDaoQueries</tt> in the same package, with a <tt>String</tt> constant holding the query text for each
+ * key (<tt>MyDaoQueries.MY_QUERY_1</tt>) and a nested <tt>Keys</tt> class with the query keys
+ * (<tt>MyDaoQueries.Keys.MY_QUERY_1</tt>).
+ *
+ * <P> The processor is not registered as a service, so the build has to name it:
+ * <tt>-processor es.indaba.sqld.impl.processor.QueryConstantsProcessor</tt>.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface QueryConstants {
+
+    /**
+     * @return the classpath resource paths of the .sqld and .ysqld files to compile
+     */
+    String[] value();
+
+    /**
+     * @return the simple name of the generated class. By default the annotated class name followed by
+     *         <tt>Queries</tt>
+     */
+    String className() default "";
+}
@@ -9,9 +9,10 @@
  *******************************************************************************/
 package es.indaba.sqld.api;
 
-import java.text.MessageFormat;
+import java.util.Map;
 
-import org.apache.commons.lang.StringUtils;
+import es.indaba.sqld.impl.template.ConditionalQuery;
+import es.indaba.sqld.impl.template.QueryTemplate;
 
 /**
  * This is a Query Definition Proxy. It retrieves the SQL query from the queries
@@ -22,6 +23,20 @@ public class QueryDefinition {
 
 	protected String query;
 	protected final String key;
+	/*
+	 * Compiled form of the query, built on the first interpolation. Immutable, so it
+	 * can be shared between threads without further synchronization.
+	 */
+	private QueryTemplate template;
+	/*
+	 * Query with the named parameters translated, resolved on first use. Immutable.
+	 */
+	protected NamedParameterQuery namedParameterQuery;
+	/*
+	 * Compiled form of a query with conditional segments, built on the first render.
+	 * Its cache of shapes is thread-safe.
+	 */
+	private ConditionalQuery conditionalQuery;
 
 	public QueryDefinition(String key) {
 		this.key = key;
@@ -50,14 +65,68 @@ public class QueryDefinition {
 	}
 
 	/**
-	 * Returns the query as an interpolated String with the provided parameters
+	 * Returns the query as an interpolated String with the provided parameters. The
+	 * query is compiled once and parameters are formatted without locale, see
+	 * {@link QueryTemplate}.
 	 * 
 	 * @param parameters
 	 *            parameters to be interpolated into the query
 	 * @return the query interpolated with the parameters
 	 */
 	public String getQueryAsString(Object... parameters) {
-		return MessageFormat.format(StringUtils.replace((String) query, "'", "''"), parameters);
+		final String current = getQueryAsString();
+		QueryTemplate compiled = template;
+		if (compiled == null || !compiled.isCompiledFrom(current)) {
+			compiled = QueryTemplate.compile(current);
+			template = compiled;
+		}
+		return compiled.format(parameters);
+	}
+
+	/**
+	 * Returns the query with its <tt>:name</tt> parameters translated to JDBC
+	 * <tt>?</tt> placeholders, along with the index of each parameter.
+	 * 
+	 * @return the parsed query
+	 */
+	public NamedParameterQuery getNamedParameterQuery() {
+		NamedParameterQuery parsed = namedParameterQuery;
+		if (parsed == null) {
+			parsed = NamedParameterQuery.parse(getQueryAsString());
+			namedParameterQuery = parsed;
+		}
+		return parsed;
+	}
+
+	/**
+	 * Returns the query with the conditional <tt>[[ ... ]]</tt> segments whose
+	 * parameters have a value, and its <tt>:name</tt> parameters translated. The
+	 * query is compiled once and each combination of segments is rendered once, see
+	 * {@link ConditionalQuery}.
+	 * 
+	 * @param values
+	 *            the parameter values, also to be bound with
+	 *            {@link NamedParameterQuery#bind(java.sql.PreparedStatement, Map)}
+	 * @return the rendered query
+	 */
+	public NamedParameterQuery getNamedParameterQuery(Map<String, ?> values) {
+		final String current = getQueryAsString();
+		ConditionalQuery compiled = conditionalQuery;
+		if (compiled == null || !compiled.isCompiledFrom(current)) {
+			compiled = ConditionalQuery.compile(current);
+			conditionalQuery = compiled;
+		}
+		return compiled.render(values);
+	}
+
+	/**
+	 * Returns the fingerprint of the query, see {@link QueryNormalizer#fingerprint(String)}.
+	 * It is computed on each call.
+	 * 
+	 * @return the 64 bit fingerprint of the query
+	 */
+	public long getFingerprint() {
+		return QueryNormalizer.fingerprint(getQueryAsString());
 	}
 
 	@Override
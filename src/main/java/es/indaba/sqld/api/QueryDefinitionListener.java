@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+/**
+ * Receives the events of a {@link QueryDefinitionRepository}, to bridge them to a metrics system. Register it with
+ * {@link QueryDefinitionMetrics#addListener(QueryDefinitionListener)}.
+ *
+ * <P> The methods are called synchronously by the thread that causes the event:
+ * {@link #queryRequested(String, boolean)} on every lookup, so it must be cheap, and
+ * {@link #catalogChanged(int, int, long)} once the change is published, out of the repository write lock. The catalog
+ * notifications are serialized and carry the latest figures, so changes published at once by several threads may be
+ * notified once. Exceptions thrown by a listener are logged and ignored.
+ */
+public interface QueryDefinitionListener {
+
+    /**
+     * A query has been requested
+     *
+     * @param key - the query key, in lower case
+     * @param found - false if the query is not present
+     */
+    default void queryRequested(final String key, final boolean found) {
+        // Not interested by default
+    }
+
+    /**
+     * A definition file has been parsed
+     *
+     * @param file - the file name
+     * @param bytes - the size of the file
+     * @param nanos - the time spent reading and parsing the file
+     * @param queries - the number of queries in the file
+     */
+    default void fileParsed(final String file, final long bytes, final long nanos, final int queries) {
+        // Not interested by default
+    }
+
+    /**
+     * The contents of the repository have changed
+     *
+     * @param queries - the number of queries loaded
+     * @param files - the number of files processed
+     * @param estimatedBytes - an estimation of the heap taken by the queries
+     */
+    default void catalogChanged(final int queries, final int files, final long estimatedBytes) {
+        // Not interested by default
+    }
+}
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters of a {@link QueryDefinitionRepository}: lookups per key, lookups of missing queries, size and parse time of
+ * each file, and size of the catalog. They can be read through JMX once registered with
+ * {@link #registerMBean(String)}, or followed with a {@link QueryDefinitionListener}.
+ *
+ * <P> A lookup costs a map read and a {@link LongAdder} increment, which do not contend between threads, so the
+ * counters are always on. Only the keys found have a counter of their own; the lookups of missing keys are only
+ * counted together, so requests of arbitrary keys do not grow the counters.
+ */
+public class QueryDefinitionMetrics implements QueryDefinitionMetricsMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryDefinitionMetrics.class);
+
+    public static final String DEFAULT_OBJECT_NAME = "es.indaba.sqld:type=QueryDefinitionMetrics";
+
+    private final ConcurrentMap<String, LongAdder> lookups = new ConcurrentHashMap<>();
+    private final LongAdder missingQueries = new LongAdder();
+    private final Map<String, FileParse> parsedFiles = new ConcurrentHashMap<>();
+    private final List<QueryDefinitionListener> listeners = new CopyOnWriteArrayList<>();
+
+    /*
+     * Written holding the repository write lock
+     */
+    private volatile Catalog catalog = new Catalog(0, 0, 0);
+
+    private final Object notifyLock = new Object();
+
+    /*
+     * Guarded by the notify lock. The catalog last notified to the listeners
+     */
+    private Catalog notifiedCatalog = catalog;
+
+    /**
+     * @param listener - the listener to be notified of the repository events
+     */
+    public void addListener(final QueryDefinitionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener - a listener previously added
+     */
+    public void removeListener(final QueryDefinitionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server
+     *
+     * @param name - the object name, {@link #DEFAULT_OBJECT_NAME} unless several repositories are registered
+     * @return the registered name
+     * @throws JMException if the name is not valid or it is already registered
+     */
+    public ObjectName registerMBean(final String name) throws JMException {
+        final ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Records the parsing of a definition file. Called by the loaders.
+     *
+     * @param file - the file name
+     * @param bytes - the size of the file
+     * @param nanos - the time spent reading and parsing the file
+     * @param queries - the number of queries in the file
+     */
+    public void fileParsed(final String file, final long bytes, final long nanos, final int queries) {
+        parsedFiles.put(file, new FileParse(bytes, nanos));
+        for (final QueryDefinitionListener listener : listeners) {
+            try {
+                listener.fileParsed(file, bytes, nanos, queries);
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Error notifying the parsing of {} to {}", file, listener, e);
+            }
+        }
+    }
+
+    void queryRequested(final String key, final boolean found) {
+        queryRequested(key, found ? lookupCounter(key) : null, found);
+    }
+
+    /*
+     * For callers that keep the counter of a key to skip the map read. The counter is null for a missing key
+     */
+    void queryRequested(final String key, final LongAdder counter, final boolean found) {
+        if (found) {
+            counter.increment();
+        } else {
+            missingQueries.increment();
+        }
+        if (listeners.isEmpty()) {
+            return;
+        }
+        for (final QueryDefinitionListener listener : listeners) {
+            try {
+                listener.queryRequested(key, found);
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Error notifying the request of {} to {}", key, listener, e);
+            }
+        }
+    }
+
+    /*
+     * The counter of a key is never replaced, so it can be kept by the caller. Only requested for keys found
+     */
+    LongAdder lookupCounter(final String key) {
+        LongAdder counter = lookups.get(key);
+        if (counter == null) {
+            counter = new LongAdder();
+            final LongAdder previous = lookups.putIfAbsent(key, counter);
+            if (previous != null) {
+                counter = previous;
+            }
+        }
+        return counter;
+    }
+
+    /*
+     * Called holding the repository write lock, so the figures are set in the order of the changes. The listeners are
+     * notified later, see notifyCatalogChanged()
+     */
+    void catalogChanged(final int queries, final int files, final long estimatedBytes) {
+        catalog = new Catalog(queries, files, estimatedBytes);
+    }
+
+    /*
+     * Called once the repository write lock is released. The notifications are serialized and always report the latest
+     * figures, so the changes published meanwhile by other threads are notified once
+     */
+    void notifyCatalogChanged() {
+        synchronized (notifyLock) {
+            final Catalog changed = catalog;
+            if (changed == notifiedCatalog) {
+                return;
+            }
+            notifiedCatalog = changed;
+            for (final QueryDefinitionListener listener : listeners) {
+                try {
+                    listener.catalogChanged(changed.queries, changed.files, changed.estimatedBytes);
+                } catch (final RuntimeException e) {
+                    LOGGER.warn("Error notifying a catalog change to {}", listener, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key - a query key
+     * @return the number of lookups of the key
+     */
+    public long getLookupCount(final String key) {
+        final LongAdder counter = lookups.get(key.toLowerCase());
+        return counter == null ? 0 : counter.sum();
+    }
+
+    @Override
+    public long getLookupCount() {
+        long count = missingQueries.sum();
+        for (final LongAdder counter : lookups.values()) {
+            count += counter.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public long getMissingQueryCount() {
+        return missingQueries.sum();
+    }
+
+    @Override
+    public Map<String, Long> getLookupCountByKey() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (final Entry<String, LongAdder> counter : lookups.entrySet()) {
+            final long count = counter.getValue().sum();
+            if (count != 0) {
+                counts.put(counter.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public int getQueryCount() {
+        return catalog.queries;
+    }
+
+    @Override
+    public int getFileCount() {
+        return catalog.files;
+    }
+
+    @Override
+    public long getEstimatedMemoryBytes() {
+        return catalog.estimatedBytes;
+    }
+
+    @Override
+    public Map<String, Long> getBytesByFile() {
+        final Map<String, Long> bytes = new TreeMap<>();
+        for (final Entry<String, FileParse> parse : parsedFiles.entrySet()) {
+            bytes.put(parse.getKey(), parse.getValue().bytes);
+        }
+        return bytes;
+    }
+
+    @Override
+    public Map<String, Long> getParseMicrosByFile() {
+        final Map<String, Long> micros = new TreeMap<>();
+        for (final Entry<String, FileParse> parse : parsedFiles.entrySet()) {
+            micros.put(parse.getKey(), TimeUnit.NANOSECONDS.toMicros(parse.getValue().nanos));
+        }
+        return micros;
+    }
+
+    @Override
+    public void resetLookupCounts() {
+        // Reset in place, the counters may be kept by query handles
+        for (final LongAdder counter : lookups.values()) {
+            counter.reset();
+        }
+        missingQueries.reset();
+    }
+
+    private static final class FileParse {
+
+        private final long bytes;
+        private final long nanos;
+
+        private FileParse(final long bytes, final long nanos) {
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final class Catalog {
+
+        private final int queries;
+        private final int files;
+        private final long estimatedBytes;
+
+        private Catalog(final int queries, final int files, final long estimatedBytes) {
+            this.queries = queries;
+            this.files = files;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
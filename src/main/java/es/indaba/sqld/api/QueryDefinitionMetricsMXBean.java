@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link QueryDefinitionMetrics}.
+ */
+public interface QueryDefinitionMetricsMXBean {
+
+    /**
+     * @return the number of lookups, including the ones of missing queries
+     */
+    long getLookupCount();
+
+    /**
+     * @return the number of lookups of queries that are not present
+     */
+    long getMissingQueryCount();
+
+    /**
+     * @return the number of lookups of each key
+     */
+    Map<String, Long> getLookupCountByKey();
+
+    /**
+     * @return the number of queries loaded
+     */
+    int getQueryCount();
+
+    /**
+     * @return the number of files processed
+     */
+    int getFileCount();
+
+    /**
+     * @return an estimation of the heap taken by the queries
+     */
+    long getEstimatedMemoryBytes();
+
+    /**
+     * @return the size of each parsed file
+     */
+    Map<String, Long> getBytesByFile();
+
+    /**
+     * @return the time spent reading and parsing each file, in microseconds
+     */
+    Map<String, Long> getParseMicrosByFile();
+
+    /**
+     * Resets the lookup counters
+     */
+    void resetLookupCounts();
+}
@@ -1,64 +1,1037 @@
 package es.indaba.sqld.api;
 
-import java.util.Enumeration;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import es.indaba.sqld.QueryDefinitionsStaticHolder;
 
+/**
+ * Store of query definitions.
+ *
+ * Reads never lock: the definitions are held in an immutable snapshot published through a volatile reference. Writes
+ * are serialized, build a new snapshot (copy-on-write) and swap it in a single step, so a reader sees either the
+ * previous or the new catalog, never a partially loaded one.
+ *
+ * Files can also be registered lazily with only their keys (see {@link #addLazyQueries(Map, Function)}). A lazy file
+ * is parsed the first time one of its keys is requested; concurrent first requests for the same file wait for a
+ * single parse. Its queries are kept with the file instead of copied into the catalog, and only the queries whose
+ * includes were waiting for the file are expanded again, so a load costs the size of the file.
+ *
+ * Keys can be scoped by a database dialect, as in <tt>postgres.MY_QUERY</tt>. With {@link #setDialects(String...)}
+ * the unscoped key resolves to the body of the first configured dialect that defines it, and to the unscoped body
+ * otherwise. The resolution is precomputed each time the contents change, so a lookup is still a single map read.
+ *
+ * A repository can be an overlay over a frozen base (see {@link #createOverlay()}). The queries not found in the
+ * overlay are looked up in the base, so a catalog common to several modules is parsed once and shared, and each
+ * module adds its own queries to its overlay. Queries of the overlay hide those of the base with the same key.
+ *
+ * Loads can run in the background (see {@link #loadInBackground(Consumer, Executor)}). While one is running a lookup
+ * of a missing key waits for it, up to the load timeout, instead of failing at once.
+ *
+ * Hot paths can resolve a key once to a {@link QueryHandle} (see {@link #getHandle(String)}), whose query is read
+ * from an array indexed by the handle instead of looked up by key.
+ *
+ * The keys can be listed by prefix, and the queries of several keys read at once in a {@link QueryBundle} (see
+ * {@link #getBundle(Collection)}). The sorted keys are built once per version, on the first request.
+ *
+ * The queries can be normalized as they are added, see {@link #setNormalizeQueries(boolean)}.
+ *
+ * A query can include another one by key, as <tt>${COMMON_COLUMNS}</tt>, also across files. The includes are
+ * expanded each time the contents change, so a lookup returns the expanded query without any substitution. Cyclic
+ * includes are rejected as duplicated keys are.
+ *
+ * The bodies are held as configured with {@link QueryStorage}. Identical bodies added in the same batch are stored
+ * once, and the keys of each file are kept in an array under its name instead of a map from every key to its file.
+ * With UTF-8 bodies the translation of the named parameters is not held either: it is parsed on request, and kept
+ * with the string of the hot keys.
+ */
 public class QueryDefinitionRepository {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryDefinitionsStaticHolder.class);
 
-    private Properties queries = new Properties();
-    private Set<String> files = new HashSet<>();
-    private Map<String, String> queriesFile = new HashMap<>();
+    private static final long DEFAULT_LOAD_TIMEOUT_MILLIS = 30000;
+
+    private final QueryStorage storage;
+
+    /*
+     * Frozen repository the queries missing in this one are looked up in, {@link OverlayBase#NONE} when this is not an
+     * overlay
+     */
+    private final OverlayBase base;
+
+    /*
+     * Null when the bodies are strings or the cache is disabled
+     */
+    private final HotQueries hotQueries;
+
+    private final QueryDefinitionMetrics metrics = new QueryDefinitionMetrics();
+
+    private final Object writeLock = new Object();
+
+    private volatile QuerySnapshot snapshot = QuerySnapshot.EMPTY;
+
+    private final LazyFileLoader lazyFiles =
+            new LazyFileLoader(lazyFile -> snapshot.isPending(lazyFile), this::addLoadedFile);
+
+    /*
+     * Guarded by the write lock. Never reset, so a version is not reused after clear()
+     */
+    private long lastVersion;
+
+    /*
+     * Guarded by the write lock. Replaced when the dialects change
+     */
+    private QueryResolver resolver;
+
+    /*
+     * Written under the write lock
+     */
+    private volatile boolean frozen;
+
+    /*
+     * Read out of the write lock while the queries are converted, so it is only set on an empty repository
+     */
+    private volatile boolean normalizeQueries;
+
+    private final ConcurrentMap<String, QueryHandle> handles = new ConcurrentHashMap<>();
+    /*
+     * The handle shared by the requests of each key not present when it was requested, not in the handle table
+     */
+    private final ConcurrentMap<String, QueryHandle> unregisteredHandles = new ConcurrentHashMap<>();
+
+    /*
+     * Guarded by the write lock. The handles by index
+     */
+    private final List<QueryHandle> handleList = new ArrayList<>();
+
+    private volatile HandleTable handleTable = HandleTable.EMPTY;
+
+    private volatile KeyIndex keyIndex = KeyIndex.EMPTY;
+
+    private final AtomicInteger pendingLoads = new AtomicInteger();
+
+    /*
+     * Notified when the contents change while a background load is pending. Never held while taking the write lock
+     */
+    private final Object loadMonitor = new Object();
+
+    private volatile long loadTimeoutMillis = DEFAULT_LOAD_TIMEOUT_MILLIS;
+
+    public QueryDefinitionRepository() {
+        this(QueryStorage.STRINGS, 0);
+    }
+
+    /**
+     * @param storage - how the query bodies are held
+     * @param hotKeysCacheSize - number of recently requested queries kept as strings when the bodies are not held as
+     *        strings. 0 disables the cache
+     */
+    public QueryDefinitionRepository(final QueryStorage storage, final int hotKeysCacheSize) {
+        this(OverlayBase.NONE, storage, hotKeysCacheSize);
+    }
+
+    private QueryDefinitionRepository(final OverlayBase base, final QueryStorage storage, final int hotKeysCacheSize) {
+        this.base = base;
+        this.storage = storage;
+        this.resolver = new QueryResolver(base, storage);
+        this.hotQueries =
+                storage == QueryStorage.STRINGS || hotKeysCacheSize <= 0 ? null : new HotQueries(hotKeysCacheSize);
+    }
 
     public void fileLoaded(final String file) {
-        files.add(file);
+        synchronized (writeLock) {
+            checkNotFrozen();
+            if (snapshot.files.contains(file)) {
+                return;
+            }
+            publish(snapshot.builder().markProcessed(file));
+        }
+        metrics.notifyCatalogChanged();
     }
 
+    /**
+     * @param file - the file name
+     * @return true if the file has been processed by this repository or its base
+     */
     public boolean isFileProcessed(final String file) {
-        return files.contains(file);
+        return snapshot.files.contains(file) || base.isFileProcessed(file);
     }
 
     public void addQuery(final Properties aProperties, final String aSqlFileName) {
-        final Enumeration<?> keys = aProperties.propertyNames();
-        while (keys.hasMoreElements()) {
-            final String key = (String) keys.nextElement();
-            final String value = aProperties.getProperty(key);
-            if (queries.containsKey(key)) {
-                String duplicateKeyFile = queriesFile.get(key);
-                LOGGER.error("The query '{}' is duplicated. The key is present in files {} and {} ", key, aSqlFileName,
-                        duplicateKeyFile);
-                throw new IllegalArgumentException(
-                        "The query '" + key + "' is duplicated in files " + aSqlFileName + " and " + duplicateKeyFile);
+        merge(Collections.singletonMap(aSqlFileName, aProperties), false);
+    }
+
+    /**
+     * Adds the queries of several files and marks those files as processed. The whole batch is published at once: if a
+     * key is duplicated the repository is left untouched. The files already processed, as by a load running at the
+     * same time, are skipped.
+     *
+     * @param filesQueries - the queries of each file, keyed by file name
+     */
+    public void addQueries(final Map<String, Properties> filesQueries) {
+        merge(filesQueries, true);
+    }
+
+    /**
+     * Registers files whose queries are loaded on demand and marks those files as processed. Only the keys are kept
+     * until one of them is requested; then the whole file is read with the provided reader and its queries are added.
+     * Duplicated keys are checked when the files are registered.
+     *
+     * @param filesKeys - the keys of each file, keyed by file name
+     * @param fileReader - reads the queries of a file given its name. It may return <code>null</code> or throw if the
+     *        file can not be read: the error is logged once and the keys of the file are not found
+     */
+    public void addLazyQueries(final Map<String, Set<String>> filesKeys,
+            final Function<String, Properties> fileReader) {
+        synchronized (writeLock) {
+            checkNotFrozen();
+            final QuerySnapshot.Builder builder = snapshot.builder();
+            for (final Entry<String, Set<String>> fileKeys : filesKeys.entrySet()) {
+                builder.addLazyFile(new LazyFile(fileKeys.getKey(), fileKeys.getValue(), fileReader));
             }
-            queries.setProperty(key, value);
-            queriesFile.put(key, aSqlFileName);
+            publish(builder);
         }
+        metrics.notifyCatalogChanged();
     }
 
     public boolean containsQuery(String key) {
         assert key != null;
-        return queries.containsKey(key.toLowerCase());
+        return snapshot.contains(key.toLowerCase()) || base.containsQuery(key);
     }
 
+    /**
+     * Get the query string
+     *
+     * @param key - The query key
+     * @return - the query or <code>null</code> if it is not present
+     */
     public String getQuery(String key) {
         assert key != null;
-        return queries.getProperty(key.toLowerCase());
+        final String lowerCaseKey = key.toLowerCase();
+        String query = find(lowerCaseKey);
+        if (query == null && pendingLoads.get() > 0) {
+            query = awaitQuery(lowerCaseKey);
+        }
+        metrics.queryRequested(lowerCaseKey, query != null);
+        return query;
+    }
+
+    /**
+     * Get the query with its <tt>:name</tt> parameters translated to JDBC placeholders. The translation is done when
+     * the query is loaded, or on request if the bodies are held as UTF-8.
+     *
+     * @param key - The query key
+     * @return - the parsed query or <code>null</code> if it is not present
+     */
+    public NamedParameterQuery getNamedParameterQuery(String key) {
+        assert key != null;
+        final String query = getQuery(key);
+        if (query == null) {
+            return null;
+        }
+        final NamedParameterQuery named = findNamed(key.toLowerCase());
+        if (named != null) {
+            return named;
+        }
+        // Queries without named parameters are not stored twice, and UTF-8 bodies are translated on request
+        return hotQueries == null ? NamedParameterQuery.parse(query) : hotQueries.named(key.toLowerCase(), query);
     }
 
     public void clear() {
-        queries.clear();
-        files.clear();
-        queriesFile.clear();
+        synchronized (writeLock) {
+            checkNotFrozen();
+            publish(QuerySnapshot.EMPTY.builder());
+        }
+        metrics.notifyCatalogChanged();
+    }
+
+    /**
+     * Replaces the queries of a file in a single step: the queries the file had are removed and the new ones added.
+     * It is used to reload a modified file. If a new key is duplicated the repository is left untouched.
+     *
+     * @param aSqlFileName - the file name
+     * @param aProperties - the new queries of the file
+     */
+    public void replaceFile(final String aSqlFileName, final Properties aProperties) {
+        replace(aSqlFileName, aProperties);
+    }
+
+    /**
+     * Removes the queries of a file and the file itself from the processed files
+     *
+     * @param aSqlFileName - the file name
+     */
+    public void removeFile(final String aSqlFileName) {
+        replace(aSqlFileName, null);
+    }
+
+    /**
+     * @return the names of the files processed by this repository, loaded or registered to be loaded on demand. The
+     *         files of the base are not included
+     */
+    public Set<String> getProcessedFiles() {
+        return Collections.unmodifiableSet(snapshot.files);
+    }
+
+    /**
+     * The version changes each time the repository contents change. It can be used to cache a query and check cheaply
+     * if the cached value is still current.
+     *
+     * @return the version of the repository contents
+     */
+    public long getVersion() {
+        // Both versions only grow, so their sum changes whenever either layer changes
+        return snapshot.version + base.getVersion();
+    }
+
+    /**
+     * Sets the dialects whose scoped queries replace the unscoped ones, in order of preference. The unscoped query is
+     * the last fallback. No dialect is set by default, so every key is resolved as it is written.
+     *
+     * @param dialects - the dialect names, like <tt>postgres</tt>, without the period
+     * @throws IllegalArgumentException if a dialect name is empty or contains a period
+     */
+    public void setDialects(final String... dialects) {
+        final Map<String, Integer> ranks = new HashMap<>();
+        for (final String dialect : dialects) {
+            if (dialect.isEmpty() || dialect.indexOf(QueryResolver.DIALECT_SEPARATOR) != -1) {
+                LOGGER.error("The dialect '{}' is not valid", dialect);
+                throw new IllegalArgumentException("The dialect '" + dialect + "' is not valid");
+            }
+            ranks.putIfAbsent(dialect.toLowerCase(), ranks.size());
+        }
+        synchronized (writeLock) {
+            checkNotFrozen();
+            final QueryResolver previous = resolver;
+            resolver = previous.withDialects(ranks);
+            try {
+                publish(snapshot.builder());
+            } catch (IllegalArgumentException e) {
+                // The includes of the dialect queries are cyclic
+                resolver = previous;
+                throw e;
+            }
+        }
+        metrics.notifyCatalogChanged();
+    }
+
+    /**
+     * Sets if the queries are normalized when they are added, see {@link QueryNormalizer}. Normalized queries send
+     * less text to the database and formatting edits do not change them. It is off by default.
+     *
+     * @param normalizeQueries - true to normalize the queries
+     * @throws IllegalStateException if the repository already has files
+     */
+    public void setNormalizeQueries(final boolean normalizeQueries) {
+        synchronized (writeLock) {
+            checkNotFrozen();
+            if (!snapshot.files.isEmpty() || !snapshot.queries.isEmpty()) {
+                LOGGER.error("The normalization of the queries can not be changed once they are added");
+                throw new IllegalStateException(
+                        "The normalization of the queries can not be changed once they are added");
+            }
+            this.normalizeQueries = normalizeQueries;
+        }
+    }
+
+    public boolean isNormalizeQueries() {
+        return normalizeQueries;
+    }
+
+    /**
+     * Gets the fingerprint of a query, the 64 bit FNV-1a hash of its text. It is stable across platforms and
+     * reloads, and with normalized queries it does not change with the formatting.
+     *
+     * @param key - The query key
+     * @return - the fingerprint
+     * @throws IllegalArgumentException if the query is not present
+     */
+    public long getFingerprint(final String key) {
+        final String query = getQuery(key);
+        if (query == null) {
+            LOGGER.error("The query with key '{}' is not present.", key);
+            throw new IllegalArgumentException("The query '" + key + "' is not present");
+        }
+        return QueryNormalizer.fingerprint(query);
+    }
+
+    /**
+     * @return the dialects set, in order of preference
+     */
+    public List<String> getDialects() {
+        synchronized (writeLock) {
+            final Map<String, Integer> dialectRanks = resolver.getDialectRanks();
+            final String[] dialects = new String[dialectRanks.size()];
+            for (final Entry<String, Integer> rank : dialectRanks.entrySet()) {
+                dialects[rank.getValue()] = rank.getKey();
+            }
+            return Arrays.asList(dialects);
+        }
+    }
+
+    /**
+     * Runs a load, like {@link es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader#loadQueryDefinitionFiles},
+     * on an executor. Until it finishes the lookups of missing keys wait for it, up to the load timeout; the queries
+     * already present are returned at once.
+     *
+     * @param load - loads the queries into this repository
+     * @param executor - where the load runs
+     * @return a future completed when the load finishes, exceptionally if it fails
+     */
+    public CompletableFuture<Void> loadInBackground(final Consumer<QueryDefinitionRepository> load,
+            final Executor executor) {
+        pendingLoads.incrementAndGet();
+        final CompletableFuture<Void> loading;
+        try {
+            loading = CompletableFuture.runAsync(() -> load.accept(this), executor);
+        } catch (RuntimeException e) {
+            loadFinished();
+            throw e;
+        }
+        return loading.whenComplete((result, error) -> {
+            if (error != null) {
+                LOGGER.error("The background load of the queries has failed", error);
+            }
+            loadFinished();
+        });
+    }
+
+    /**
+     * Sets how long a lookup of a missing key waits for the background loads. It is 30 seconds by default.
+     *
+     * @param timeout - the maximum wait, 0 to fail at once
+     * @param unit - the unit of the timeout
+     */
+    public void setLoadTimeout(final long timeout, final TimeUnit unit) {
+        this.loadTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * @return true while a background load is running
+     */
+    public boolean isLoading() {
+        return pendingLoads.get() > 0;
+    }
+
+    /**
+     * Makes the repository read only. Any later change throws an {@link IllegalStateException}, but the queries
+     * registered to be loaded on demand are still loaded when requested.
+     */
+    public void freeze() {
+        synchronized (writeLock) {
+            frozen = true;
+        }
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Freezes this repository and creates an empty overlay over it, with the same storage and dialects. The overlay
+     * shares the queries of this repository without copying them. Several overlays can be created over the same base.
+     *
+     * @return the new overlay
+     */
+    public QueryDefinitionRepository createOverlay() {
+        synchronized (writeLock) {
+            frozen = true;
+            final QueryDefinitionRepository overlay = new QueryDefinitionRepository(new OverlayBase(this), storage,
+                    hotQueries == null ? 0 : hotQueries.size());
+            overlay.resolver = overlay.resolver.withDialects(resolver.getDialectRanks());
+            overlay.normalizeQueries = normalizeQueries;
+            return overlay;
+        }
+    }
+
+    /**
+     * @return the repository the queries missing in this one are looked up in, or <code>null</code> if this
+     *         repository is not an overlay
+     */
+    public QueryDefinitionRepository getBase() {
+        return base.getRepository();
+    }
+
+    /**
+     * Gets the proxy of a query of this repository, the definition of its handle. It is canonical once the key is
+     * present, see {@link #getHandle(String)}.
+     *
+     * @param key - The query key
+     * @return - the proxy
+     */
+    public QueryDefinition getQueryDefinition(final String key) {
+        return getHandle(key).getDefinition();
+    }
+
+    /**
+     * Gets the handle of a key. The handle of a key present, or registered to be loaded on demand, is created on the
+     * first request and is the same for every later request of the key in any case. A key not present yet gets a
+     * handle shared by its requests until it is present, not registered, that looks the key up until then and reads it
+     * through the registered handle afterwards; so keys that never exist do not grow the handle table. The missing key
+     * is logged on its first request.
+     *
+     * @param key - The query key
+     * @return - the handle
+     */
+    public QueryHandle getHandle(final String key) {
+        assert key != null;
+        final QueryHandle handle = registeredHandle(key);
+        if (handle != null) {
+            return handle;
+        }
+        final String lowerCaseKey = key.toLowerCase();
+        final QueryHandle unregistered = unregisteredHandles.get(lowerCaseKey);
+        if (unregistered != null) {
+            return unregistered;
+        }
+        final QueryHandle created = new QueryHandle(this, key, -1, null);
+        final QueryHandle previous = unregisteredHandles.putIfAbsent(lowerCaseKey, created);
+        if (previous != null) {
+            return previous;
+        }
+        // Log and wait for a lazy loading
+        LOGGER.warn("Query {} has been requested but is not loaded yet. "
+                + "Usually this an error as the query is not defined", key);
+        return created;
+    }
+
+    /**
+     * Lists the keys that start with a prefix, loaded or pending to be loaded on demand, including those of the base.
+     * With dialects, the unscoped names they resolve are listed as well as the scoped keys.
+     *
+     * @param prefix - The start of the keys, in any case. Empty to list every key
+     * @return - the keys, sorted and in lower case
+     */
+    public List<String> getKeys(final String prefix) {
+        final String lowerCasePrefix = prefix.toLowerCase();
+        final String[] keys = sortedKeys();
+        final int found = Arrays.binarySearch(keys, lowerCasePrefix);
+        final int from = found >= 0 ? found : -found - 1;
+        int to = from;
+        while (to < keys.length && keys[to].startsWith(lowerCasePrefix)) {
+            to++;
+        }
+        // The sorted keys are never modified
+        final List<String> range = Arrays.asList(keys).subList(from, to);
+        final List<String> baseKeys = base.getKeys(prefix);
+        if (baseKeys.isEmpty()) {
+            return Collections.unmodifiableList(range);
+        }
+        final SortedSet<String> merged = new TreeSet<>(baseKeys);
+        merged.addAll(range);
+        return Collections.unmodifiableList(new ArrayList<>(merged));
+    }
+
+    /**
+     * Reads the queries of every key that starts with a prefix, loading the lazy files they are in.
+     *
+     * @param prefix - The start of the keys, in any case
+     * @return - the queries
+     */
+    public QueryBundle getBundleByPrefix(final String prefix) {
+        return bundle(getKeys(prefix), false);
+    }
+
+    /**
+     * Reads the queries of several keys, loading the lazy files they are in. It can be used to check at once that the
+     * queries of a module are present.
+     *
+     * @param keys - The query keys
+     * @return - the queries
+     * @throws IllegalArgumentException if any query is not present, listing them all
+     */
+    public QueryBundle getBundle(final Collection<String> keys) {
+        final SortedSet<String> lowerCaseKeys = new TreeSet<>();
+        for (final String key : keys) {
+            lowerCaseKeys.add(key.toLowerCase());
+        }
+        return bundle(lowerCaseKeys, true);
+    }
+
+    /**
+     * @return the lookup and load counters of this repository
+     */
+    public QueryDefinitionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return how the query bodies are held
+     */
+    public QueryStorage getStorage() {
+        return storage;
+    }
+
+    /*
+     * Each lookup is counted as a single one would be
+     */
+    private QueryBundle bundle(final Collection<String> lowerCaseKeys, final boolean required) {
+        // Read first, so the bundle looks stale rather than current if the contents change meanwhile
+        final long version = getVersion();
+        final List<String> keys = new ArrayList<>(lowerCaseKeys.size());
+        final List<String> queries = new ArrayList<>(lowerCaseKeys.size());
+        final List<NamedParameterQuery> namedQueries = new ArrayList<>(lowerCaseKeys.size());
+        final List<String> missing = new ArrayList<>();
+        for (final String lowerCaseKey : lowerCaseKeys) {
+            String query = find(lowerCaseKey);
+            if (query == null && pendingLoads.get() > 0) {
+                query = awaitQuery(lowerCaseKey);
+            }
+            metrics.queryRequested(lowerCaseKey, query != null);
+            if (query == null) {
+                missing.add(lowerCaseKey);
+                continue;
+            }
+            keys.add(lowerCaseKey);
+            queries.add(query);
+            namedQueries.add(findNamed(lowerCaseKey));
+        }
+        if (required && !missing.isEmpty()) {
+            LOGGER.error("The queries with keys {} are not present.", missing);
+            throw new IllegalArgumentException("The queries " + missing + " are not present");
+        }
+        return new QueryBundle(version, keys.toArray(new String[keys.size()]),
+                queries.toArray(new String[queries.size()]),
+                namedQueries.toArray(new NamedParameterQuery[namedQueries.size()]));
+    }
+
+    /*
+     * The keys of this repository, sorted. Rebuilt on the first request after a change; concurrent rebuilds are
+     * harmless
+     */
+    private String[] sortedKeys() {
+        final QuerySnapshot current = snapshot;
+        final KeyIndex index = keyIndex;
+        if (index.version == current.version) {
+            return index.keys;
+        }
+        final Collection<String> keys = current.keys();
+        final String[] sorted = keys.toArray(new String[keys.size()]);
+        Arrays.sort(sorted);
+        keyIndex = new KeyIndex(current.version, sorted);
+        return sorted;
+    }
+
+    /*
+     * Looks up the key in this repository and then in the base, without counting the lookup
+     */
+    String find(final String lowerCaseKey) {
+        final QuerySnapshot current = snapshot;
+        String query = query(current, lowerCaseKey);
+        if (query == null && !current.lazyKeys.isEmpty()) {
+            query = loadLazyQuery(lowerCaseKey);
+        }
+        return query == null ? base.find(lowerCaseKey) : query;
+    }
+
+    /*
+     * The named query of the layer the query was found in
+     */
+    NamedParameterQuery findNamed(final String lowerCaseKey) {
+        final QuerySnapshot current = snapshot;
+        return current.body(lowerCaseKey) == null ? base.findNamed(lowerCaseKey) : current.named(lowerCaseKey);
+    }
+
+    /*
+     * The handle of a key present, registered on the first request, or null if the key is not present
+     */
+    QueryHandle registeredHandle(final String key) {
+        final String lowerCaseKey = key.toLowerCase();
+        final QueryHandle handle = handles.get(lowerCaseKey);
+        if (handle != null || !containsQuery(lowerCaseKey)) {
+            return handle;
+        }
+        synchronized (writeLock) {
+            QueryHandle created = handles.get(lowerCaseKey);
+            if (created == null) {
+                created = new QueryHandle(this, key, handleList.size(), metrics.lookupCounter(lowerCaseKey));
+                handleList.add(created);
+                handles.put(lowerCaseKey, created);
+                // The unregistered handle already returned reads through this one
+                unregisteredHandles.remove(lowerCaseKey);
+            }
+            return created;
+        }
+    }
+
+    String handleQuery(final QueryHandle handle) {
+        final HandleTable table = handleTable(handle);
+        final String query = table.queries[handle.index];
+        if (query == null) {
+            // Missing, pending to be loaded or in a base changed meanwhile
+            final String found = getQuery(handle.lowerCaseKey);
+            if (found != null && table.version == getVersion()) {
+                // Loaded on demand, which does not change the version
+                table.queries[handle.index] = found;
+            }
+            return found;
+        }
+        metrics.queryRequested(handle.lowerCaseKey, handle.lookups, true);
+        return query;
+    }
+
+    NamedParameterQuery handleNamedQuery(final QueryHandle handle) {
+        final HandleTable table = handleTable(handle);
+        final NamedParameterQuery named = table.namedQueries[handle.index];
+        if (named == null) {
+            final NamedParameterQuery found = getNamedParameterQuery(handle.lowerCaseKey);
+            if (found != null && table.version == getVersion()) {
+                table.namedQueries[handle.index] = found;
+            }
+            return found;
+        }
+        metrics.queryRequested(handle.lowerCaseKey, handle.lookups, true);
+        return named;
+    }
+
+    private HandleTable handleTable(final QueryHandle handle) {
+        final HandleTable table = handleTable;
+        if (table.version == getVersion() && handle.index < table.size) {
+            return table;
+        }
+        return refreshHandleTable();
+    }
+
+    /*
+     * Adds the handles created since the table was built, or rebuilds it if the contents have changed. The version is
+     * read first, so a change made meanwhile by a base leaves the table stale instead of wrong. A rebuild keeps the
+     * named query of the handles whose query is unchanged and takes the stored ones; the others are parsed on request,
+     * out of the write lock.
+     */
+    private HandleTable refreshHandleTable() {
+        synchronized (writeLock) {
+            final long version = getVersion();
+            final HandleTable table = handleTable;
+            final int size = handleList.size();
+            final boolean current = table.version == version;
+            if (current && table.size == size) {
+                return table;
+            }
+            final int from = current ? table.size : 0;
+            String[] queries = table.queries;
+            NamedParameterQuery[] namedQueries = table.namedQueries;
+            // Published arrays are only written beyond the size of their table, which is never read, and in their
+            // empty slots, filled on request with the values of the same version
+            if (!current) {
+                queries = new String[Math.max(size, queries.length)];
+                namedQueries = new NamedParameterQuery[queries.length];
+            } else if (queries.length < size) {
+                final int capacity = Math.max(size, queries.length * 2);
+                queries = Arrays.copyOf(queries, capacity);
+                namedQueries = Arrays.copyOf(namedQueries, capacity);
+            }
+            for (int i = from; i < size; i++) {
+                final String lowerCaseKey = handleList.get(i).lowerCaseKey;
+                final String query = peek(lowerCaseKey);
+                queries[i] = query;
+                if (query != null) {
+                    final boolean unchanged = i < table.size && query.equals(table.queries[i]);
+                    namedQueries[i] = unchanged ? table.namedQueries[i] : findNamed(lowerCaseKey);
+                }
+            }
+            final HandleTable refreshed = new HandleTable(version, size, queries, namedQueries);
+            handleTable = refreshed;
+            return refreshed;
+        }
+    }
+
+    /*
+     * Like find, but the lazy files are not loaded
+     */
+    String peek(final String lowerCaseKey) {
+        final String query = query(snapshot, lowerCaseKey);
+        return query == null ? base.peek(lowerCaseKey) : query;
+    }
+
+    /*
+     * Waits for the background loads to publish the key. The version is checked again under the monitor, so a change
+     * published between the lookup and the wait is not missed.
+     */
+    private String awaitQuery(final String lowerCaseKey) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(loadTimeoutMillis);
+        while (pendingLoads.get() > 0) {
+            final long version = getVersion();
+            final String query = find(lowerCaseKey);
+            if (query != null) {
+                return query;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                LOGGER.warn("The query {} is not present after waiting for the queries being loaded", lowerCaseKey);
+                return null;
+            }
+            try {
+                synchronized (loadMonitor) {
+                    if (getVersion() == version && pendingLoads.get() > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(loadMonitor, remaining);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return find(lowerCaseKey);
+    }
+
+    private void loadFinished() {
+        pendingLoads.decrementAndGet();
+        synchronized (loadMonitor) {
+            loadMonitor.notifyAll();
+        }
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            LOGGER.error("The query repository is frozen");
+            throw new IllegalStateException("The query repository is frozen");
+        }
+    }
+
+    private String query(final QuerySnapshot current, final String lowerCaseKey) {
+        final Object body = current.body(lowerCaseKey);
+        if (body == null || body instanceof String) {
+            return (String) body;
+        }
+        if (hotQueries == null) {
+            return new String((byte[]) body, StandardCharsets.UTF_8);
+        }
+        return hotQueries.get(lowerCaseKey, current.version, (byte[]) body);
+    }
+
+    private String loadLazyQuery(final String lowerCaseKey) {
+        final QuerySnapshot current = snapshot;
+        final LazyFile lazyFile = current.lazyFile(lowerCaseKey);
+        if (lazyFile != null && !current.loadedFiles.containsKey(lazyFile.name)) {
+            lazyFiles.load(lazyFile, lowerCaseKey);
+        }
+        return query(snapshot, lowerCaseKey);
+    }
+
+    /*
+     * Publishes the queries of a lazy file with the file, without copying the catalog. The version changes only if a
+     * query waiting for the file is expanded again: the keys of the file were already present
+     */
+    private void addLoadedFile(final LazyFile lazyFile, final Properties fileQueries) {
+        final Properties written = normalize(Collections.singletonMap(lazyFile.name, fileQueries)).get(lazyFile.name);
+        final FileQueries queries = FileQueries.convert(written, lazyFile::isRegistered, new QueryBodies(storage));
+        synchronized (writeLock) {
+            final QuerySnapshot current = snapshot;
+            if (!current.isPending(lazyFile)) {
+                // Cleared or loaded meanwhile
+                return;
+            }
+            final QuerySnapshot.Builder builder = current.builder();
+            final boolean changed = resolver.load(builder, lazyFile, queries);
+            publish(builder.build(changed ? ++lastVersion : current.version));
+        }
+        metrics.notifyCatalogChanged();
+    }
+
+    private void merge(final Map<String, Properties> writtenQueries, final boolean markLoaded) {
+        final Map<String, FileQueries> filesQueries = new LinkedHashMap<>();
+        final QueryBodies converter = new QueryBodies(storage);
+        for (final Entry<String, Properties> fileQueries : normalize(writtenQueries).entrySet()) {
+            filesQueries.put(fileQueries.getKey(), FileQueries.convert(fileQueries.getValue(), key -> true, converter));
+        }
+        synchronized (writeLock) {
+            checkNotFrozen();
+            final QuerySnapshot.Builder builder = snapshot.builder();
+            int skippedFiles = 0;
+            for (final Entry<String, FileQueries> fileQueries : filesQueries.entrySet()) {
+                final String aSqlFileName = fileQueries.getKey();
+                if (markLoaded && isFileProcessed(aSqlFileName)) {
+                    // Loaded by another load since it was listed
+                    LOGGER.debug("The file '{}' is already loaded.", aSqlFileName);
+                    skippedFiles++;
+                    continue;
+                }
+                builder.addQueries(aSqlFileName, fileQueries.getValue());
+                if (markLoaded) {
+                    builder.markProcessed(aSqlFileName);
+                }
+            }
+            if (skippedFiles > 0 && skippedFiles == filesQueries.size()) {
+                return;
+            }
+            publish(builder);
+        }
+        metrics.notifyCatalogChanged();
+    }
+
+    private void replace(final String aSqlFileName, final Properties aProperties) {
+        final FileQueries fileQueries = aProperties == null ? null
+                : FileQueries.convert(normalize(Collections.singletonMap(aSqlFileName, aProperties)).get(aSqlFileName),
+                        key -> true, new QueryBodies(storage));
+        synchronized (writeLock) {
+            checkNotFrozen();
+            final QuerySnapshot.Builder builder = snapshot.builder().removeFile(aSqlFileName);
+            if (fileQueries != null) {
+                builder.addQueries(aSqlFileName, fileQueries).markProcessed(aSqlFileName);
+            }
+            publish(builder);
+        }
+        metrics.notifyCatalogChanged();
+    }
+
+    /*
+     * Called holding the write lock. Resolves the contents of the builder and publishes them as a new version. If the
+     * includes are cyclic nothing is published. The listeners are notified by the callers once the lock is released
+     */
+    private void publish(final QuerySnapshot.Builder builder) {
+        publish(builder.resolution(resolver.resolve(builder)).build(++lastVersion));
+    }
+
+    private void publish(final QuerySnapshot published) {
+        snapshot = published;
+        if (pendingLoads.get() > 0) {
+            synchronized (loadMonitor) {
+                loadMonitor.notifyAll();
+            }
+        }
+        metrics.catalogChanged(published.queryCount, published.files.size(), published.estimatedBytes);
+    }
+
+    private Map<String, Properties> normalize(final Map<String, Properties> filesQueries) {
+        if (!normalizeQueries) {
+            return filesQueries;
+        }
+        final Map<String, Properties> normalized = new LinkedHashMap<>();
+        for (final Entry<String, Properties> fileQueries : filesQueries.entrySet()) {
+            final Properties aProperties = fileQueries.getValue();
+            final Properties normalizedProperties = new Properties();
+            for (final String key : aProperties.stringPropertyNames()) {
+                normalizedProperties.setProperty(key, QueryNormalizer.normalize(aProperties.getProperty(key)));
+            }
+            normalized.put(fileQueries.getKey(), normalizedProperties);
+        }
+        return normalized;
+    }
+
+    /**
+     * Direct mapped cache of the strings of the recently requested queries. Entries are tagged with the version of the
+     * snapshot they were decoded from, so a stale entry is never returned and no lock is needed. Only the translation
+     * of the named parameters is set once an entry is published.
+     */
+    private static final class HotQueries {
+
+        private final AtomicReferenceArray<HotQuery> entries;
+        private final int mask;
+
+        private HotQueries(final int size) {
+            final int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+            this.entries = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        private int size() {
+            return entries.length();
+        }
+
+        private String get(final String key, final long version, final byte[] body) {
+            final int hash = key.hashCode();
+            final int index = (hash ^ (hash >>> 16)) & mask;
+            final HotQuery entry = entries.get(index);
+            if (entry != null && entry.version == version && entry.key.equals(key)) {
+                return entry.query;
+            }
+            final String query = new String(body, StandardCharsets.UTF_8);
+            entries.lazySet(index, new HotQuery(key, version, query));
+            return query;
+        }
+
+        /*
+         * The translation of a query, kept with its string if the key is still cached with that same instance
+         */
+        private NamedParameterQuery named(final String key, final String query) {
+            final int hash = key.hashCode();
+            final HotQuery entry = entries.get((hash ^ (hash >>> 16)) & mask);
+            if (entry == null || entry.query != query) {
+                return NamedParameterQuery.parse(query);
+            }
+            NamedParameterQuery named = entry.named;
+            if (named == null) {
+                // Concurrent parses are harmless, the translations are equal and immutable
+                named = NamedParameterQuery.parse(query);
+                entry.named = named;
+            }
+            return named;
+        }
+    }
+
+    private static final class HotQuery {
+
+        private final String key;
+        private final long version;
+        private final String query;
+        private volatile NamedParameterQuery named;
+
+        private HotQuery(final String key, final long version, final String query) {
+            this.key = key;
+            this.version = version;
+            this.query = query;
+        }
+    }
+
+    /**
+     * The queries of the handles, by handle index, for a version of the repository
+     */
+    private static final class HandleTable {
+
+        private static final HandleTable EMPTY = new HandleTable(-1, 0, new String[0], new NamedParameterQuery[0]);
+
+        private final long version;
+        private final int size;
+        private final String[] queries;
+        private final NamedParameterQuery[] namedQueries;
+
+        private HandleTable(final long version, final int size, final String[] queries,
+                final NamedParameterQuery[] namedQueries) {
+            this.version = version;
+            this.size = size;
+            this.queries = queries;
+            this.namedQueries = namedQueries;
+        }
+    }
+
+    /**
+     * The sorted keys of a version of the repository
+     */
+    private static final class KeyIndex {
+
+        private static final KeyIndex EMPTY = new KeyIndex(-1, new String[0]);
+
+        private final long version;
+        private final String[] keys;
+
+        private KeyIndex(final long version, final String[] keys) {
+            this.version = version;
+            this.keys = keys;
+        }
     }
 
 }
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import es.indaba.sqld.impl.QueryDefinitionStaticImpl;
+
+/**
+ * A query key resolved once in a {@link QueryDefinitionRepository}. The repository gives each key present a single
+ * handle with a dense index, and keeps the queries of the handles in an array rebuilt when its contents change.
+ * Getting the query of a handle is an array read, without hashing or case folding the key.
+ *
+ * <P> A handle stays valid when the queries are reloaded or the repository is cleared; it returns the current query
+ * of its key, or <code>null</code> while the key is not present. The handle of a key that was not present when it was
+ * requested is shared by the requests of the key until it is present, and not registered: it looks the key up until
+ * the key is added, and then reads it through the registered handle. Handles are thread-safe.
+ */
+public final class QueryHandle {
+
+    private final QueryDefinitionRepository repository;
+    private final String key;
+    final String lowerCaseKey;
+    final int index;
+    final LongAdder lookups;
+    private final QueryDefinition definition;
+    /*
+     * This handle if it is registered, else the registered handle once the key is present
+     */
+    private volatile QueryHandle registered;
+
+    QueryHandle(final QueryDefinitionRepository repository, final String key, final int index,
+            final LongAdder lookups) {
+        this.repository = repository;
+        this.key = key;
+        this.lowerCaseKey = key.toLowerCase();
+        this.index = index;
+        this.lookups = lookups;
+        this.definition = new QueryDefinitionStaticImpl(key, this);
+        this.registered = index < 0 ? null : this;
+    }
+
+    /**
+     * @return the key, as it was written when the handle was created
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the index of the handle in its repository, from 0 in order of creation, or -1 if the handle is not
+     *         registered
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the query or <code>null</code> if it is not present
+     */
+    public String getQuery() {
+        final QueryHandle handle = registered();
+        return handle == null ? repository.getQuery(key) : repository.handleQuery(handle);
+    }
+
+    /**
+     * @return the query with its named parameters translated or <code>null</code> if it is not present
+     */
+    public NamedParameterQuery getNamedParameterQuery() {
+        final QueryHandle handle = registered();
+        return handle == null ? repository.getNamedParameterQuery(key) : repository.handleNamedQuery(handle);
+    }
+
+    /**
+     * @return the definition of the query, shared by every caller of the handle
+     */
+    public QueryDefinition getDefinition() {
+        return definition;
+    }
+
+    private QueryHandle registered() {
+        QueryHandle handle = registered;
+        if (handle == null) {
+            handle = repository.registeredHandle(key);
+            registered = handle;
+        }
+        return handle;
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
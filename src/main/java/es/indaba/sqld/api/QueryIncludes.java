@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.indaba.sqld.impl.parser.IncludeReferences;
+import es.indaba.sqld.impl.parser.ParsedQueries;
+
+/**
+ * Expands the <tt>${KEY}</tt> includes of the queries of a repository with the queries they reference, recursively.
+ * A reference to a key that is not present is left as it is written. When the key is in a file registered to be loaded on
+ * demand, the queries left with the reference are recorded, so they can be expanded again once the file is loaded.
+ *
+ * <P> Every query is expanded at most once per instance, so a fragment included by many queries is read once. A
+ * cycle of includes is rejected with the file and the line of the include that closes it: the line of the file when
+ * the parser recorded where the body was read from, and the line within the query otherwise.
+ */
+final class QueryIncludes {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryIncludes.class);
+
+    /*
+     * The text of a query by its lower case key, null if it is not present
+     */
+    private final Function<String, String> queries;
+    /*
+     * The file of a query by its lower case key, used to report cycles
+     */
+    private final Function<String, String> files;
+    /*
+     * The lines of the file of a query by its lower case key, as {@link ParsedQueries#getLines(String)}, null or empty
+     * if they are not known
+     */
+    private final Function<String, int[]> lines;
+    /*
+     * The lazy key a missing query is waiting to be loaded as, null if it is not pending
+     */
+    private final Function<String, String> pendingKeys;
+
+    private final Map<String, String> expanded = new HashMap<>();
+    private final Map<String, String> changed = new HashMap<>();
+    private final Map<String, Set<String>> waiting = new HashMap<>();
+    /*
+     * The queries being expanded, in include order
+     */
+    private final Set<String> path = new LinkedHashSet<>();
+
+    QueryIncludes(final Function<String, String> queries, final Function<String, String> files,
+            final Function<String, int[]> lines, final Function<String, String> pendingKeys) {
+        this.queries = queries;
+        this.files = files;
+        this.lines = lines;
+        this.pendingKeys = pendingKeys;
+    }
+
+    /**
+     * @param query - a query text
+     * @return true if the query may have includes
+     */
+    static boolean hasIncludes(final String query) {
+        return query.indexOf(IncludeReferences.START) != -1;
+    }
+
+    /**
+     * Expands a query
+     *
+     * @param lowerCaseKey - the query key
+     * @return the expanded query, or <code>null</code> if it is not present
+     * @throws IllegalArgumentException if the includes are cyclic
+     */
+    String expand(final String lowerCaseKey) {
+        final String done = expanded.get(lowerCaseKey);
+        if (done != null) {
+            return done;
+        }
+        final String query = queries.apply(lowerCaseKey);
+        if (query == null) {
+            return null;
+        }
+        path.add(lowerCaseKey);
+        StringBuilder result = null;
+        int from = 0;
+        int start = query.indexOf(IncludeReferences.START);
+        while (start != -1) {
+            final int end = IncludeReferences.referenceEnd(query, start);
+            if (end == -1) {
+                start = query.indexOf(IncludeReferences.START, start + IncludeReferences.START.length());
+                continue;
+            }
+            final String reference = query.substring(start + IncludeReferences.START.length(), end).toLowerCase();
+            if (path.contains(reference)) {
+                throw cycle(lowerCaseKey, reference, query, start);
+            }
+            final String included = expand(reference);
+            if (included == null) {
+                final String pendingKey = pendingKeys.apply(reference);
+                if (pendingKey != null) {
+                    waitFor(lowerCaseKey, Collections.singleton(pendingKey));
+                }
+            } else {
+                waitFor(lowerCaseKey, waiting.get(reference));
+                if (result == null) {
+                    result = new StringBuilder(query.length() + included.length());
+                }
+                result.append(query, from, start).append(included);
+                from = end + 1;
+            }
+            start = query.indexOf(IncludeReferences.START, end + 1);
+        }
+        path.remove(lowerCaseKey);
+        final String expandedQuery;
+        if (result == null) {
+            expandedQuery = query;
+        } else {
+            expandedQuery = result.append(query, from, query.length()).toString();
+            changed.put(lowerCaseKey, expandedQuery);
+        }
+        expanded.put(lowerCaseKey, expandedQuery);
+        return expandedQuery;
+    }
+
+    /**
+     * @return the queries expanded so far that had includes, by lower case key
+     */
+    Map<String, String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return the lazy keys each query expanded so far has left as written, also through the queries it includes
+     */
+    Map<String, Set<String>> getWaiting() {
+        return waiting;
+    }
+
+    private void waitFor(final String lowerCaseKey, final Set<String> pendingKeys) {
+        if (pendingKeys != null && !pendingKeys.isEmpty()) {
+            waiting.computeIfAbsent(lowerCaseKey, key -> new HashSet<>()).addAll(pendingKeys);
+        }
+    }
+
+    private IllegalArgumentException cycle(final String lowerCaseKey, final String reference, final String query,
+            final int position) {
+        final List<String> cycle = new ArrayList<>();
+        boolean inCycle = false;
+        for (final String key : path) {
+            inCycle = inCycle || key.equals(reference);
+            if (inCycle) {
+                cycle.add(key);
+            }
+        }
+        cycle.add(reference);
+        int line = 1;
+        for (int i = 0; i < position; i++) {
+            if (query.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        final int[] bodyLines = lines.apply(lowerCaseKey);
+        final String message;
+        if (bodyLines == null || bodyLines.length == 0) {
+            message = "[" + files.apply(lowerCaseKey) + "] The query '" + lowerCaseKey + "' includes '" + reference
+                    + "' at line " + line + " of its body, closing the cycle " + String.join(" -> ", cycle);
+        } else {
+            message = "[" + files.apply(lowerCaseKey) + ":" + ParsedQueries.fileLine(bodyLines, line) + "] The query '"
+                    + lowerCaseKey + "' includes '" + reference + "', closing the cycle " + String.join(" -> ", cycle);
+        }
+        LOGGER.error(message);
+        return new IllegalArgumentException(message);
+    }
+}
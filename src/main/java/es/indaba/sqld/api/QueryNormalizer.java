@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import es.indaba.sqld.impl.parser.QueryLexer;
+
+/**
+ * Normalizes the text of a query and computes its fingerprint.
+ *
+ * <P> A normalized query has its comments removed and every run of whitespace collapsed to a single space, with no
+ * leading or trailing space. String literals and quoted identifiers are kept as they are, and so are optimizer hints
+ * (<tt>/*+ ... *&#47;</tt>). The result depends only on the text, so it is the same on every platform and every time a
+ * file is loaded: formatting edits do not change the text sent to the database nor its fingerprint.
+ */
+public final class QueryNormalizer {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Normalizes a query
+     *
+     * @param query - the query as written
+     * @return the query without comments and with its whitespace collapsed
+     */
+    public static String normalize(final String query) {
+        final int length = query.length();
+        final StringBuilder normalized = new StringBuilder(length);
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < length) {
+            final char c = query.charAt(i);
+            final int end;
+            if (c == '\'' || c == '"') {
+                end = QueryLexer.skipQuoted(query, i, c);
+            } else if (c == '-' && i + 1 < length && query.charAt(i + 1) == '-') {
+                i = QueryLexer.skipLineComment(query, i);
+                pendingSpace = true;
+                continue;
+            } else if (c == '/' && i + 1 < length && query.charAt(i + 1) == '*') {
+                end = QueryLexer.skipBlockComment(query, i);
+                if (i + 2 >= length || query.charAt(i + 2) != '+') {
+                    i = end;
+                    pendingSpace = true;
+                    continue;
+                }
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                pendingSpace = true;
+                continue;
+            } else {
+                end = i + 1;
+            }
+            if (pendingSpace && normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            pendingSpace = false;
+            normalized.append(query, i, end);
+            i = end;
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Computes the 64 bit FNV-1a hash of the UTF-8 encoding of a query. Normalize the query first for a fingerprint
+     * that ignores formatting.
+     *
+     * @param query - the query
+     * @return the fingerprint
+     */
+    public static long fingerprint(final String query) {
+        long hash = FNV_OFFSET_BASIS;
+        final int length = query.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = query.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (codePoint < 0x10000 && Character.isSurrogate((char) codePoint)) {
+                // Unpaired surrogates are encoded as '?', as String.getBytes does
+                codePoint = '?';
+            }
+            if (codePoint < 0x80) {
+                hash = (hash ^ codePoint) * FNV_PRIME;
+            } else if (codePoint < 0x800) {
+                hash = (hash ^ (0xc0 | codePoint >> 6)) * FNV_PRIME;
+                hash = (hash ^ (0x80 | codePoint & 0x3f)) * FNV_PRIME;
+            } else if (codePoint < 0x10000) {
+                hash = (hash ^ (0xe0 | codePoint >> 12)) * FNV_PRIME;
+                hash = (hash ^ (0x80 | codePoint >> 6 & 0x3f)) * FNV_PRIME;
+                hash = (hash ^ (0x80 | codePoint & 0x3f)) * FNV_PRIME;
+            } else {
+                hash = (hash ^ (0xf0 | codePoint >> 18)) * FNV_PRIME;
+                hash = (hash ^ (0x80 | codePoint >> 12 & 0x3f)) * FNV_PRIME;
+                hash = (hash ^ (0x80 | codePoint >> 6 & 0x3f)) * FNV_PRIME;
+                hash = (hash ^ (0x80 | codePoint & 0x3f)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private QueryNormalizer() {
+        // Avoid instantiation of a Utility
+    }
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import es.indaba.sqld.api.QuerySnapshot.Builder;
+import es.indaba.sqld.api.QuerySnapshot.Resolution;
+
+/**
+ * Resolves the queries of a snapshot as they are looked up: the unscoped keys to the query of their best ranked
+ * dialect, and the <tt>${KEY}</tt> includes to the queries they reference. A key missing in the snapshot is looked up
+ * in the base.
+ *
+ * <P> Instances are immutable, a change of the dialects creates another one.
+ */
+final class QueryResolver {
+
+    static final char DIALECT_SEPARATOR = '.';
+
+    /*
+     * Rank of each dialect, 0 the preferred one
+     */
+    private final Map<String, Integer> dialectRanks;
+    private final OverlayBase base;
+    private final QueryStorage storage;
+
+    QueryResolver(final OverlayBase base, final QueryStorage storage) {
+        this(Collections.<String, Integer>emptyMap(), base, storage);
+    }
+
+    private QueryResolver(final Map<String, Integer> dialectRanks, final OverlayBase base,
+            final QueryStorage storage) {
+        this.dialectRanks = dialectRanks;
+        this.base = base;
+        this.storage = storage;
+    }
+
+    /**
+     * @param ranks - the rank of each dialect, 0 the preferred one
+     * @return a resolver with the same base and storage and those dialects
+     */
+    QueryResolver withDialects(final Map<String, Integer> ranks) {
+        return new QueryResolver(ranks, base, storage);
+    }
+
+    Map<String, Integer> getDialectRanks() {
+        return dialectRanks;
+    }
+
+    /**
+     * Resolves the contents of a builder from scratch
+     *
+     * @param builder - the contents
+     * @return the resolution of the contents
+     * @throws IllegalArgumentException if the includes are cyclic
+     */
+    Resolution resolve(final Builder builder) {
+        Resolution resolution = dialectRanks.isEmpty()
+                ? new Resolution(builder.getQueries(), builder.getNamedQueries()) : resolveDialects(builder);
+        boolean loadedIncludes = false;
+        for (final LoadedFile loadedFile : builder.getLoadedFiles().values()) {
+            loadedIncludes = loadedIncludes || loadedFile.hasIncludes();
+        }
+        if (!builder.getIncludingKeys().isEmpty() || loadedIncludes) {
+            resolution = expandIncludes(resolution, builder);
+        }
+        return resolution;
+    }
+
+    /**
+     * Adds the queries of a lazy file once parsed. Only the queries of the file and those whose includes were waiting
+     * for it are expanded, the rest of the resolution is kept.
+     *
+     * @param builder - the contents, where the file is pending
+     * @param lazyFile - the file
+     * @param written - its queries, as written
+     * @return true if the queries looked up have changed: the keys of the file were already present, so only if any
+     *         query waiting for them has been expanded again
+     * @throws IllegalArgumentException if the includes are cyclic
+     */
+    boolean load(final Builder builder, final LazyFile lazyFile, final FileQueries written) {
+        final Resolution resolution = builder.getResolution();
+        final Set<String> dependents = new HashSet<>();
+        if (!resolution.waiting.isEmpty()) {
+            for (final String key : lazyFile.keys) {
+                final Set<String> waitingKeys = resolution.waiting.get(key);
+                if (waitingKeys != null) {
+                    dependents.addAll(waitingKeys);
+                }
+            }
+        }
+        // Added as written, so the includes of the file and of its dependents read its queries
+        builder.addLoadedFile(lazyFile.name, new LoadedFile(written));
+        if (written.includeLines.isEmpty() && dependents.isEmpty()) {
+            return false;
+        }
+        final QueryIncludes queryIncludes = includes(builder, resolution);
+        for (final String key : written.includeLines.keySet()) {
+            queryIncludes.expand(key);
+        }
+        for (final String key : dependents) {
+            queryIncludes.expand(key);
+        }
+        final Map<String, String> expanded = queryIncludes.getChanged();
+        final QueryBodies converter = new QueryBodies(storage);
+        if (!written.includeLines.isEmpty()) {
+            final Map<String, Object> bodies = new HashMap<>(written.bodies);
+            final Map<String, NamedParameterQuery> namedQueries = new HashMap<>(written.namedQueries);
+            for (final String key : written.includeLines.keySet()) {
+                final String query = expanded.get(key);
+                if (query != null) {
+                    bodies.put(key, converter.toBody(query));
+                    converter.putNamed(namedQueries, key, query);
+                }
+            }
+            builder.addLoadedFile(lazyFile.name, new LoadedFile(written, bodies, namedQueries));
+        }
+        final Predicate<String> local = local(resolution, builder);
+        final Map<String, Object> overrides = new HashMap<>(resolution.overrides);
+        final Map<String, NamedParameterQuery> overrideNamed = new HashMap<>(resolution.overrideNamed);
+        boolean changed = false;
+        for (final String key : dependents) {
+            final String query = expanded.get(key);
+            if (query != null && local.test(key)) {
+                overrides.put(key, converter.toBody(query));
+                // A null named query hides the one resolved before the override
+                overrideNamed.put(key, converter.namedParameters(query));
+                changed = true;
+            }
+        }
+        final Map<String, Set<String>> waiting = waiting(resolution.waiting, queryIncludes.getWaiting(), local);
+        waiting.keySet().removeAll(lazyFile.keys);
+        builder.resolution(changed ? resolution.loaded(waiting, overrides, overrideNamed)
+                : resolution.loaded(waiting, null, null));
+        return changed;
+    }
+
+    /*
+     * Maps every unscoped name to its best ranked key, among the loaded and the lazy ones. Names whose best key is not
+     * loaded yet are left out of the resolved queries and aliased to that key, so a lookup loads its file.
+     */
+    private Resolution resolveDialects(final Builder builder) {
+        final Map<String, Object> queries = builder.getQueries();
+        final Map<String, NamedParameterQuery> namedQueries = builder.getNamedQueries();
+        final Map<String, String> bestKeys = new HashMap<>();
+        final Map<String, Integer> bestRanks = new HashMap<>();
+        for (final Set<String> keys : Arrays.asList(queries.keySet(), builder.getLazyKeys().keySet())) {
+            for (final String key : keys) {
+                final int separator = key.indexOf(DIALECT_SEPARATOR);
+                if (separator == -1) {
+                    continue;
+                }
+                final Integer rank = dialectRanks.get(key.substring(0, separator));
+                if (rank == null) {
+                    continue;
+                }
+                final String name = key.substring(separator + 1);
+                final Integer bestRank = bestRanks.get(name);
+                if (bestRank == null || rank < bestRank) {
+                    bestRanks.put(name, rank);
+                    bestKeys.put(name, key);
+                }
+            }
+        }
+        if (bestKeys.isEmpty()) {
+            return new Resolution(queries, namedQueries);
+        }
+        final Map<String, Object> resolvedQueries = new HashMap<>(queries);
+        final Map<String, NamedParameterQuery> resolvedNamedQueries = new HashMap<>(namedQueries);
+        final Map<String, String> lazyAliases = new HashMap<>();
+        for (final Entry<String, String> bestKey : bestKeys.entrySet()) {
+            final String name = bestKey.getKey();
+            final Object body = queries.get(bestKey.getValue());
+            if (body == null) {
+                resolvedQueries.remove(name);
+                lazyAliases.put(name, bestKey.getValue());
+            } else {
+                resolvedQueries.put(name, body);
+            }
+            final NamedParameterQuery named = namedQueries.get(bestKey.getValue());
+            if (named == null) {
+                resolvedNamedQueries.remove(name);
+            } else {
+                resolvedNamedQueries.put(name, named);
+            }
+        }
+        return new Resolution(resolvedQueries, resolvedNamedQueries, lazyAliases);
+    }
+
+    /*
+     * Replaces the resolved queries having includes with their expansion. Keys of lazy files not loaded yet are left
+     * as written, and the queries waiting for each of them are recorded to be expanded again when its file is loaded.
+     * The queries of the loaded lazy files having includes are expanded into the resolution.
+     */
+    private Resolution expandIncludes(final Resolution resolution, final Builder builder) {
+        final QueryIncludes includes = includes(builder, resolution);
+        for (final String key : builder.getIncludingKeys().keySet()) {
+            includes.expand(key);
+            final int separator = key.indexOf(DIALECT_SEPARATOR);
+            if (separator != -1 && dialectRanks.containsKey(key.substring(0, separator))) {
+                // The unscoped name may resolve to this query
+                includes.expand(key.substring(separator + 1));
+            }
+        }
+        for (final LoadedFile loadedFile : builder.getLoadedFiles().values()) {
+            for (final String key : loadedFile.written.includeLines.keySet()) {
+                includes.expand(key);
+            }
+        }
+        final Map<String, Object> queries = new HashMap<>(resolution.queries);
+        final Map<String, NamedParameterQuery> namedQueries = new HashMap<>(resolution.namedQueries);
+        final Predicate<String> local = local(resolution, builder);
+        final QueryBodies converter = new QueryBodies(storage);
+        for (final Entry<String, String> expanded : includes.getChanged().entrySet()) {
+            final String key = expanded.getKey();
+            if (!local.test(key)) {
+                // A query of the base
+                continue;
+            }
+            final String query = expanded.getValue();
+            queries.put(key, converter.toBody(query));
+            converter.putNamed(namedQueries, key, query);
+        }
+        return resolution.expanded(queries, namedQueries,
+                waiting(Collections.<String, Set<String>>emptyMap(), includes.getWaiting(), local));
+    }
+
+    /*
+     * The includes are resolved as the keys are looked up, so they follow the dialects. The queries of the loaded lazy
+     * files are read as written, and a key missing in the builder is looked up in the base
+     */
+    private QueryIncludes includes(final Builder builder, final Resolution resolution) {
+        return new QueryIncludes(key -> {
+            final Object body = resolution.body(key);
+            if (body != null) {
+                return QueryBodies.text(body);
+            }
+            final String lazyKey = resolution.lazyKey(key);
+            if (builder.getLazyKeys().containsKey(lazyKey)) {
+                final LoadedFile loadedFile = builder.loadedFile(lazyKey);
+                return loadedFile == null ? null : QueryBodies.text(loadedFile.written.bodies.get(lazyKey));
+            }
+            return lazyKey.equals(key) ? base.peek(key) : null;
+        }, builder::fileOf, key -> {
+            final int[] lines = builder.getIncludingKeys().get(key);
+            final LoadedFile loadedFile = lines == null ? builder.loadedFile(key) : null;
+            return loadedFile == null ? lines : loadedFile.written.includeLines.get(key);
+        }, key -> {
+            final String lazyKey = resolution.lazyKey(key);
+            return builder.getLazyKeys().containsKey(lazyKey) && builder.loadedFile(lazyKey) == null ? lazyKey : null;
+        });
+    }
+
+    /*
+     * The keys loaded in the layer of the builder or registered in one of its lazy files
+     */
+    private static Predicate<String> local(final Resolution resolution, final Builder builder) {
+        final Map<String, LazyFile> lazyKeys = builder.getLazyKeys();
+        return key -> resolution.queries.containsKey(key) || lazyKeys.containsKey(key);
+    }
+
+    /*
+     * Adds to the queries waiting for each lazy key those of this layer recorded by an expansion
+     */
+    private static Map<String, Set<String>> waiting(final Map<String, Set<String>> previous,
+            final Map<String, Set<String>> pendingKeys, final Predicate<String> local) {
+        final Map<String, Set<String>> waiting = new HashMap<>(previous);
+        final Map<String, Set<String>> added = new HashMap<>();
+        for (final Entry<String, Set<String>> keyPending : pendingKeys.entrySet()) {
+            if (!local.test(keyPending.getKey())) {
+                continue;
+            }
+            for (final String pendingKey : keyPending.getValue()) {
+                // The sets of the previous map may be published, so they are copied instead of modified
+                added.computeIfAbsent(pendingKey, key -> {
+                    final Set<String> dependents = previous.get(key);
+                    return dependents == null ? new HashSet<>() : new HashSet<>(dependents);
+                }).add(keyPending.getKey());
+            }
+        }
+        waiting.putAll(added);
+        return waiting;
+    }
+}
@@ -0,0 +1,556 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable view of the contents of a repository. Instances are never modified once published; a write copies the
+ * current one through a {@link Builder}, which only copies the maps it changes.
+ */
+final class QuerySnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuerySnapshot.class);
+
+    static final QuerySnapshot EMPTY = new QuerySnapshot();
+
+    /*
+     * The body of each key, a String or its UTF-8 bytes depending on the storage
+     */
+    final Map<String, Object> queries;
+    /*
+     * Keys of each file, including the files whose queries were added without marking them as processed
+     */
+    final Map<String, String[]> fileKeys;
+    final Map<String, NamedParameterQuery> namedQueries;
+    final Set<String> files;
+    /*
+     * Keys of the lazy files, parsed or not
+     */
+    final Map<String, LazyFile> lazyKeys;
+    /*
+     * The lazy files already parsed, by name
+     */
+    final Map<String, LoadedFile> loadedFiles;
+    /*
+     * Keys whose body has <tt>${KEY}</tt> includes, as written, with the lines of the file of the body: empty if they
+     * are not known
+     */
+    final Map<String, int[]> includingKeys;
+    /*
+     * The queries as looked up, with the dialects resolved and the includes expanded
+     */
+    final Resolution resolution;
+    final long version;
+    /*
+     * The queries loaded, also from lazy files, and the heap they take
+     */
+    final int queryCount;
+    final long estimatedBytes;
+
+    private QuerySnapshot() {
+        this.queries = Collections.emptyMap();
+        this.fileKeys = Collections.emptyMap();
+        this.namedQueries = Collections.emptyMap();
+        this.files = Collections.emptySet();
+        this.lazyKeys = Collections.emptyMap();
+        this.loadedFiles = Collections.emptyMap();
+        this.includingKeys = Collections.emptyMap();
+        this.resolution = Resolution.EMPTY;
+        this.version = 0;
+        this.queryCount = 0;
+        this.estimatedBytes = 0;
+    }
+
+    private QuerySnapshot(final Builder builder, final long version) {
+        this.queries = builder.queries;
+        this.fileKeys = builder.fileKeys;
+        this.namedQueries = builder.namedQueries;
+        this.files = builder.files;
+        this.lazyKeys = builder.lazyKeys;
+        this.loadedFiles = builder.loadedFiles;
+        this.includingKeys = builder.includingKeys;
+        this.resolution = builder.resolution;
+        this.version = version;
+        int count = queries.size();
+        for (final LoadedFile loadedFile : loadedFiles.values()) {
+            count += loadedFile.bodies.size();
+        }
+        this.queryCount = count;
+        this.estimatedBytes = builder.estimatedBytes;
+    }
+
+    /**
+     * @return a builder of the next snapshot, starting with the contents of this one
+     */
+    Builder builder() {
+        return new Builder(this);
+    }
+
+    /**
+     * @param lowerCaseKey - a key
+     * @return true if the key is loaded in this layer, registered in one of its lazy files or resolved to one of them
+     */
+    boolean contains(final String lowerCaseKey) {
+        return resolution.queries.containsKey(lowerCaseKey) || lazyKeys.containsKey(lowerCaseKey)
+                || resolution.lazyAliases.containsKey(lowerCaseKey);
+    }
+
+    /**
+     * @return the keys of this layer, as {@link #contains(String)}
+     */
+    Collection<String> keys() {
+        final Set<String> keys = new HashSet<>(resolution.queries.keySet());
+        keys.addAll(lazyKeys.keySet());
+        keys.addAll(resolution.lazyAliases.keySet());
+        return keys;
+    }
+
+    /**
+     * The body of a key in this layer, without loading the lazy files: expanded again once a lazy file it includes is
+     * loaded, resolved or in a loaded lazy file
+     *
+     * @param lowerCaseKey - a key
+     * @return the body, or null if it is not loaded
+     */
+    Object body(final String lowerCaseKey) {
+        final Object body = resolution.body(lowerCaseKey);
+        if (body != null || loadedFiles.isEmpty()) {
+            return body;
+        }
+        final String dialectKey = resolution.lazyAliases.get(lowerCaseKey);
+        if (dialectKey != null) {
+            return body(dialectKey);
+        }
+        final LoadedFile loadedFile = loadedFile(lowerCaseKey);
+        return loadedFile == null ? null : loadedFile.bodies.get(lowerCaseKey);
+    }
+
+    /**
+     * @param lowerCaseKey - a key
+     * @return the named query of the key in this layer, looked up as its body is
+     */
+    NamedParameterQuery named(final String lowerCaseKey) {
+        if (resolution.overrides.containsKey(lowerCaseKey)) {
+            return resolution.overrideNamed.get(lowerCaseKey);
+        }
+        if (resolution.queries.containsKey(lowerCaseKey) || loadedFiles.isEmpty()) {
+            return resolution.namedQueries.get(lowerCaseKey);
+        }
+        final String dialectKey = resolution.lazyAliases.get(lowerCaseKey);
+        if (dialectKey != null) {
+            return named(dialectKey);
+        }
+        final LoadedFile loadedFile = loadedFile(lowerCaseKey);
+        return loadedFile == null ? null : loadedFile.namedQueries.get(lowerCaseKey);
+    }
+
+    /**
+     * @param lowerCaseKey - a key
+     * @return the lazy file the key is in, following its dialect, or null
+     */
+    LazyFile lazyFile(final String lowerCaseKey) {
+        return lazyKeys.get(resolution.lazyKey(lowerCaseKey));
+    }
+
+    boolean isPending(final LazyFile lazyFile) {
+        return !lazyFile.keys.isEmpty() && lazyKeys.get(lazyFile.keys.iterator().next()) == lazyFile
+                && !loadedFiles.containsKey(lazyFile.name);
+    }
+
+    private LoadedFile loadedFile(final String lowerCaseKey) {
+        final LazyFile lazyFile = lazyKeys.get(lowerCaseKey);
+        return lazyFile == null ? null : loadedFiles.get(lazyFile.name);
+    }
+
+    /**
+     * The queries as they are looked up, once the dialects are resolved. Without dialects they are the loaded queries.
+     */
+    static final class Resolution {
+
+        static final Resolution EMPTY = new Resolution(Collections.<String, Object>emptyMap(),
+                Collections.<String, NamedParameterQuery>emptyMap());
+
+        final Map<String, Object> queries;
+        final Map<String, NamedParameterQuery> namedQueries;
+        /*
+         * Unscoped names whose dialect query is in a lazy file
+         */
+        final Map<String, String> lazyAliases;
+        /*
+         * The queries of this layer whose includes are left as written, by the lazy key each one is waiting for
+         */
+        final Map<String, Set<String>> waiting;
+        /*
+         * The queries expanded again since the resolution was built, as lazy files they include were loaded. They hide
+         * the resolved ones, and so do their named queries, null for those without named parameters
+         */
+        final Map<String, Object> overrides;
+        final Map<String, NamedParameterQuery> overrideNamed;
+
+        Resolution(final Map<String, Object> queries, final Map<String, NamedParameterQuery> namedQueries) {
+            this(queries, namedQueries, Collections.<String, String>emptyMap());
+        }
+
+        Resolution(final Map<String, Object> queries, final Map<String, NamedParameterQuery> namedQueries,
+                final Map<String, String> lazyAliases) {
+            this(queries, namedQueries, lazyAliases, Collections.<String, Set<String>>emptyMap(),
+                    Collections.<String, Object>emptyMap(), Collections.<String, NamedParameterQuery>emptyMap());
+        }
+
+        private Resolution(final Map<String, Object> queries, final Map<String, NamedParameterQuery> namedQueries,
+                final Map<String, String> lazyAliases, final Map<String, Set<String>> waiting,
+                final Map<String, Object> overrides, final Map<String, NamedParameterQuery> overrideNamed) {
+            this.queries = queries;
+            this.namedQueries = namedQueries;
+            this.lazyAliases = lazyAliases;
+            this.waiting = waiting;
+            this.overrides = overrides;
+            this.overrideNamed = overrideNamed;
+        }
+
+        /**
+         * @param expandedQueries - the queries with their includes expanded
+         * @param expandedNamed - their named queries
+         * @param waitingQueries - the queries waiting for each lazy key
+         * @return this resolution with the includes expanded
+         */
+        Resolution expanded(final Map<String, Object> expandedQueries,
+                final Map<String, NamedParameterQuery> expandedNamed, final Map<String, Set<String>> waitingQueries) {
+            return new Resolution(expandedQueries, expandedNamed, lazyAliases, waitingQueries, overrides,
+                    overrideNamed);
+        }
+
+        /**
+         * @param waitingQueries - the queries waiting for each lazy key
+         * @param expandedAgain - the overrides, null if they have not changed
+         * @param expandedAgainNamed - the named queries of the overrides
+         * @return this resolution once a lazy file is loaded
+         */
+        Resolution loaded(final Map<String, Set<String>> waitingQueries, final Map<String, Object> expandedAgain,
+                final Map<String, NamedParameterQuery> expandedAgainNamed) {
+            return expandedAgain == null
+                    ? new Resolution(queries, namedQueries, lazyAliases, waitingQueries, overrides, overrideNamed)
+                    : new Resolution(queries, namedQueries, lazyAliases, waitingQueries, expandedAgain,
+                            expandedAgainNamed);
+        }
+
+        /**
+         * @param lowerCaseKey - a key
+         * @return its body, expanded again or resolved, without looking in the lazy files
+         */
+        Object body(final String lowerCaseKey) {
+            if (!overrides.isEmpty()) {
+                final Object override = overrides.get(lowerCaseKey);
+                if (override != null) {
+                    return override;
+                }
+            }
+            return queries.get(lowerCaseKey);
+        }
+
+        /**
+         * @param lowerCaseKey - a key
+         * @return the dialect key it resolves to in a lazy file, or the key itself
+         */
+        String lazyKey(final String lowerCaseKey) {
+            final String dialectKey = lazyAliases.get(lowerCaseKey);
+            return dialectKey == null ? lowerCaseKey : dialectKey;
+        }
+    }
+
+    /**
+     * Builds the next snapshot from the current one. The maps of the current snapshot are copied the first time they
+     * are changed, so a write only copies what it changes. Duplicated keys are rejected as they are added, so a
+     * builder that throws is just discarded.
+     */
+    static final class Builder {
+
+        private final QuerySnapshot current;
+        private Map<String, Object> queries;
+        private Map<String, String[]> fileKeys;
+        private Map<String, NamedParameterQuery> namedQueries;
+        private Set<String> files;
+        private Map<String, LazyFile> lazyKeys;
+        private Map<String, LoadedFile> loadedFiles;
+        private Map<String, int[]> includingKeys;
+        private Resolution resolution;
+        private long estimatedBytes;
+
+        private Builder(final QuerySnapshot current) {
+            this.current = current;
+            this.queries = current.queries;
+            this.fileKeys = current.fileKeys;
+            this.namedQueries = current.namedQueries;
+            this.files = current.files;
+            this.lazyKeys = current.lazyKeys;
+            this.loadedFiles = current.loadedFiles;
+            this.includingKeys = current.includingKeys;
+            this.resolution = current.resolution;
+            this.estimatedBytes = current.estimatedBytes;
+        }
+
+        /**
+         * Adds the queries of a file, after those it already has
+         *
+         * @param file - the file name
+         * @param fileQueries - its queries
+         * @return this builder
+         * @throws IllegalArgumentException if a key is present in another file
+         */
+        Builder addQueries(final String file, final FileQueries fileQueries) {
+            for (final Entry<String, Object> body : fileQueries.bodies.entrySet()) {
+                checkDuplicate(body.getKey(), file);
+                writableQueries().put(body.getKey(), body.getValue());
+            }
+            writableFileKeys().put(file, appendKeys(fileKeys.get(file), fileQueries.bodies.keySet()));
+            if (!fileQueries.namedQueries.isEmpty()) {
+                writableNamedQueries().putAll(fileQueries.namedQueries);
+            }
+            if (!fileQueries.includeLines.isEmpty()) {
+                writableIncludingKeys().putAll(fileQueries.includeLines);
+            }
+            estimatedBytes += fileQueries.estimatedBytes;
+            return this;
+        }
+
+        /**
+         * Registers a lazy file and marks it as processed
+         *
+         * @param lazyFile - the file
+         * @return this builder
+         * @throws IllegalArgumentException if a key is present in another file
+         */
+        Builder addLazyFile(final LazyFile lazyFile) {
+            for (final String key : lazyFile.keys) {
+                checkDuplicate(key, lazyFile.name);
+                writableLazyKeys().put(key, lazyFile);
+            }
+            return markProcessed(lazyFile.name);
+        }
+
+        /**
+         * Sets the queries of a lazy file once parsed, replacing those set before
+         *
+         * @param name - the file name
+         * @param loadedFile - its queries
+         * @return this builder
+         */
+        Builder addLoadedFile(final String name, final LoadedFile loadedFile) {
+            final LoadedFile previous = writableLoadedFiles().put(name, loadedFile);
+            estimatedBytes += loadedFile.estimatedBytes - (previous == null ? 0 : previous.estimatedBytes);
+            return this;
+        }
+
+        /**
+         * Removes the queries of a file, loaded or lazy, and the file itself from the processed files
+         *
+         * @param file - the file name
+         * @return this builder
+         */
+        Builder removeFile(final String file) {
+            if (fileKeys.containsKey(file)) {
+                for (final String key : writableFileKeys().remove(file)) {
+                    estimatedBytes -= QueryBodies.estimateBytes(key, writableQueries().remove(key));
+                    if (namedQueries.containsKey(key)) {
+                        writableNamedQueries().remove(key);
+                    }
+                    if (includingKeys.containsKey(key)) {
+                        writableIncludingKeys().remove(key);
+                    }
+                }
+            }
+            if (!lazyKeys.isEmpty()) {
+                writableLazyKeys().values().removeIf(lazyFile -> file.equals(lazyFile.name));
+            }
+            if (loadedFiles.containsKey(file)) {
+                estimatedBytes -= writableLoadedFiles().remove(file).estimatedBytes;
+            }
+            if (files.contains(file)) {
+                writableFiles().remove(file);
+            }
+            return this;
+        }
+
+        /**
+         * @param file - a file name
+         * @return this builder, with the file marked as processed
+         */
+        Builder markProcessed(final String file) {
+            if (!files.contains(file)) {
+                writableFiles().add(file);
+            }
+            return this;
+        }
+
+        /**
+         * @param resolved - the queries as looked up
+         * @return this builder
+         */
+        Builder resolution(final Resolution resolved) {
+            this.resolution = resolved;
+            return this;
+        }
+
+        /**
+         * @param version - the version of the contents
+         * @return the snapshot
+         */
+        QuerySnapshot build(final long version) {
+            return new QuerySnapshot(this, version);
+        }
+
+        Map<String, Object> getQueries() {
+            return queries;
+        }
+
+        Map<String, NamedParameterQuery> getNamedQueries() {
+            return namedQueries;
+        }
+
+        Map<String, LazyFile> getLazyKeys() {
+            return lazyKeys;
+        }
+
+        Map<String, LoadedFile> getLoadedFiles() {
+            return loadedFiles;
+        }
+
+        Map<String, int[]> getIncludingKeys() {
+            return includingKeys;
+        }
+
+        /**
+         * @return the resolution of the current snapshot, until another one is set
+         */
+        Resolution getResolution() {
+            return resolution;
+        }
+
+        /**
+         * @param lowerCaseKey - a key
+         * @return the loaded lazy file the key is in, or null
+         */
+        LoadedFile loadedFile(final String lowerCaseKey) {
+            final LazyFile lazyFile = lazyKeys.get(lowerCaseKey);
+            return lazyFile == null ? null : loadedFiles.get(lazyFile.name);
+        }
+
+        /**
+         * @param lowerCaseKey - a key
+         * @return the file of the key, used to report cycles
+         */
+        String fileOf(final String lowerCaseKey) {
+            final LazyFile lazyFile = lazyKeys.get(lowerCaseKey);
+            return lazyFile == null ? QuerySnapshot.fileOf(lowerCaseKey, fileKeys) : lazyFile.name;
+        }
+
+        private void checkDuplicate(final String key, final String file) {
+            String duplicateKeyFile = null;
+            if (queries.containsKey(key)) {
+                duplicateKeyFile = QuerySnapshot.fileOf(key, fileKeys);
+            } else {
+                final LazyFile lazyFile = lazyKeys.get(key);
+                duplicateKeyFile = lazyFile == null ? null : lazyFile.name;
+            }
+            if (duplicateKeyFile != null) {
+                LOGGER.error("The query '{}' is duplicated. The key is present in files {} and {} ", key, file,
+                        duplicateKeyFile);
+                throw new IllegalArgumentException(
+                        "The query '" + key + "' is duplicated in files " + file + " and " + duplicateKeyFile);
+            }
+        }
+
+        private Map<String, Object> writableQueries() {
+            if (queries == current.queries) {
+                queries = new HashMap<>(queries);
+            }
+            return queries;
+        }
+
+        private Map<String, String[]> writableFileKeys() {
+            if (fileKeys == current.fileKeys) {
+                fileKeys = new HashMap<>(fileKeys);
+            }
+            return fileKeys;
+        }
+
+        private Map<String, NamedParameterQuery> writableNamedQueries() {
+            if (namedQueries == current.namedQueries) {
+                namedQueries = new HashMap<>(namedQueries);
+            }
+            return namedQueries;
+        }
+
+        private Set<String> writableFiles() {
+            if (files == current.files) {
+                files = new HashSet<>(files);
+            }
+            return files;
+        }
+
+        private Map<String, LazyFile> writableLazyKeys() {
+            if (lazyKeys == current.lazyKeys) {
+                lazyKeys = new HashMap<>(lazyKeys);
+            }
+            return lazyKeys;
+        }
+
+        private Map<String, LoadedFile> writableLoadedFiles() {
+            if (loadedFiles == current.loadedFiles) {
+                loadedFiles = new HashMap<>(loadedFiles);
+            }
+            return loadedFiles;
+        }
+
+        private Map<String, int[]> writableIncludingKeys() {
+            if (includingKeys == current.includingKeys) {
+                includingKeys = new HashMap<>(includingKeys);
+            }
+            return includingKeys;
+        }
+    }
+
+    private static String[] appendKeys(final String[] previousKeys, final Set<String> keys) {
+        final int offset = previousKeys == null ? 0 : previousKeys.length;
+        final String[] allKeys =
+                previousKeys == null ? new String[keys.size()] : Arrays.copyOf(previousKeys, offset + keys.size());
+        int i = offset;
+        for (final String key : keys) {
+            allKeys[i++] = key;
+        }
+        return allKeys;
+    }
+
+    /*
+     * Only used to report duplicates and cycles, so the files are scanned instead of keeping a map from every key to
+     * its file
+     */
+    private static String fileOf(final String key, final Map<String, String[]> fileKeys) {
+        for (final Entry<String, String[]> keys : fileKeys.entrySet()) {
+            for (final String fileKey : keys.getValue()) {
+                if (fileKey.equals(key)) {
+                    return keys.getKey();
+                }
+            }
+        }
+        return "unknown";
+    }
+}
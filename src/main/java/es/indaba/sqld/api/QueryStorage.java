@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.api;
+
+/**
+ * How a {@link QueryDefinitionRepository} holds the query bodies.
+ */
+public enum QueryStorage {
+
+    /**
+     * Bodies are held as strings and returned as they are. The fastest lookup.
+     */
+    STRINGS,
+
+    /**
+     * Bodies are held as UTF-8 byte arrays and a string is built on each lookup, unless the key is in the hot keys
+     * cache. Until Java 9 strings take two bytes per character, so this halves the heap taken by ASCII queries.
+     */
+    UTF8
+}
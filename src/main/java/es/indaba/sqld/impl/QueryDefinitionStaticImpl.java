@@ -13,7 +13,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import es.indaba.sqld.QueryDefinitionsStaticHolder;
+import es.indaba.sqld.api.NamedParameterQuery;
 import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.api.QueryHandle;
 
 
 /**
@@ -24,35 +27,68 @@ public class QueryDefinitionStaticImpl extends QueryDefinition {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryDefinitionStaticImpl.class);
 
+    private final QueryHandle handle;
+
 
     /**
-     * Constructs a proxy for the provided query key
+     * Constructs a proxy for the provided query key. The query is resolved on first use, so queries registered to be
+     * loaded on demand are not parsed until then.
      * 
      * @param key
      */
     public QueryDefinitionStaticImpl(String key) {
+        this(key, QueryDefinitionsStaticHolder.getDefaultRepository());
+    }
+
+    /**
+     * Constructs a proxy for the provided query key of a repository other than the default one
+     * 
+     * @param key
+     * @param repository
+     */
+    public QueryDefinitionStaticImpl(String key, QueryDefinitionRepository repository) {
+        this(key, repository.getHandle(key));
+    }
+
+    /**
+     * Constructs a proxy for the query of a handle
+     * 
+     * @param key
+     * @param handle
+     */
+    public QueryDefinitionStaticImpl(String key, QueryHandle handle) {
         super(key);
-        try {
-            this.query = QueryDefinitionsStaticHolder.getQueryAsString(key);
-        } catch (IllegalArgumentException e) {
-            // Log and wait for a laizy loading
-            LOGGER.warn(
-                    "Query {} has been requested but is not loaded yet. Usually this an error as the query is not defined",
-                    key);
-        }
+        this.handle = handle;
     }
 
     /**
-     * Returns the query as a String
+     * Returns the query as a String. The query is read from the handle, so it is current after a file is reloaded
+     * without a lookup by key on each call.
      * 
      * @return the query proxied by this object
      */
     @Override
     public String getQueryAsString() {
-        if (query != null) {
-            return query;
+        final String query = handle.getQuery();
+        if (query == null) {
+            LOGGER.error("The query with key '{}' is not present.", key);
+            throw new IllegalArgumentException("The query '" + key + "' is not present");
         }
-        query = QueryDefinitionsStaticHolder.getQueryAsString(key);
         return query;
     }
+
+    /**
+     * Returns the query with its named parameters translated, as it was parsed when the query was loaded
+     * 
+     * @return the parsed query
+     */
+    @Override
+    public NamedParameterQuery getNamedParameterQuery() {
+        final NamedParameterQuery named = handle.getNamedParameterQuery();
+        if (named == null) {
+            LOGGER.error("The query with key '{}' is not present.", key);
+            throw new IllegalArgumentException("The query '" + key + "' is not present");
+        }
+        return named;
+    }
 }
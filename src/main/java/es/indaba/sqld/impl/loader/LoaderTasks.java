@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.loader;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The executors where the loaders read the definition files when the caller does not provide one, and the reading of
+ * the files in them.
+ *
+ * <P> The common fork-join pool is not used: with a parallelism of one, on machines of one or two processors,
+ * <tt>CompletableFuture</tt> starts a thread per task in its place, a thread per definition file. Each load gets a pool
+ * of its own instead, of a thread per processor, that is shut down when the load ends. On a single processor the files
+ * are read in the calling thread.
+ */
+final class LoaderTasks {
+
+    private static final String THREAD_NAME = "sqld-loader-";
+
+    /**
+     * Runs a load on an executor owned by the load
+     *
+     * @param load the load, that must wait for the tasks it submits before returning
+     */
+    static void withDefaultExecutor(final Consumer<Executor> load) {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        if (processors <= 1) {
+            load.accept(Runnable::run);
+            return;
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(processors, command -> {
+            final Thread thread = new Thread(command, THREAD_NAME + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            load.accept(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reads every file in its own task and waits for all of them
+     *
+     * @param files the files, in the order they are merged into the repository
+     * @param names the name each file is registered with
+     * @param read reads a file, returning <code>null</code> if it can not be read
+     * @param executor the executor where the files are read
+     * @return the results by file name, in the order of the files, without the files that could not be read
+     */
+    static <F, T> Map<String, T> readAll(final Collection<F> files, final Function<F, String> names,
+            final Function<F, T> read, final Executor executor) {
+        final Map<String, CompletableFuture<T>> reading = new LinkedHashMap<>();
+        for (final F file : files) {
+            reading.put(names.apply(file), CompletableFuture.supplyAsync(() -> read.apply(file), executor));
+        }
+        final Map<String, T> results = new LinkedHashMap<>();
+        for (final Entry<String, CompletableFuture<T>> file : reading.entrySet()) {
+            final T result = join(file.getValue());
+            if (result != null) {
+                results.put(file.getKey(), result);
+            }
+        }
+        return results;
+    }
+
+    /*
+     * Parsing errors are thrown as they would be thrown by the parsers
+     */
+    static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private LoaderTasks() {
+        // Avoid instances of this Utility Class
+    }
+}
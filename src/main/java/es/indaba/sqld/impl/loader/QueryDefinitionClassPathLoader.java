@@ -9,10 +9,24 @@
  *******************************************************************************/
 package es.indaba.sqld.impl.loader;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 import org.reflections.Reflections;
@@ -25,6 +39,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Predicate;
 
+import es.indaba.sqld.api.QueryDefinitionMetrics;
 import es.indaba.sqld.api.QueryDefinitionRepository;
 import es.indaba.sqld.impl.parser.TextBlockReader;
 import es.indaba.sqld.impl.parser.YamlFileReader;
@@ -36,73 +51,359 @@ public final class QueryDefinitionClassPathLoader {
     private static final String SQLD_TEXT_EXTENSION = "sqld";
     private static final String SQLD_YAML_EXTENSION = "ysqld";
     private static final String ANY_LEVEL_REGEXP = ".*\\.";
+    private static final String JAR_PROTOCOL = "jar:";
+    private static final String FILE_PROTOCOL = "file";
+    private static final String JAR_SEPARATOR = "!/";
 
     /**
      * Loads query definition files with sqld and ysqld extension. Each block is loaded into the provided
-     * QueryDefinitionRepository.
+     * QueryDefinitionRepository. The files are parsed in parallel in a pool of a thread per processor, owned by the
+     * load.
      * 
      * @param prefix - is the package prefix where the query definitions files are located.
      * 
      * @param repository - is the repository where the definitions are loaded.
      */
     public static void loadQueryDefinitionFiles(final String prefix, QueryDefinitionRepository repository) {
-        final Predicate<String> filter = new FilterBuilder().include(prefix + ANY_LEVEL_REGEXP + SQLD_TEXT_EXTENSION)
-                .include(prefix + ANY_LEVEL_REGEXP + SQLD_YAML_EXTENSION);
+        LoaderTasks.withDefaultExecutor(executor -> loadQueryDefinitionFiles(prefix, repository, executor));
+    }
 
-        final Reflections reflections = new Reflections(new ConfigurationBuilder().filterInputsBy(filter)
-                .setScanners(new ResourcesScanner()).setUrls(ClasspathHelper.forClassLoader()));
+    /**
+     * Loads query definition files with sqld and ysqld extension. Each block is loaded into the provided
+     * QueryDefinitionRepository.
+     * 
+     * The files are listed from the {@link QueryDefinitionIndexer} indexes of the classpath roots that have one; the
+     * rest of the roots are scanned. The files are parsed in parallel on the provided executor. Then they are merged
+     * into the repository in a fixed order, text files first and yaml files after, each group sorted by name, so a
+     * duplicated key is always reported for the same pair of files.
+     * 
+     * @param prefix - is the package prefix where the query definitions files are located.
+     * 
+     * @param repository - is the repository where the definitions are loaded.
+     * 
+     * @param executor - is the executor where the files are parsed.
+     */
+    public static void loadQueryDefinitionFiles(final String prefix, QueryDefinitionRepository repository,
+            final Executor executor) {
+        // The workers do not share the context class loader of the caller
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final List<String> resources = listPendingResources(prefix, repository, classLoader);
+        // Publish every file at once so the repository is copied a single time
+        repository.addQueries(parseFiles(resources, classLoader, repository.getMetrics(), executor));
+    }
 
-        final Set<String> textResources =
-                reflections.getResources(Pattern.compile(ANY_LEVEL_REGEXP + SQLD_TEXT_EXTENSION));
-        for (final String resource : textResources) {
-            try (InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
-                LOGGER.debug("Loading SQL file {} ", resource);
-                loadTextBlockFile(stream, resource, repository);
-            } catch (final IOException e) {
-                LOGGER.error("Error Loading SQL file {} ", resource, e);
+    /**
+     * Loads query definition files keeping a snapshot of the parsed files, as
+     * {@link #loadQueryDefinitionFiles(String, QueryDefinitionRepository, Executor, Path)} does. The files are parsed
+     * in a pool of a thread per processor, owned by the load.
+     * 
+     * @param prefix - is the package prefix where the query definitions files are located.
+     * 
+     * @param repository - is the repository where the definitions are loaded.
+     * 
+     * @param snapshot - is the snapshot file, written when it is missing or outdated.
+     */
+    public static void loadQueryDefinitionFiles(final String prefix, QueryDefinitionRepository repository,
+            final Path snapshot) {
+        LoaderTasks.withDefaultExecutor(executor -> loadQueryDefinitionFiles(prefix, repository, executor, snapshot));
+    }
+
+    /**
+     * Loads query definition files as {@link #loadQueryDefinitionFiles(String, QueryDefinitionRepository, Executor)}
+     * does, keeping a snapshot of the parsed files. If the snapshot was written from the same files, with the same
+     * names, sizes and CRC-32, the queries are read from it and the files are not parsed. Otherwise the files are
+     * parsed and the snapshot is written again. A snapshot that can not be read or written is reported in the log and
+     * the files are parsed as usual.
+     * 
+     * @param prefix - is the package prefix where the query definitions files are located.
+     * 
+     * @param repository - is the repository where the definitions are loaded.
+     * 
+     * @param executor - is the executor where the files are parsed.
+     * 
+     * @param snapshot - is the snapshot file, written when it is missing or outdated.
+     */
+    public static void loadQueryDefinitionFiles(final String prefix, QueryDefinitionRepository repository,
+            final Executor executor, final Path snapshot) {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final List<String> resources = listPendingResources(prefix, repository, classLoader);
+        long fingerprint;
+        try {
+            fingerprint = QueryDefinitionSnapshot.fingerprint(resources, classLoader);
+        } catch (final IOException e) {
+            LOGGER.warn("The query definition files can not be fingerprinted, the snapshot {} is not used", snapshot, e);
+            repository.addQueries(parseFiles(resources, classLoader, repository.getMetrics(), executor));
+            return;
+        }
+        final Map<String, Properties> snapshotFiles = QueryDefinitionSnapshot.read(snapshot, fingerprint);
+        if (snapshotFiles != null) {
+            LOGGER.debug("Query definitions under {} read from the snapshot {}", prefix, snapshot);
+            repository.addQueries(snapshotFiles);
+            return;
+        }
+
+        final Map<String, Properties> parsedFiles =
+                parseFiles(resources, classLoader, repository.getMetrics(), executor);
+        repository.addQueries(parsedFiles);
+        if (parsedFiles.size() != resources.size()) {
+            // Unreadable files would be missing from the snapshot
+            LOGGER.warn("Some query definition files can not be read, the snapshot {} is not written", snapshot);
+            return;
+        }
+        try {
+            QueryDefinitionSnapshot.write(snapshot, fingerprint, parsedFiles);
+        } catch (final IOException e) {
+            LOGGER.warn("Error writing the query definitions snapshot {}", snapshot, e);
+        }
+    }
+
+    /**
+     * Registers the query definition files with sqld and ysqld extension to be loaded on demand. Only the keys of each
+     * file are read now, in parallel in a pool of a thread per processor owned by the call; a file is parsed when one
+     * of its queries is first requested from the repository.
+     * 
+     * @param prefix - is the package prefix where the query definitions files are located.
+     * 
+     * @param repository - is the repository where the definitions are registered.
+     */
+    public static void indexQueryDefinitionFiles(final String prefix, QueryDefinitionRepository repository) {
+        LoaderTasks.withDefaultExecutor(executor -> indexQueryDefinitionFiles(prefix, repository, executor));
+    }
+
+    /**
+     * Registers the query definition files with sqld and ysqld extension to be loaded on demand. Only the keys of each
+     * file are read now, in parallel on the provided executor; a file is parsed when one of its queries is first
+     * requested from the repository. Files are listed and registered in the same order as in
+     * {@link #loadQueryDefinitionFiles(String, QueryDefinitionRepository, Executor)}.
+     * 
+     * @param prefix - is the package prefix where the query definitions files are located.
+     * 
+     * @param repository - is the repository where the definitions are registered.
+     * 
+     * @param executor - is the executor where the keys are read.
+     */
+    public static void indexQueryDefinitionFiles(final String prefix, QueryDefinitionRepository repository,
+            final Executor executor) {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final Map<String, Set<String>> filesKeys = LoaderTasks.readAll(
+                listPendingResources(prefix, repository, classLoader), Function.identity(),
+                resource -> readKeys(resource, classLoader), executor);
+        final QueryDefinitionMetrics metrics = repository.getMetrics();
+        repository.addLazyQueries(filesKeys, resource -> parseFile(resource, classLoader, metrics));
+    }
+
+    private static List<String> listPendingResources(final String prefix, final QueryDefinitionRepository repository,
+            final ClassLoader classLoader) {
+        final List<String> resources = new ArrayList<>();
+        for (final String resource : listResources(prefix, classLoader)) {
+            if (repository.isFileProcessed(resource)) {
+                LOGGER.debug("The file '{}' is already loaded.", resource);
+            } else {
+                resources.add(resource);
             }
         }
+        return resources;
+    }
 
-        final Set<String> yamlResources =
-                reflections.getResources(Pattern.compile(ANY_LEVEL_REGEXP + SQLD_YAML_EXTENSION));
-        for (final String resource : yamlResources) {
-            try (InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
-                LOGGER.debug("Loading SQL Yaml file {} ", resource);
-                loadYamlFile(stream, resource, repository);
-            } catch (final IOException e) {
-                LOGGER.error("Error Loading SQL Yaml file {} ", resource, e);
+    private static Map<String, Properties> parseFiles(final List<String> resources, final ClassLoader classLoader,
+            final QueryDefinitionMetrics metrics, final Executor executor) {
+        return LoaderTasks.readAll(resources, Function.identity(),
+                resource -> parseFile(resource, classLoader, metrics), executor);
+    }
+
+    private static List<String> listResources(final String prefix, final ClassLoader classLoader) {
+        final Set<String> textResources = new TreeSet<>();
+        final Set<String> yamlResources = new TreeSet<>();
+        final Set<String> indexedRoots = readIndexes(prefix, classLoader, textResources, yamlResources);
+        scan(prefix, indexedRoots, textResources, yamlResources);
+
+        final List<String> resources = new ArrayList<>(textResources);
+        resources.addAll(yamlResources);
+        return resources;
+    }
+
+    /*
+     * Reads the indexes written at build time. Returns the classpath roots that have an index, in the form returned by
+     * ClasspathHelper, so they are not scanned. The index of a jar is trusted, but a classes directory may have been
+     * rebuilt by an IDE without writing the index again: it is listed under the prefix instead, and reported if the
+     * index is out of date.
+     */
+    private static Set<String> readIndexes(final String prefix, final ClassLoader classLoader,
+            final Set<String> textResources, final Set<String> yamlResources) {
+        final Set<String> roots = new HashSet<>();
+        final Enumeration<URL> indexes;
+        try {
+            indexes = classLoader.getResources(QueryDefinitionIndexer.INDEX_RESOURCE);
+        } catch (final IOException e) {
+            LOGGER.error("Error looking for query definition indexes", e);
+            return roots;
+        }
+        while (indexes.hasMoreElements()) {
+            final URL index = indexes.nextElement();
+            final String root = classpathRoot(index);
+            try (InputStream stream = index.openStream()) {
+                Set<String> resources = new TreeSet<>();
+                for (final String resource : QueryDefinitionIndexer.readIndex(stream)) {
+                    if (resource.replace('/', '.').startsWith(prefix)) {
+                        resources.add(resource);
+                    }
+                }
+                if (FILE_PROTOCOL.equals(index.getProtocol())) {
+                    final Set<String> listed = listDirectory(prefix, Paths.get(new URL(root).toURI()));
+                    if (!listed.equals(resources)) {
+                        LOGGER.warn("The query definition index {} is out of date, its directory is listed instead",
+                                index);
+                    }
+                    resources = listed;
+                }
+                for (final String resource : resources) {
+                    addResource(resource, textResources, yamlResources);
+                }
+                roots.add(root);
+            } catch (final IOException | URISyntaxException e) {
+                // The root will be scanned
+                LOGGER.error("Error reading the query definition index {} ", index, e);
             }
         }
+        return roots;
+    }
 
+    /*
+     * The definition files of a classes directory under a package prefix
+     */
+    private static Set<String> listDirectory(final String prefix, final Path root) throws IOException {
+        // The package of the prefix, which may end in the middle of a name
+        final int lastDot = prefix.lastIndexOf('.');
+        final Path directory = lastDot == -1 ? root : root.resolve(prefix.substring(0, lastDot).replace('.', '/'));
+        final Set<String> resources = new TreeSet<>();
+        if (Files.isDirectory(directory)) {
+            for (final String resource : QueryDefinitionIndexer.listDefinitionFiles(root, directory)) {
+                if (resource.replace('/', '.').startsWith(prefix)) {
+                    resources.add(resource);
+                }
+            }
+        }
+        return resources;
     }
 
-    private static synchronized void loadTextBlockFile(final InputStream aInput, final String aSqlFileName,
-            QueryDefinitionRepository repository) throws IOException {
-        if (repository.isFileProcessed(aSqlFileName)) {
-            LOGGER.debug("The file '{}' is already loaded.", aSqlFileName);
+    private static void scan(final String prefix, final Set<String> indexedRoots, final Set<String> textResources,
+            final Set<String> yamlResources) {
+        final Set<URL> urls = new HashSet<>();
+        for (final URL url : ClasspathHelper.forClassLoader()) {
+            if (!indexedRoots.contains(url.toExternalForm())) {
+                urls.add(url);
+            }
+        }
+        LOGGER.debug("Query definitions under {}: {} indexed classpath roots, {} roots to scan", prefix,
+                indexedRoots.size(), urls.size());
+        if (urls.isEmpty()) {
             return;
         }
-        final TextBlockReader sqlReader = new TextBlockReader(aInput, aSqlFileName);
-        final Properties qFile = sqlReader.read();
-        repository.addQuery(qFile, aSqlFileName);
-        repository.fileLoaded(aSqlFileName);
+
+        final Predicate<String> filter = new FilterBuilder().include(prefix + ANY_LEVEL_REGEXP + SQLD_TEXT_EXTENSION)
+                .include(prefix + ANY_LEVEL_REGEXP + SQLD_YAML_EXTENSION);
+
+        final Reflections reflections = new Reflections(new ConfigurationBuilder().filterInputsBy(filter)
+                .setScanners(new ResourcesScanner()).setUrls(urls));
+
+        textResources.addAll(reflections.getResources(Pattern.compile(ANY_LEVEL_REGEXP + SQLD_TEXT_EXTENSION)));
+        yamlResources.addAll(reflections.getResources(Pattern.compile(ANY_LEVEL_REGEXP + SQLD_YAML_EXTENSION)));
     }
 
+    private static void addResource(final String resource, final Set<String> textResources,
+            final Set<String> yamlResources) {
+        if (resource.endsWith("." + SQLD_TEXT_EXTENSION)) {
+            textResources.add(resource);
+        } else if (resource.endsWith("." + SQLD_YAML_EXTENSION)) {
+            yamlResources.add(resource);
+        }
+    }
 
-    private static void loadYamlFile(final InputStream aInput, final String aSqlFileName,
-            QueryDefinitionRepository repository) {
-        if (repository.isFileProcessed(aSqlFileName)) {
-            LOGGER.debug("The file '{}' is already loaded.", aSqlFileName);
-            return;
+    /*
+     * jar:file:/lib/queries.jar!/META-INF/sqld/index is file:/lib/queries.jar and file:/classes/META-INF/sqld/index is
+     * file:/classes/
+     */
+    private static String classpathRoot(final URL index) {
+        final String url = index.toExternalForm();
+        String root = url.substring(0, url.length() - QueryDefinitionIndexer.INDEX_RESOURCE.length());
+        if (root.startsWith(JAR_PROTOCOL) && root.endsWith(JAR_SEPARATOR)) {
+            root = root.substring(JAR_PROTOCOL.length(), root.length() - JAR_SEPARATOR.length());
         }
+        return root;
+    }
 
-        final YamlFileReader sqlReader = new YamlFileReader(aInput, aSqlFileName);
-        final Properties qFile = sqlReader.read();
-        repository.addQuery(qFile, aSqlFileName);
-        repository.fileLoaded(aSqlFileName);
+    private static Properties parseFile(final String resource, final ClassLoader classLoader,
+            final QueryDefinitionMetrics metrics) {
+        final boolean yaml = resource.endsWith("." + SQLD_YAML_EXTENSION);
+        final long start = System.nanoTime();
+        try (CountingInputStream stream = new CountingInputStream(classLoader.getResourceAsStream(resource))) {
+            final Properties queries;
+            if (yaml) {
+                LOGGER.debug("Loading SQL Yaml file {} ", resource);
+                queries = new YamlFileReader(stream, resource).read();
+            } else {
+                LOGGER.debug("Loading SQL file {} ", resource);
+                queries = new TextBlockReader(stream, resource).read();
+            }
+            metrics.fileParsed(resource, stream.count, System.nanoTime() - start, queries.size());
+            return queries;
+        } catch (final IOException e) {
+            LOGGER.error(yaml ? "Error Loading SQL Yaml file {} " : "Error Loading SQL file {} ", resource, e);
+            return null;
+        }
+    }
+
+    private static Set<String> readKeys(final String resource, final ClassLoader classLoader) {
+        try (InputStream stream = classLoader.getResourceAsStream(resource)) {
+            LOGGER.debug("Indexing SQL file {} ", resource);
+            if (resource.endsWith("." + SQLD_YAML_EXTENSION)) {
+                return new YamlFileReader(stream, resource).readKeys();
+            }
+            return new TextBlockReader(stream, resource).readKeys();
+        } catch (final IOException e) {
+            LOGGER.error("Error Loading SQL file {} ", resource, e);
+            return null;
+        }
     }
 
 
+    /*
+     * Counts the bytes read, to report the size of the parsed files
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
     private QueryDefinitionClassPathLoader() {
         // Avoid instances of this Utility Class
     }
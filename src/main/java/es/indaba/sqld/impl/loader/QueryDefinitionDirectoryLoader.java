@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.indaba.sqld.api.QueryDefinitionMetrics;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.parser.TextBlockReader;
+import es.indaba.sqld.impl.parser.YamlFileReader;
+
+/**
+ * Loads query definition files from a directory of the file system, like a directory mounted out of the application.
+ *
+ * <P> The directory tree is walked in parallel, a task per directory, without following symbolic links. The files are
+ * read through a {@link FileChannel}: the large ones are memory mapped and the small ones, whose mapping would cost
+ * more than reading them, are read into a buffer. The parsers decode the bytes straight from the buffer.
+ *
+ * <P> Each file is known by its absolute path, and the files are merged into the repository as the
+ * {@link QueryDefinitionClassPathLoader} does: in a single step, text files first and yaml files after, each group
+ * sorted by path, so a duplicated key is always reported for the same pair of files. The
+ * {@link QueryDefinitionFileWatcher} watches them by that path.
+ */
+public final class QueryDefinitionDirectoryLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryDefinitionDirectoryLoader.class);
+
+    private static final String SQLD_TEXT_EXTENSION = ".sqld";
+    private static final String SQLD_YAML_EXTENSION = ".ysqld";
+
+    /*
+     * Files from this size on are memory mapped
+     */
+    private static final long MAPPING_THRESHOLD = 64 * 1024;
+
+    /**
+     * Loads the query definition files with sqld and ysqld extension under a directory, walking it and parsing the
+     * files in parallel in a pool of a thread per processor, owned by the load.
+     * 
+     * @param directory - is the directory where the query definitions files are located, at any depth.
+     * 
+     * @param repository - is the repository where the definitions are loaded.
+     */
+    public static void loadQueryDefinitionFiles(final Path directory, final QueryDefinitionRepository repository) {
+        LoaderTasks.withDefaultExecutor(executor -> loadQueryDefinitionFiles(directory, repository, executor));
+    }
+
+    /**
+     * Loads the query definition files with sqld and ysqld extension under a directory. Files already processed by the
+     * repository are skipped.
+     * 
+     * @param directory - is the directory where the query definitions files are located, at any depth.
+     * 
+     * @param repository - is the repository where the definitions are loaded.
+     * 
+     * @param executor - is the executor where the directories are listed and the files parsed.
+     * 
+     * @throws IllegalArgumentException if the directory does not exist or can not be listed
+     */
+    public static void loadQueryDefinitionFiles(final Path directory, final QueryDefinitionRepository repository,
+            final Executor executor) {
+        if (!Files.isDirectory(directory)) {
+            LOGGER.error("The query definitions directory {} does not exist", directory);
+            throw new IllegalArgumentException("The query definitions directory " + directory + " does not exist");
+        }
+        final Listing listing = LoaderTasks.join(walk(directory.toAbsolutePath().normalize(), executor));
+
+        final TreeSet<Path> textFiles = new TreeSet<>();
+        final TreeSet<Path> yamlFiles = new TreeSet<>();
+        for (final Path file : listing.files) {
+            if (repository.isFileProcessed(file.toString())) {
+                LOGGER.debug("The file '{}' is already loaded.", file);
+            } else if (file.toString().endsWith(SQLD_TEXT_EXTENSION)) {
+                textFiles.add(file);
+            } else {
+                yamlFiles.add(file);
+            }
+        }
+        final List<Path> files = new ArrayList<>(textFiles);
+        files.addAll(yamlFiles);
+        LOGGER.debug("Query definitions under {}: {} directories, {} files to load", directory, listing.directories,
+                files.size());
+
+        final QueryDefinitionMetrics metrics = repository.getMetrics();
+        // Publish every file at once so the repository is copied a single time
+        repository.addQueries(
+                LoaderTasks.readAll(files, Path::toString, file -> parseFile(file, metrics), executor));
+    }
+
+    /*
+     * Lists a directory and walks its subdirectories, each in its own task. Nothing blocks waiting for a subdirectory,
+     * so a bounded executor can not run out of threads
+     */
+    private static CompletableFuture<Listing> walk(final Path directory, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> list(directory), executor).thenCompose(listing -> {
+            if (listing.subdirectories.isEmpty()) {
+                return CompletableFuture.completedFuture(listing);
+            }
+            final List<CompletableFuture<Listing>> walks = new ArrayList<>(listing.subdirectories.size());
+            for (final Path subdirectory : listing.subdirectories) {
+                walks.add(walk(subdirectory, executor));
+            }
+            return CompletableFuture.allOf(walks.toArray(new CompletableFuture<?>[walks.size()])).thenApply(done -> {
+                for (final CompletableFuture<Listing> walked : walks) {
+                    listing.add(walked.join());
+                }
+                return listing;
+            });
+        });
+    }
+
+    private static Listing list(final Path directory) {
+        final Listing listing = new Listing();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (final Path entry : entries) {
+                final String name = entry.getFileName().toString();
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    listing.subdirectories.add(entry);
+                } else if ((name.endsWith(SQLD_TEXT_EXTENSION) || name.endsWith(SQLD_YAML_EXTENSION))
+                        && Files.isRegularFile(entry)) {
+                    listing.files.add(entry);
+                }
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Error listing the query definitions directory {}", directory, e);
+            throw new IllegalArgumentException("Error listing the query definitions directory " + directory, e);
+        }
+        return listing;
+    }
+
+    private static Properties parseFile(final Path file, final QueryDefinitionMetrics metrics) {
+        final String name = file.toString();
+        final boolean yaml = name.endsWith(SQLD_YAML_EXTENSION);
+        final long start = System.nanoTime();
+        try {
+            final ByteBuffer content = read(file);
+            final long bytes = content.remaining();
+            final Properties queries;
+            if (yaml) {
+                LOGGER.debug("Loading SQL Yaml file {} ", name);
+                queries = new YamlFileReader(content, name).read();
+            } else {
+                LOGGER.debug("Loading SQL file {} ", name);
+                queries = new TextBlockReader(content, name, StandardCharsets.UTF_8).read();
+            }
+            metrics.fileParsed(name, bytes, System.nanoTime() - start, queries.size());
+            return queries;
+        } catch (final IOException e) {
+            LOGGER.error(yaml ? "Error Loading SQL Yaml file {} " : "Error Loading SQL file {} ", name, e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer read(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size >= MAPPING_THRESHOLD) {
+                // The mapping stays valid once the channel is closed
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            final ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining() && channel.read(content) != -1) {
+                // Read until the end of the file
+            }
+            content.flip();
+            return content;
+        }
+    }
+
+    /**
+     * The definition files and subdirectories found under a directory
+     */
+    private static final class Listing {
+
+        private final List<Path> files = new ArrayList<>();
+        private final List<Path> subdirectories = new ArrayList<>();
+        private int directories = 1;
+
+        private void add(final Listing subdirectory) {
+            files.addAll(subdirectory.files);
+            directories += subdirectory.directories;
+        }
+    }
+
+    private QueryDefinitionDirectoryLoader() {
+        // Avoid instances of this Utility Class
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.loader;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.parser.TextBlockReader;
+import es.indaba.sqld.impl.parser.YamlFileReader;
+
+/**
+ * Reloads the definition files of a repository when they change in the file system.
+ *
+ * The directories of the loaded files that are reachable as <tt>file:</tt> URLs are watched, and those of the files
+ * registered by their absolute path, as the {@link QueryDefinitionDirectoryLoader} does. Events are coalesced for
+ * {@value #SETTLE_MILLIS} ms, so an editor saving a file in several steps triggers a single reload, and then only the
+ * changed files are parsed again and swapped in the repository. A file that does not parse keeps its previous
+ * definitions.
+ */
+public final class QueryDefinitionFileWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryDefinitionFileWatcher.class);
+
+    private static final String FILE_PROTOCOL = "file";
+    private static final String SQLD_YAML_SUFFIX = ".ysqld";
+    private static final long SETTLE_MILLIS = 200;
+
+    private final QueryDefinitionRepository repository;
+    private final WatchService watchService;
+    /*
+     * Resource name prefix of each watched directory, the directory path for the files registered by their path
+     */
+    private final Map<Path, String> directories = new HashMap<>();
+    private final Thread thread;
+
+    private QueryDefinitionFileWatcher(final QueryDefinitionRepository repository, final WatchService watchService) {
+        this.repository = repository;
+        this.watchService = watchService;
+        this.thread = new Thread(this::run, "sqld-file-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts watching the files loaded in the repository
+     *
+     * @param repository - the repository to keep updated
+     * @param classLoader - the class loader the files were loaded from, the files not found in it are looked up as
+     *            absolute paths of the file system
+     * @return the running watcher
+     * @throws IOException if the file system can not be watched
+     */
+    public static QueryDefinitionFileWatcher watch(final QueryDefinitionRepository repository,
+            final ClassLoader classLoader) throws IOException {
+        final QueryDefinitionFileWatcher watcher =
+                new QueryDefinitionFileWatcher(repository, FileSystems.getDefault().newWatchService());
+        try {
+            for (final String resource : repository.getProcessedFiles()) {
+                final URL url = classLoader.getResource(resource);
+                watcher.register(resource, url == null ? fileUrl(resource) : url);
+            }
+        } catch (final IOException e) {
+            watcher.close();
+            throw e;
+        }
+        LOGGER.info("Watching {} directories for changes in query definition files", watcher.directories.size());
+        watcher.thread.start();
+        return watcher;
+    }
+
+    private void register(final String resource, final URL url) throws IOException {
+        if (url == null || !FILE_PROTOCOL.equals(url.getProtocol())) {
+            LOGGER.debug("The query definition file {} is not in a directory, it will not be reloaded", resource);
+            return;
+        }
+        final Path file;
+        try {
+            file = Paths.get(url.toURI());
+        } catch (final URISyntaxException e) {
+            LOGGER.warn("Unable to watch the query definition file {}", resource, e);
+            return;
+        }
+        final Path directory = file.getParent();
+        if (!directories.containsKey(directory)) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            // The resource name or the path without the file name, with its separator
+            final String fileName = file.getFileName().toString();
+            directories.put(directory, resource.substring(0, resource.length() - fileName.length()));
+        }
+    }
+
+    /*
+     * The URL of a file registered by its absolute path, null if the resource is not one
+     */
+    private static URL fileUrl(final String resource) {
+        try {
+            final Path file = Paths.get(resource);
+            return file.isAbsolute() && Files.isRegularFile(file) ? file.toUri().toURL() : null;
+        } catch (final InvalidPathException | MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                final Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collect(key, changed);
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                for (final Path file : changed) {
+                    reload(file);
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.debug("Query definition file watcher stopped");
+        }
+    }
+
+    private void collect(final WatchKey key, final Set<Path> changed) {
+        final Path directory = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path) {
+                final Path file = directory.resolve((Path) event.context());
+                if (QueryDefinitionIndexer.isDefinitionFile(file.getFileName().toString())) {
+                    changed.add(file);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private void reload(final Path file) {
+        final String resource = directories.get(file.getParent()) + file.getFileName();
+        try {
+            if (!Files.exists(file)) {
+                LOGGER.info("Removing the queries of the deleted file {}", resource);
+                repository.removeFile(resource);
+                return;
+            }
+            LOGGER.info("Reloading the query definition file {}", resource);
+            final long start = System.nanoTime();
+            final Properties queries = parse(file, resource);
+            repository.getMetrics().fileParsed(resource, Files.size(file), System.nanoTime() - start,
+                    queries.size());
+            repository.replaceFile(resource, queries);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.error("Error reloading the query definition file {}, the previous queries are kept", resource, e);
+        }
+    }
+
+    private static Properties parse(final Path file, final String resource) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            if (resource.endsWith(SQLD_YAML_SUFFIX)) {
+                return new YamlFileReader(stream, resource).read();
+            }
+            return new TextBlockReader(stream, resource).read();
+        }
+    }
+
+    /**
+     * Stops watching
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watchService.close();
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.loader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes and reads the index of query definition files of a classpath root (a jar or a classes directory).
+ *
+ * The index is the resource {@value #INDEX_RESOURCE}, a UTF-8 text file with the path of a .sqld or .ysqld resource
+ * per line. Blank lines and lines starting with <tt>#</tt> are ignored. When a jar has an index the loader reads it
+ * instead of scanning the jar. A classes directory with an index is listed under the prefix being loaded instead, as
+ * an IDE may have rebuilt it without writing the index again.
+ *
+ * The index is written at build time running this class on the classes directory, before it is packaged:
+ *
+ * <PRE>
+ * java es.indaba.sqld.impl.loader.QueryDefinitionIndexer target/classes
+ * </PRE>
+ */
+public final class QueryDefinitionIndexer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryDefinitionIndexer.class);
+
+    public static final String INDEX_RESOURCE = "META-INF/sqld/index";
+
+    private static final String SQLD_TEXT_SUFFIX = ".sqld";
+    private static final String SQLD_YAML_SUFFIX = ".ysqld";
+    private static final String COMMENT = "#";
+
+    /**
+     * @param args - the classes directories to index
+     * @throws IOException if a directory can not be read or the index can not be written
+     */
+    public static void main(final String[] args) throws IOException {
+        for (final String root : args) {
+            writeIndex(Paths.get(root));
+        }
+    }
+
+    /**
+     * Writes the index of the definition files under a classes directory
+     *
+     * @param root - the classes directory
+     * @return the indexed resources
+     * @throws IOException if the directory can not be read or the index can not be written
+     */
+    public static List<String> writeIndex(final Path root) throws IOException {
+        final List<String> resources = listDefinitionFiles(root, root);
+        final Path index = root.resolve(INDEX_RESOURCE);
+        Files.createDirectories(index.getParent());
+        final List<String> lines = new ArrayList<>(resources.size() + 1);
+        lines.add(COMMENT + " Query definition files, generated by " + QueryDefinitionIndexer.class.getName());
+        lines.addAll(resources);
+        Files.write(index, lines, StandardCharsets.UTF_8);
+        LOGGER.info("Indexed {} query definition files in {}", resources.size(), index);
+        return resources;
+    }
+
+    /**
+     * Reads an index
+     *
+     * @param index - the index content
+     * @return the resources listed in the index
+     * @throws IOException if the index can not be read
+     */
+    public static List<String> readIndex(final InputStream index) throws IOException {
+        final List<String> resources = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(index, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String resource = line.trim();
+            if (!resource.isEmpty() && !resource.startsWith(COMMENT)) {
+                resources.add(resource);
+            }
+        }
+        return resources;
+    }
+
+    /*
+     * The definition files under a directory of a classes directory, as resources of the classes directory, sorted
+     */
+    static List<String> listDefinitionFiles(final Path root, final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).map(file -> toResource(root, file))
+                    .filter(QueryDefinitionIndexer::isDefinitionFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    static boolean isDefinitionFile(final String resource) {
+        return resource.endsWith(SQLD_TEXT_SUFFIX) || resource.endsWith(SQLD_YAML_SUFFIX);
+    }
+
+    private static String toResource(final Path root, final Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    private QueryDefinitionIndexer() {
+        // Avoid instances of this Utility Class
+    }
+}
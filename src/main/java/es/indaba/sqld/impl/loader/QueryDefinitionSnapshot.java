@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.loader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.indaba.sqld.api.QueryNormalizer;
+
+/**
+ * Writes and reads a binary snapshot of parsed definition files, so a later start with the same files skips the
+ * parse.
+ *
+ * The snapshot is keyed by a fingerprint of the files it was built from: their names, sizes and CRC-32. The CRC of a
+ * file in a jar is read from the jar directory, so only the files in directories are read to fingerprint them. A
+ * snapshot whose fingerprint does not match, or that is truncated or corrupt, is ignored.
+ *
+ * The format is big endian: the magic number, the format version, the fingerprint and the number of files; then for
+ * each file its name and number of queries followed by the key and body of each query. Strings are written as the
+ * length of their UTF-8 encoding and the encoded bytes. The CRC-32 of all the previous bytes closes the file.
+ */
+final class QueryDefinitionSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryDefinitionSnapshot.class);
+
+    private static final int MAGIC = 0x53514c44;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 8192;
+    /*
+     * Magic number, format version, fingerprint and number of files
+     */
+    private static final int HEADER_BYTES = Integer.BYTES * 3 + Long.BYTES;
+
+    /**
+     * @param resources - the definition files, in load order
+     * @param classLoader - the class loader the files are read from
+     * @return the fingerprint of the files
+     * @throws IOException if a file can not be read
+     */
+    static long fingerprint(final List<String> resources, final ClassLoader classLoader) throws IOException {
+        final StringBuilder signature = new StringBuilder();
+        signature.append(FORMAT_VERSION);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final CRC32 crc = new CRC32();
+        for (final String resource : resources) {
+            final URL url = classLoader.getResource(resource);
+            if (url == null) {
+                throw new NoSuchFileException(resource);
+            }
+            signature.append('\n').append(resource);
+            final URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                final JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                if (entry.getSize() != -1 && entry.getCrc() != -1) {
+                    signature.append('\0').append(entry.getSize()).append('\0').append(entry.getCrc());
+                    continue;
+                }
+            }
+            crc.reset();
+            long size = 0;
+            try (InputStream stream = connection.getInputStream()) {
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+            signature.append('\0').append(size).append('\0').append(crc.getValue());
+        }
+        return QueryNormalizer.fingerprint(signature.toString());
+    }
+
+    /**
+     * Reads a snapshot mapping it in memory
+     *
+     * @param file - the snapshot file
+     * @param fingerprint - the fingerprint of the current files
+     * @return the queries of each file, or <code>null</code> if there is no snapshot of these files
+     */
+    static Map<String, Properties> read(final Path file, final long fingerprint) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES + Integer.BYTES || buffer.getInt() != MAGIC
+                    || buffer.getInt() != FORMAT_VERSION) {
+                LOGGER.warn("The file {} is not a query definitions snapshot", file);
+                return null;
+            }
+            if (buffer.getLong() != fingerprint) {
+                LOGGER.debug("The query definitions snapshot {} is outdated", file);
+                return null;
+            }
+            final int contentLength = buffer.limit() - Integer.BYTES;
+            final CRC32 crc = new CRC32();
+            crc.update((ByteBuffer) buffer.duplicate().position(0).limit(contentLength));
+            if ((int) crc.getValue() != buffer.getInt(contentLength)) {
+                LOGGER.warn("The query definitions snapshot {} is corrupt", file);
+                return null;
+            }
+            buffer.limit(contentLength);
+            final Map<String, Properties> filesQueries = new LinkedHashMap<>();
+            final int fileCount = buffer.getInt();
+            for (int i = 0; i < fileCount; i++) {
+                final String name = readString(buffer);
+                final int queryCount = buffer.getInt();
+                final Properties queries = new Properties();
+                for (int q = 0; q < queryCount; q++) {
+                    final String key = readString(buffer);
+                    queries.setProperty(key, readString(buffer));
+                }
+                filesQueries.put(name, queries);
+            }
+            return filesQueries;
+        } catch (final IOException | BufferUnderflowException | IllegalArgumentException e) {
+            LOGGER.warn("The query definitions snapshot {} can not be read", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot. It is written to a temporary file that then replaces the previous one, so a reader never sees
+     * a partial snapshot.
+     *
+     * @param file - the snapshot file
+     * @param fingerprint - the fingerprint of the files
+     * @param filesQueries - the queries of each file
+     * @throws IOException if the snapshot can not be written
+     */
+    static void write(final Path file, final long fingerprint, final Map<String, Properties> filesQueries)
+            throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            final CRC32 crc = new CRC32();
+            try (OutputStream stream = Files.newOutputStream(temporary)) {
+                final DataOutputStream output =
+                        new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(stream), crc));
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeLong(fingerprint);
+                output.writeInt(filesQueries.size());
+                for (final Entry<String, Properties> fileQueries : filesQueries.entrySet()) {
+                    writeString(output, fileQueries.getKey());
+                    final Properties queries = fileQueries.getValue();
+                    output.writeInt(queries.size());
+                    for (final String key : queries.stringPropertyNames()) {
+                        writeString(output, key);
+                        writeString(output, queries.getProperty(key));
+                    }
+                }
+                output.flush();
+                // Not part of the checksum
+                new DataOutputStream(stream).writeInt((int) crc.getValue());
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeString(final DataOutputStream output, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final ByteBuffer bytes = (ByteBuffer) buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    private QueryDefinitionSnapshot() {
+        // Avoid instantiation of a Utility
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.parser;
+
+/**
+ * The syntax of the <tt>${KEY}</tt> includes of a query body: the key is a scoped identifier, as the block names.
+ * Any other text between <tt>${</tt> and <tt>}</tt> is not an include and is left as it is written.
+ */
+public final class IncludeReferences {
+
+    public static final String START = "${";
+    public static final char END = '}';
+    private static final char SCOPE_SEPARATOR = '.';
+
+    private IncludeReferences() {
+        // Avoid instances of this Utility Class
+    }
+
+    /**
+     * @param query - a query text
+     * @param start - the position of a <tt>${</tt> in the query
+     * @return the position of the closing brace of the include that starts at <code>start</code>, or -1 if the text
+     *         there is not an include
+     */
+    public static int referenceEnd(final String query, final int start) {
+        boolean partStart = true;
+        boolean scoped = false;
+        for (int i = start + START.length(); i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (c == END) {
+                return partStart ? -1 : i;
+            } else if (c == SCOPE_SEPARATOR && !partStart && !scoped) {
+                scoped = true;
+                partStart = true;
+            } else if (isLetter(c) || !partStart && c >= '0' && c <= '9') {
+                partStart = false;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param query - a query text
+     * @return the key of the first include of the query as it is written, or <code>null</code> if it has none
+     */
+    public static String firstReference(final String query) {
+        int start = query.indexOf(START);
+        while (start != -1) {
+            final int end = referenceEnd(query, start);
+            if (end != -1) {
+                return query.substring(start + START.length(), end);
+            }
+            start = query.indexOf(START, start + START.length());
+        }
+        return null;
+    }
+
+    private static boolean isLetter(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
+    }
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The queries read from a definition file, with the lines of the file their bodies were read from. The repository
+ * uses them to report the errors found once the file is read, like a cycle of includes, at their line of the file.
+ *
+ * <P> The lines of a body are kept as the line of the file of each line of the body. The array can be shorter than the
+ * body: the lines beyond it follow the last one consecutively, so the body of a yaml block scalar is a single line.
+ */
+public final class ParsedQueries extends Properties {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, int[]> lines = new HashMap<>();
+
+    /**
+     * @param key - a query key, in lower case
+     * @return the lines of the file of the body of the query, or <code>null</code> if they are not known
+     */
+    public int[] getLines(final String key) {
+        final int[] bodyLines = lines.get(key);
+        return bodyLines == null ? null : bodyLines.clone();
+    }
+
+    /**
+     * @param lines - the lines of a body, as returned by {@link #getLines(String)}
+     * @param bodyLine - a line of the body, from 1
+     * @return the line of the file
+     */
+    public static int fileLine(final int[] lines, final int bodyLine) {
+        if (bodyLine <= lines.length) {
+            return lines[bodyLine - 1];
+        }
+        return lines[lines.length - 1] + bodyLine - lines.length;
+    }
+
+    void setLines(final String key, final int[] bodyLines) {
+        lines.put(key, bodyLines);
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.parser;
+
+/**
+ * The SQL tokens the query scanners have to recognize: string literals and quoted identifiers, with their quote
+ * doubled to escape it, line and block comments, <tt>::</tt> casts and <tt>:name</tt> parameters. Every method takes
+ * the position where the token starts and returns the position after it, so the scanners keep their own loop.
+ */
+public final class QueryLexer {
+
+    private QueryLexer() {
+        // Avoid instances of this Utility Class
+    }
+
+    /**
+     * @param query - a query
+     * @param start - a position of the query
+     * @return the end of the literal, quoted identifier, comment or <tt>::</tt> cast that starts at <code>start</code>,
+     *         or <code>start</code> if none starts there. Parameters are not recognized inside them.
+     */
+    public static int skip(final String query, final int start) {
+        final char c = query.charAt(start);
+        final boolean hasNext = start + 1 < query.length();
+        if (c == '\'' || c == '"') {
+            return skipQuoted(query, start, c);
+        } else if (c == '-' && hasNext && query.charAt(start + 1) == '-') {
+            return skipLineComment(query, start);
+        } else if (c == '/' && hasNext && query.charAt(start + 1) == '*') {
+            return skipBlockComment(query, start);
+        } else if (c == ':' && hasNext && query.charAt(start + 1) == ':') {
+            return start + 2;
+        }
+        return start;
+    }
+
+    /**
+     * @param query - a query
+     * @param start - a position of the query not skipped by {@link #skip(String, int)}
+     * @return the end of the <tt>:name</tt> parameter that starts at <code>start</code>, or -1 if none starts there
+     */
+    public static int parameterEnd(final String query, final int start) {
+        final int length = query.length();
+        if (query.charAt(start) != ':' || start + 1 == length
+                || !Character.isJavaIdentifierStart(query.charAt(start + 1))) {
+            return -1;
+        }
+        int end = start + 2;
+        while (end < length && Character.isJavaIdentifierPart(query.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @param query - a query
+     * @param start - the position of the opening quote
+     * @param quote - the quote character
+     * @return the position after the closing quote, or the length of the query if it is not closed
+     */
+    public static int skipQuoted(final String query, final int start, final char quote) {
+        int i = start + 1;
+        while (i < query.length()) {
+            if (query.charAt(i) == quote) {
+                if (i + 1 < query.length() && query.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param query - a query
+     * @param start - the position of the <tt>--</tt>
+     * @return the position of the line break that ends the comment, or the length of the query
+     */
+    public static int skipLineComment(final String query, final int start) {
+        final int end = query.indexOf('\n', start);
+        return end == -1 ? query.length() : end;
+    }
+
+    /**
+     * @param query - a query
+     * @param start - the position of the <tt>/*</tt>
+     * @return the position after the <tt>*&#47;</tt> that ends the comment, or the length of the query
+     */
+    public static int skipBlockComment(final String query, final int start) {
+        final int end = query.indexOf("*/", start + 2);
+        return end == -1 ? query.length() : end + 2;
+    }
+}
@@ -22,18 +22,29 @@ package es.indaba.sqld.impl.parser;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
-import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+/**
+ * Reader of <tt>TextBlock</tt> (.sqld) files.
+ * 
+ * <P> The file is decoded once into a char buffer and scanned in a single pass, without regular expressions and
+ * without copying lines: only the block names and bodies are materialized as strings. Lines can end with
+ * <tt>\n</tt>, <tt>\r\n</tt> or <tt>\r</tt>; the lines of a body are always joined with <tt>\n</tt>, so the
+ * result is the same on every platform. The queries are returned in a {@link ParsedQueries}, with the line of the file
+ * of each line of their bodies.
+ */
 public final class TextBlockReader {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TextBlockReader.class);
@@ -43,54 +54,189 @@ public final class TextBlockReader {
      * 
      * <P> Either two {@link #SIMPLE_IDENTIFIER}s separated by a period, or a single {@link #SIMPLE_IDENTIFIER}. The
      * item before the period represents an <em>optional</em> scoping qualifier. (This style is used by SQL statement
-     * identifiers, where the scoping qualifier represents the target database.)
+     * identifiers, where the scoping qualifier represents the target database.) Only used in error messages, names
+     * are checked by {@link #isScopedIdentifier(char[], int, int)}.
      */
     private static final String SIMPLE_SCOPED_IDENTIFIER = "(?:[a-zA-Z_]+[a-zA-Z_0-9]*\\.)?(?:[a-zA-Z_]+[a-zA-Z_0-9]*)";
 
+    private static final char NEW_LINE = '\n';
+
+    private static final char CARRIAGE_RETURN = '\r';
 
-    private static final String NEW_LINE = System.getProperty("line.separator");
+    private static final char COMMENT = '-';
 
-    private static final String COMMENT = "--";
+    private static final char END_BLOCK = '}';
 
-    private static final String END_BLOCK = "}";
+    private static final char START_BLOCK = '{';
 
-    private static final String START_BLOCK = "{";
-    private static final Pattern KEY_NAME_PATTERN = Pattern.compile(SIMPLE_SCOPED_IDENTIFIER);
+    private static final char SCOPE_SEPARATOR = '.';
+
+    private static final int READ_BUFFER_SIZE = 8192;
 
 
     // PRIVATE //
-    private final LineNumberReader fReader;
+    private final InputStream fInput;
+    private final ByteBuffer fBytes;
+    private final Charset fCharset;
 
     private final String fConfigFileName;
-    private StringBuilder fBlockBody;
+
     /*
-     * These two distinguish between regular blocks and 'constants' blocks. sql statements, and those for constants.
+     * Scanning state
      */
-    private boolean fIsReadingBlockBody;
+    private char[] fChars;
+    private int fLineNumber;
 
     /**
-     * For regular Blocks, refers to the Block Name. For constants, refers not to the name of the containing block
-     * (which is always the same), but to the identifier for the constant itself; this is line-level, not block-level.
+     * @param aInput has an underlying <tt>TextBlock</tt> file as source, encoded in UTF-8
+     * @param aConfigFileName the underlying source file name
      */
-    private String fKey;
+    public TextBlockReader(final InputStream aInput, final String aConfigFileName) {
+        this(aInput, aConfigFileName, StandardCharsets.UTF_8);
+    }
 
     /**
      * @param aInput has an underlying <tt>TextBlock</tt> file as source
      * @param aConfigFileName the underlying source file name
+     * @param aCharset the encoding of the file
      */
-    public TextBlockReader(final InputStream aInput, final String aConfigFileName) {
-        fReader = new LineNumberReader(new InputStreamReader(aInput));
+    public TextBlockReader(final InputStream aInput, final String aConfigFileName, final Charset aCharset) {
+        fInput = aInput;
+        fBytes = null;
+        fConfigFileName = aConfigFileName;
+        fCharset = aCharset;
+    }
+
+    /**
+     * @param aContent the content of a <tt>TextBlock</tt> file, from its position to its limit
+     * @param aConfigFileName the underlying source file name
+     * @param aCharset the encoding of the file
+     */
+    public TextBlockReader(final ByteBuffer aContent, final String aConfigFileName, final Charset aCharset) {
+        fInput = null;
+        fBytes = aContent;
         fConfigFileName = aConfigFileName;
+        fCharset = aCharset;
+    }
+
+    /*
+     * Parse the underlying <tt>TEXT_BLOCK</tt> file into a {@link Properties} object, which uses key-value pairs of
+     * <tt>String</tt>s.
+     * 
+     * <P> Using this example entry in a <tt>*.sql</tt> file :
+     * 
+     * <PRE> FETCH_NUM_MSGS_FOR_USER { SELECT COUNT(Id) FROM MyMessage WHERE LoginName=? } </PRE>
+     * 
+     * the key is <P> <tt>FETCH_NUM_MSGS_FOR_USER</tt> <P> while the value is <P> <tt>SELECT COUNT(Id) FROM MyMessage
+     * WHERE LoginName=?</tt>.
+     */
+    public Properties read() throws IOException {
+        LOGGER.debug("Reading text block file : '{}'", fConfigFileName);
+        final ParsedQueries result = new ParsedQueries();
+        readBlocks(result, true);
+        return result;
+    }
+
+    /**
+     * Reads only the block names, validating them as {@link #read()} does but without building the block bodies.
+     * 
+     * @return the block names, in lower case
+     * @throws IOException if the file can not be read
+     */
+    public Set<String> readKeys() throws IOException {
+        LOGGER.debug("Reading text block file keys : '{}'", fConfigFileName);
+        final Map<String, String> result = new LinkedHashMap<>();
+        readBlocks(result, false);
+        return result.keySet();
+    }
+
+    private void readBlocks(final Map<? super String, ? super String> aResult, final boolean aReadBodies)
+            throws IOException {
+        final CharBuffer content = decode();
+        fChars = content.array();
+        final int end = content.arrayOffset() + content.limit();
+        fLineNumber = 0;
+
+        String key = null;
+        /*
+         * Body lines are appended to a single builder, reused for every block
+         */
+        final StringBuilder body = aReadBodies ? new StringBuilder() : null;
+        /*
+         * The lines of the file of the body lines, from its first line not blank, as the body is trimmed
+         */
+        final ParsedQueries parsed = aResult instanceof ParsedQueries ? (ParsedQueries) aResult : null;
+        int[] bodyLines = new int[16];
+        int bodyLineCount = 0;
+        int lineStart = content.arrayOffset() + content.position();
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && fChars[lineEnd] != NEW_LINE && fChars[lineEnd] != CARRIAGE_RETURN) {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd < end && fChars[lineEnd] == CARRIAGE_RETURN && next < end && fChars[next] == NEW_LINE) {
+                next++;
+            }
+            fLineNumber++;
+
+            final int first = firstNonSpace(lineStart, lineEnd);
+            final int last = lastNonSpace(first, lineEnd);
+            if (isComment(first, last)) {
+                // Ignorable, inside and outside blocks
+            } else if (key == null) {
+                if (!isBlank(lineStart, lineEnd)) {
+                    key = getBlockName(lineStart, lineEnd);
+                }
+            } else if (last - first == 1 && fChars[first] == END_BLOCK) {
+                addToResult(key, body == null ? "" : trimmed(body), aResult);
+                if (parsed != null && bodyLineCount > 0) {
+                    parsed.setLines(key.toLowerCase(), Arrays.copyOf(bodyLines, bodyLineCount));
+                }
+                key = null;
+                bodyLineCount = 0;
+                if (body != null) {
+                    body.setLength(0);
+                }
+            } else if (body != null) {
+                // no empty lines within blocks allowed, they are kept
+                body.append(fChars, lineStart, lineEnd - lineStart).append(NEW_LINE);
+                if (bodyLineCount > 0 || first < last) {
+                    if (bodyLineCount == bodyLines.length) {
+                        bodyLines = Arrays.copyOf(bodyLines, bodyLineCount * 2);
+                    }
+                    bodyLines[bodyLineCount++] = fLineNumber;
+                }
+            }
+            lineStart = next;
+        }
+        fChars = null;
     }
 
+    private CharBuffer decode() throws IOException {
+        final ByteBuffer bytes = fBytes == null ? readAll(fInput) : fBytes.duplicate();
+        final CharBuffer chars = fCharset.decode(bytes);
+        if (chars.hasArray()) {
+            return chars;
+        }
+        return CharBuffer.wrap(chars.toString().toCharArray());
+    }
 
-    private void addToBlockBody(final String aLine) {
-        fBlockBody.append(aLine);
-        fBlockBody.append(NEW_LINE);
+    private static ByteBuffer readAll(final InputStream aInput) throws IOException {
+        byte[] buffer = new byte[Math.max(READ_BUFFER_SIZE, aInput.available())];
+        int length = 0;
+        int read;
+        while ((read = aInput.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return ByteBuffer.wrap(buffer, 0, length);
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private void addToResult(final String aKey, final String aValue, final Map aResult) {
+    private void addToResult(final String aKey, final String aValue,
+            final Map<? super String, ? super String> aResult) {
         if (aResult.containsKey(aKey.toLowerCase())) {
             LOGGER.error("DUPLICATE Value found for this Block Name '{}' in {}", aKey, fConfigFileName);
             throw new IllegalArgumentException("DUPLICATE Value found for this Block Name '" + aKey + "'");
@@ -98,116 +244,101 @@ public final class TextBlockReader {
         aResult.put(aKey.toLowerCase(), aValue);
     }
 
-    private void endBlock(final Properties aResult) {
-        addToResult(fKey, fBlockBody.toString().trim(), aResult);
-        fIsReadingBlockBody = false;
-    }
-
-    private String getBlockName(final String aLine) {
-        final int indexOfBrace = aLine.indexOf(START_BLOCK);
-        if (indexOfBrace == -1) {
+    private String getBlockName(final int aLineStart, final int aLineEnd) {
+        int indexOfBrace = aLineStart;
+        while (indexOfBrace < aLineEnd && fChars[indexOfBrace] != START_BLOCK) {
+            indexOfBrace++;
+        }
+        if (indexOfBrace == aLineEnd) {
+            final String line = new String(fChars, aLineStart, aLineEnd - aLineStart);
             LOGGER.error(
                     "Error parsing file: {} Expecting to find line defining a block, containing a trailing '{}'.Found this: '{}'",
-                    reportLineNumber(), START_BLOCK, aLine);
+                    reportLineNumber(), START_BLOCK, line);
             throw new IllegalArgumentException(
                     reportLineNumber() + "Expecting to find line defining a block, containing a trailing '"
-                            + START_BLOCK + "'. Found this line instead : '" + aLine + "'");
+                            + START_BLOCK + "'. Found this line instead : '" + line + "'");
+        }
+        final int first = firstNonSpace(aLineStart, indexOfBrace);
+        final int last = lastNonSpace(first, indexOfBrace);
+        if (!isScopedIdentifier(fChars, first, last)) {
+            final String message = reportLineNumber() + "The name '" + new String(fChars, first, last - first)
+                    + "' is not in the expected syntax. " + "It does not match the regular expression "
+                    + SIMPLE_SCOPED_IDENTIFIER;
+            LOGGER.error(message);
+            throw new IllegalArgumentException(message);
         }
-        final String candidateKey = aLine.substring(0, indexOfBrace).trim();
-        return verifiedKeyName(candidateKey);
+        return new String(fChars, first, last - first);
     }
 
+    private boolean isComment(final int aFirst, final int aLast) {
+        return aLast - aFirst >= 2 && fChars[aFirst] == COMMENT && fChars[aFirst + 1] == COMMENT;
+    }
 
-
-    private boolean isComment(final String aLine) {
-        return aLine.trim().startsWith(COMMENT);
+    private boolean isBlank(final int aStart, final int aEnd) {
+        for (int i = aStart; i < aEnd; i++) {
+            if (!Character.isWhitespace(fChars[i])) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private boolean isEndOfBlock(final String aLine) {
-        return END_BLOCK.equals(aLine.trim());
+    /*
+     * Bounds as in String.trim(): characters up to ' ' are spaces
+     */
+    private int firstNonSpace(final int aStart, final int aEnd) {
+        int first = aStart;
+        while (first < aEnd && fChars[first] <= ' ') {
+            first++;
+        }
+        return first;
     }
 
-    private boolean isIgnorable(final String aLine) {
-        boolean result;
-        if (isInBlock()) {
-            // no empty lines within blocks allowed
-            result = isComment(aLine);
-        } else {
-            result = StringUtils.isBlank(aLine) || isComment(aLine);
+    private int lastNonSpace(final int aFirst, final int aEnd) {
+        int last = aEnd;
+        while (last > aFirst && fChars[last - 1] <= ' ') {
+            last--;
         }
-        return result;
+        return last;
     }
 
-    private boolean isInBlock() {
-        return fIsReadingBlockBody;
+    private static String trimmed(final StringBuilder aBody) {
+        int first = 0;
+        int last = aBody.length();
+        while (first < last && aBody.charAt(first) <= ' ') {
+            first++;
+        }
+        while (last > first && aBody.charAt(last - 1) <= ' ') {
+            last--;
+        }
+        return aBody.substring(first, last);
     }
 
     /*
-     * Parse the underlying <tt>TEXT_BLOCK</tt> file into a {@link Properties} object, which uses key-value pairs of
-     * <tt>String</tt>s.
-     * 
-     * <P> Using this example entry in a <tt>*.sql</tt> file :
-     * 
-     * <PRE> FETCH_NUM_MSGS_FOR_USER { SELECT COUNT(Id) FROM MyMessage WHERE LoginName=? } </PRE>
-     * 
-     * the key is <P> <tt>FETCH_NUM_MSGS_FOR_USER</tt> <P> while the value is <P> <tt>SELECT COUNT(Id) FROM MyMessage
-     * WHERE LoginName=?</tt>.
+     * Checks the name against {@link #SIMPLE_SCOPED_IDENTIFIER}
      */
-    public Properties read() throws IOException {
-        LOGGER.debug("Reading text block file : '{}'", fConfigFileName);
-        final Properties result = new Properties();
-        String line = null;
-        while ((line = fReader.readLine()) != null) {
-            if (isIgnorable(line)) {
-                continue;
-            }
-            if (!isInBlock()) {
-                startBlock(line);
+    private static boolean isScopedIdentifier(final char[] aChars, final int aStart, final int aEnd) {
+        boolean partStart = true;
+        boolean scoped = false;
+        for (int i = aStart; i < aEnd; i++) {
+            final char c = aChars[i];
+            if (c == SCOPE_SEPARATOR && !partStart && !scoped) {
+                scoped = true;
+                partStart = true;
+            } else if (isLetter(c) || !partStart && c >= '0' && c <= '9') {
+                partStart = false;
             } else {
-                if (!isEndOfBlock(line)) {
-                    addToBlockBody(line);
-                } else {
-                    endBlock(result);
-                }
+                return false;
             }
         }
-        return result;
-    }
-
-    private String reportLineNumber() {
-        return "[" + fConfigFileName + ":" + Integer.toString(fReader.getLineNumber()) + "] ";
-    }
-
-
-    private void startBlock(final String aLine) {
-        fKey = getBlockName(aLine);
-        fBlockBody = new StringBuilder();
-        fIsReadingBlockBody = true;
+        return !partStart;
     }
 
-    private String verifiedKeyName(final String aCandidateKey) {
-        if (matches(KEY_NAME_PATTERN, aCandidateKey)) {
-            return aCandidateKey;
-        }
-        final String message = reportLineNumber() + "The name '" + aCandidateKey + "' is not in the expected syntax. "
-                + "It does not match the regular expression " + KEY_NAME_PATTERN.pattern();
-        LOGGER.error(message);
-        throw new IllegalArgumentException(message);
+    private static boolean isLetter(final char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_';
     }
 
-    /*
-     * Return true only if <tt>aText</tt> is non-null, and matches <tt>aPattern</tt>.
-     * 
-     * <P> Differs from {@link Pattern#matches} and {@link String#matches}, since the regex argument is a compiled
-     * {@link Pattern}, not a <tt>String</tt>.
-     */
-    private static boolean matches(final Pattern aPattern, final String aText) {
-        assert (aText != null);
-        /*
-         * Implementation Note: Patterns are thread-safe, while Matchers are not. Thus, a Pattern may be compiled by a
-         * class once upon startup, then reused safely in a multi-threaded environment.
-         */
-        final Matcher matcher = aPattern.matcher(aText);
-        return matcher.matches();
+    private String reportLineNumber() {
+        return "[" + fConfigFileName + ":" + Integer.toString(fLineNumber) + "] ";
     }
 }
@@ -1,22 +1,53 @@
 package es.indaba.sqld.impl.parser;
 
+import java.io.CharArrayReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.LoaderOptions;
-import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.DuplicateKeyException;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.parser.Parser;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
+import org.yaml.snakeyaml.reader.UnicodeReader;
 
+/**
+ * Reader of YAML (.ysqld) files, a single mapping from the query keys to their bodies.
+ *
+ * <P> The file is read from the parser events, going straight to the key and body pairs without building the
+ * document. The values have to be scalars, or aliases of scalars; any other value, like a nested mapping, is rejected
+ * with its line. The parser options are shared by every file. The file is decoded as UTF-8 unless it starts with a
+ * UTF-16 byte order mark. The queries are returned in a {@link ParsedQueries}, with the line where each body starts.
+ */
 public class YamlFileReader {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(YamlFileReader.class);
 
-    private final LineNumberReader fReader;
+    /*
+     * Only read by the parsers
+     */
+    private static final LoaderOptions OPTIONS = new LoaderOptions();
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final Reader fReader;
 
     private final String fConfigFileName;
 
@@ -25,41 +56,155 @@ public class YamlFileReader {
      * @param aConfigFileName the underlying source file name
      */
     public YamlFileReader(final InputStream aInput, final String aConfigFileName) {
-        fReader = new LineNumberReader(new InputStreamReader(aInput));
+        fReader = new UnicodeReader(aInput);
         fConfigFileName = aConfigFileName;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * @param aContent the content of a YAML file encoded in UTF-8, from its position to its limit
+     * @param aConfigFileName the underlying source file name
+     */
+    public YamlFileReader(final ByteBuffer aContent, final String aConfigFileName) {
+        final CharBuffer chars = StandardCharsets.UTF_8.decode(aContent.duplicate());
+        int offset = chars.arrayOffset() + chars.position();
+        int length = chars.remaining();
+        if (length > 0 && chars.get(chars.position()) == BYTE_ORDER_MARK) {
+            offset++;
+            length--;
+        }
+        fReader = new CharArrayReader(chars.array(), offset, length);
+        fConfigFileName = aConfigFileName;
+    }
+
+    /**
+     * Reads the queries of the file.
+     *
+     * @return the queries, with their keys in lower case
+     * @throws DuplicateKeyException if a key is repeated, with the file and the line in its message
+     * @throws IllegalArgumentException if a key is repeated with other case, or the file is not a mapping of scalars
+     */
     public Properties read() {
-        final Properties properties = new Properties();
-        final LoaderOptions options = new LoaderOptions();
-        options.setAllowDuplicateKeys(false);
-        final Yaml yaml = new Yaml(options);
-        try {
-            final Map<String, String> result = (Map<String, String>) yaml.load(fReader);
-            if (result == null) {
-                return properties;
+        final ParsedQueries properties = new ParsedQueries();
+        readEntries(properties, true);
+        return properties;
+    }
+
+    /**
+     * Reads only the top level keys, validating them as {@link #read()} does.
+     *
+     * @return the keys, in lower case
+     */
+    public Set<String> readKeys() {
+        final Map<String, String> keys = new LinkedHashMap<>();
+        readEntries(keys, false);
+        return keys.keySet();
+    }
+
+    private void readEntries(final Map<? super String, ? super String> aResult, final boolean aReadBodies) {
+        final Parser parser = new ParserImpl(new StreamReader(fReader), OPTIONS);
+        // Stream start
+        parser.getEvent();
+        if (parser.checkEvent(Event.ID.StreamEnd)) {
+            return;
+        }
+        // Document start
+        parser.getEvent();
+        final Event root = parser.getEvent();
+        if (root instanceof ScalarEvent && ((ScalarEvent) root).getValue().isEmpty()) {
+            // A document without content
+            return;
+        }
+        if (!(root instanceof MappingStartEvent)) {
+            throw invalid(root, "The file is not a mapping of keys to queries");
+        }
+        /*
+         * The keys as written by their lower case, to tell duplicated keys from keys differing in case
+         */
+        final Map<String, String> writtenKeys = new HashMap<>();
+        final Map<String, String> anchors = new HashMap<>();
+        Event event;
+        while (!((event = parser.getEvent()) instanceof MappingEndEvent)) {
+            if (!(event instanceof ScalarEvent)) {
+                throw invalid(event, "The keys have to be scalars");
             }
-            
-            for (final Entry<String, String> entry : result.entrySet()) {
-                String key = entry.getKey();
-                if (properties.containsKey(key.toLowerCase())) {
-                    LOGGER.error("DUPLICATE Value found - 'Duplicate key {}' in {}", key, fConfigFileName);
-                    throw new IllegalArgumentException("DUPLICATE Value found for this key '" + key + "'");
-                }
-                properties.setProperty(key.toLowerCase(), entry.getValue());
+            final String key = ((ScalarEvent) event).getValue();
+            final String lowerCaseKey = key.toLowerCase();
+            final String writtenKey = writtenKeys.put(lowerCaseKey, key);
+            if (key.equals(writtenKey)) {
+                final SqldDuplicateKeyException duplicated =
+                        new SqldDuplicateKeyException(event.getStartMark(), key, fConfigFileName);
+                LOGGER.error(duplicated.getMessage());
+                throw duplicated;
+            } else if (writtenKey != null) {
+                throw invalid(event, "DUPLICATE Value found for this key '" + key + "'");
             }
-        } catch (IllegalStateException e) {
-            String message = e.getMessage();
-            if (message.startsWith("duplicate")) {
-                LOGGER.error("DUPLICATE Value found - '{}' in {}", message, fConfigFileName);
-                throw new IllegalArgumentException(e.getMessage(), e);
-            } else {
-                throw e;
+            final Event valueEvent = parser.getEvent();
+            final String value = value(valueEvent, key, anchors);
+            aResult.put(lowerCaseKey, aReadBodies ? value : "");
+            if (aResult instanceof ParsedQueries && valueEvent instanceof ScalarEvent) {
+                ((ParsedQueries) aResult).setLines(lowerCaseKey, new int[] {bodyLine((ScalarEvent) valueEvent)});
             }
         }
+        // Document end
+        parser.getEvent();
+        if (!parser.checkEvent(Event.ID.StreamEnd)) {
+            throw invalid(parser.peekEvent(), "The file has more than one document");
+        }
+    }
 
-        return properties;
+    private String value(final Event aEvent, final String aKey, final Map<String, String> aAnchors) {
+        if (aEvent instanceof ScalarEvent) {
+            final ScalarEvent scalar = (ScalarEvent) aEvent;
+            if (scalar.getAnchor() != null) {
+                aAnchors.put(scalar.getAnchor(), scalar.getValue());
+            }
+            return scalar.getValue();
+        }
+        if (aEvent instanceof AliasEvent) {
+            final String value = aAnchors.get(((AliasEvent) aEvent).getAnchor());
+            if (value != null) {
+                return value;
+            }
+        }
+        throw invalid(aEvent, "The value of the key '" + aKey + "' is not a scalar");
     }
 
+    /*
+     * The line where the body starts. The mark of a block scalar is its indicator, the line before its content
+     */
+    private static int bodyLine(final ScalarEvent aScalar) {
+        final int line = aScalar.getStartMark().getLine() + 1;
+        final DumperOptions.ScalarStyle style = aScalar.getScalarStyle();
+        return style == DumperOptions.ScalarStyle.LITERAL || style == DumperOptions.ScalarStyle.FOLDED ? line + 1
+                : line;
+    }
+
+    private IllegalArgumentException invalid(final Event aEvent, final String aMessage) {
+        final String message = "[" + fConfigFileName + ":" + (aEvent.getStartMark().getLine() + 1) + "] " + aMessage;
+        LOGGER.error(message);
+        return new IllegalArgumentException(message);
+    }
+
+    /**
+     * A key repeated as written. It is a {@link DuplicateKeyException}, the exception SnakeYAML threw when the files
+     * were loaded as documents, so the callers catching it keep working; its message reports the file and the line as
+     * the {@link IllegalArgumentException}s of this reader do.
+     */
+    private static final class SqldDuplicateKeyException extends DuplicateKeyException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String message;
+
+        private SqldDuplicateKeyException(final Mark aKeyMark, final String aKey, final String aConfigFileName) {
+            super(aKeyMark, aKey, aKeyMark);
+            message = "[" + aConfigFileName + ":" + (aKeyMark.getLine() + 1) + "] DUPLICATE Value found for this key '"
+                    + aKey + "'";
+        }
+
+        @Override
+        public String getMessage() {
+            return message;
+        }
+    }
 }
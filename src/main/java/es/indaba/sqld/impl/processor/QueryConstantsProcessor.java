@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager.Location;
+import javax.tools.StandardLocation;
+
+import es.indaba.sqld.api.QueryConstants;
+import es.indaba.sqld.impl.parser.IncludeReferences;
+import es.indaba.sqld.impl.parser.TextBlockReader;
+import es.indaba.sqld.impl.parser.YamlFileReader;
+
+/**
+ * Annotation processor for {@link QueryConstants}. Parses the listed definition files with the runtime parsers and
+ * writes a class of query constants, so the queries are resolved by the compiler instead of being scanned, parsed and
+ * looked up at runtime. The constants are the queries as they are written: a query with <tt>${KEY}</tt> includes is
+ * rejected, as they are only expanded by the repository.
+ */
+@SupportedAnnotationTypes("es.indaba.sqld.api.QueryConstants")
+public class QueryConstantsProcessor extends AbstractProcessor {
+
+    private static final String SQLD_YAML_EXTENSION = ".ysqld";
+    private static final String GENERATED_SUFFIX = "Queries";
+
+    /*
+     * The class file format limits a constant string to 65535 bytes of modified UTF-8. Longer queries are emitted as
+     * a concatenation evaluated on class initialization.
+     */
+    private static final int MAX_CONSTANT_LENGTH = 65535;
+    private static final int CHUNK_LENGTH = 8192;
+
+    /*
+     * Resources are looked up in the output directory first, where the build tools copy them before compiling, then
+     * in the source and class paths.
+     */
+    private static final Location[] RESOURCE_LOCATIONS =
+            {StandardLocation.CLASS_OUTPUT, StandardLocation.SOURCE_PATH, StandardLocation.CLASS_PATH};
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        for (final Element element : roundEnv.getElementsAnnotatedWith(QueryConstants.class)) {
+            processElement((TypeElement) element);
+        }
+        return true;
+    }
+
+    private void processElement(final TypeElement element) {
+        final QueryConstants annotation = element.getAnnotation(QueryConstants.class);
+        final Map<String, String> queries = new TreeMap<>();
+        final Map<String, String> queriesFile = new TreeMap<>();
+        for (final String file : annotation.value()) {
+            final Properties fileQueries = parse(file, element);
+            if (fileQueries == null) {
+                return;
+            }
+            for (final String key : fileQueries.stringPropertyNames()) {
+                if (queries.containsKey(key)) {
+                    error(element, "The query '" + key + "' is duplicated in files " + file + " and "
+                            + queriesFile.get(key));
+                    return;
+                }
+                final String reference = IncludeReferences.firstReference(fileQueries.getProperty(key));
+                if (reference != null) {
+                    error(element, "The query '" + key + "' of " + file + " includes '" + reference
+                            + "', includes are only expanded by the repository");
+                    return;
+                }
+                queries.put(key, fileQueries.getProperty(key));
+                queriesFile.put(key, file);
+            }
+        }
+
+        final Map<String, String> constantsKey = new TreeMap<>();
+        for (final String key : queries.keySet()) {
+            final String constant = constantName(key);
+            if (!SourceVersion.isIdentifier(constant)) {
+                error(element, "The query key '" + key + "' can not be used as a constant name");
+                return;
+            }
+            if (constantsKey.containsKey(constant)) {
+                error(element, "The queries '" + key + "' and '" + constantsKey.get(constant)
+                        + "' map to the same constant name " + constant);
+                return;
+            }
+            constantsKey.put(constant, key);
+        }
+
+        final String packageName = packageName(element);
+        final String className = annotation.className().isEmpty()
+                ? element.getSimpleName() + GENERATED_SUFFIX : annotation.className();
+        try {
+            write(element, packageName, className, constantsKey, queries, queriesFile);
+        } catch (final IOException e) {
+            error(element, "Unable to write " + className + ": " + e.getMessage());
+        }
+    }
+
+    private Properties parse(final String file, final Element element) {
+        final FileObject resource = findResource(file);
+        if (resource == null) {
+            error(element, "The query definition file " + file + " has not been found");
+            return null;
+        }
+        try (InputStream stream = resource.openInputStream()) {
+            if (file.endsWith(SQLD_YAML_EXTENSION)) {
+                return new YamlFileReader(stream, file).read();
+            }
+            return new TextBlockReader(stream, file).read();
+        } catch (final IOException | RuntimeException e) {
+            error(element, "Error parsing " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private FileObject findResource(final String file) {
+        final int lastSlash = file.lastIndexOf('/');
+        final String pkg = lastSlash == -1 ? "" : file.substring(0, lastSlash).replace('/', '.');
+        final String name = file.substring(lastSlash + 1);
+        for (final Location location : RESOURCE_LOCATIONS) {
+            try {
+                final FileObject resource = processingEnv.getFiler().getResource(location, pkg, name);
+                // Check it exists, the Filer returns handles to missing files
+                resource.openInputStream().close();
+                return resource;
+            } catch (final IOException | IllegalArgumentException e) {
+                // Not found in this location
+            }
+        }
+        return null;
+    }
+
+    private void write(final TypeElement element, final String packageName, final String className,
+            final Map<String, String> constantsKey, final Map<String, String> queries,
+            final Map<String, String> queriesFile) throws IOException {
+        final String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, element).openWriter()) {
+            final StringBuilder source = new StringBuilder();
+            if (!packageName.isEmpty()) {
+                source.append("package ").append(packageName).append(";\n\n");
+            }
+            source.append("/**\n * Query constants generated from the definition files declared in {@link ")
+                    .append(element.getQualifiedName()).append("}. Do not edit.\n */\n");
+            source.append("public final class ").append(className).append(" {\n\n");
+
+            source.append("    /**\n     * Query keys, as they are registered in the repository.\n     */\n");
+            source.append("    public static final class Keys {\n\n");
+            for (final Map.Entry<String, String> entry : constantsKey.entrySet()) {
+                source.append("        public static final String ").append(entry.getKey()).append(" = ")
+                        .append(literal(entry.getValue())).append(";\n");
+            }
+            source.append("\n        private Keys() {\n        }\n    }\n\n");
+
+            for (final Map.Entry<String, String> entry : constantsKey.entrySet()) {
+                final String key = entry.getValue();
+                source.append("    /** Query <tt>").append(key).append("</tt> from ").append(queriesFile.get(key))
+                        .append(" */\n");
+                source.append("    public static final String ").append(entry.getKey()).append(" = ")
+                        .append(value(queries.get(key))).append(";\n\n");
+            }
+            source.append("    private ").append(className).append("() {\n    }\n}\n");
+            writer.write(source.toString());
+        }
+    }
+
+    private static String packageName(final Element element) {
+        Element current = element;
+        while (!(current instanceof PackageElement)) {
+            current = current.getEnclosingElement();
+        }
+        return ((PackageElement) current).getQualifiedName().toString();
+    }
+
+    private static String constantName(final String key) {
+        final String constant = key.toUpperCase(Locale.ROOT).replace('.', '_');
+        return SourceVersion.isKeyword(constant) ? constant + "_" : constant;
+    }
+
+    private static String value(final String query) {
+        if (query.getBytes(StandardCharsets.UTF_8).length < MAX_CONSTANT_LENGTH) {
+            return literal(query);
+        }
+        final StringBuilder joined = new StringBuilder("String.join(\"\"");
+        for (int start = 0; start < query.length(); start += CHUNK_LENGTH) {
+            final int end = Math.min(query.length(), start + CHUNK_LENGTH);
+            joined.append(",\n            ").append(literal(query.substring(start, end)));
+        }
+        return joined.append(")").toString();
+    }
+
+    private static String literal(final String value) {
+        final StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    if (c < ' ' || c > '~') {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private void error(final Element element, final String message) {
+        processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+    }
+
+}
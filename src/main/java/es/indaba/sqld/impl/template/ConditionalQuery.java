@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.template;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import es.indaba.sqld.api.NamedParameterQuery;
+import es.indaba.sqld.impl.parser.QueryLexer;
+
+/**
+ * A query with conditional segments, <tt>[[ ... ]]</tt>, compiled once into a tree of literals and segments. A segment
+ * is rendered only when all the <tt>:name</tt> parameters written directly in it have a value. Segments can be
+ * nested: a nested segment is rendered only if its parent is, and a segment without parameters of its own groups
+ * the nested ones and is rendered when any of them is.
+ *
+ * <PRE>
+ * SELECT * FROM T [[WHERE 1 = 1 [[AND A = :a]] [[AND B &gt; :b]]]] ORDER BY C
+ * </PRE>
+ *
+ * <P> The segments rendered make the shape of the query. Each shape is rendered to a pre-sized builder and parsed
+ * once, then the parsed query is cached and returned for every later render with that shape. Markers inside string
+ * literals, quoted identifiers and comments are ignored.
+ *
+ * <P> Instances are immutable but for the cache of shapes, and thread-safe.
+ */
+public final class ConditionalQuery {
+
+    /**
+     * Maximum number of segments of a query; each one is a bit of the shape
+     */
+    public static final int MAX_SEGMENTS = Long.SIZE;
+
+    /*
+     * Bounds the memory taken by queries with many segments. Shapes beyond it are rendered on each call
+     */
+    private static final int MAX_CACHED_SHAPES = 256;
+
+    private static final String OPEN = "[[";
+    private static final String CLOSE = "]]";
+
+    private final String source;
+    private final Segment root;
+    private final int segmentCount;
+    private final int literalsLength;
+    private final Map<Long, NamedParameterQuery> shapes = new ConcurrentHashMap<>();
+
+    private ConditionalQuery(final String source, final Segment root, final int segmentCount,
+            final int literalsLength) {
+        this.source = source;
+        this.root = root;
+        this.segmentCount = segmentCount;
+        this.literalsLength = literalsLength;
+    }
+
+    /**
+     * Compiles a query
+     *
+     * @param query - the query with <tt>[[ ... ]]</tt> segments
+     * @return the compiled query
+     * @throws IllegalArgumentException if the segments are not balanced or there are more than {@link #MAX_SEGMENTS}
+     */
+    public static ConditionalQuery compile(final String query) {
+        final Deque<SegmentBuilder> open = new ArrayDeque<>();
+        final SegmentBuilder root = new SegmentBuilder(-1);
+        open.push(root);
+        int segmentCount = 0;
+        int literalsLength = 0;
+        int literalStart = 0;
+        final int length = query.length();
+        int i = 0;
+        while (i < length) {
+            final int skipped = QueryLexer.skip(query, i);
+            if (skipped != i) {
+                i = skipped;
+                continue;
+            }
+            final int end = QueryLexer.parameterEnd(query, i);
+            if (end != -1) {
+                open.peek().parameters.add(query.substring(i + 1, end));
+                i = end;
+            } else if (query.startsWith(OPEN, i)) {
+                if (segmentCount == MAX_SEGMENTS) {
+                    throw new IllegalArgumentException(
+                            "The query has more than " + MAX_SEGMENTS + " conditional segments");
+                }
+                literalsLength += open.peek().addLiteral(query, literalStart, i);
+                final SegmentBuilder segment = new SegmentBuilder(segmentCount++);
+                open.peek().parts.add(segment);
+                open.push(segment);
+                i += OPEN.length();
+                literalStart = i;
+            } else if (query.startsWith(CLOSE, i)) {
+                if (open.size() == 1) {
+                    throw new IllegalArgumentException("The conditional segment closed at " + i + " is not open");
+                }
+                final SegmentBuilder segment = open.pop();
+                literalsLength += segment.addLiteral(query, literalStart, i);
+                if (segment.parameters.isEmpty() && !segment.hasChildren()) {
+                    throw new IllegalArgumentException(
+                            "The conditional segment closed at " + i + " has neither parameters nor segments");
+                }
+                i += CLOSE.length();
+                literalStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (open.size() > 1) {
+            throw new IllegalArgumentException("The query has " + (open.size() - 1) + " conditional segments not closed");
+        }
+        literalsLength += root.addLiteral(query, literalStart, length);
+        return new ConditionalQuery(query, root.build(), segmentCount, literalsLength);
+    }
+
+    /**
+     * @param query - a query
+     * @return true if this was compiled from that query
+     */
+    public boolean isCompiledFrom(final String query) {
+        return source.equals(query);
+    }
+
+    /**
+     * @return the number of conditional segments
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Renders the segments whose parameters have a value
+     *
+     * @param values - the parameter values. A parameter is missing if it has no value or its value is
+     *        <code>null</code>
+     * @return the rendered query with its named parameters translated, the same instance for every render with the same
+     *         segments
+     */
+    public NamedParameterQuery render(final Map<String, ?> values) {
+        final long shape = shape(root, values, 0L);
+        NamedParameterQuery rendered = shapes.get(shape);
+        if (rendered == null) {
+            final StringBuilder sql = new StringBuilder(literalsLength);
+            append(root, shape, sql);
+            rendered = NamedParameterQuery.parse(sql.toString());
+            if (shapes.size() < MAX_CACHED_SHAPES) {
+                final NamedParameterQuery previous = shapes.putIfAbsent(shape, rendered);
+                if (previous != null) {
+                    rendered = previous;
+                }
+            }
+        }
+        return rendered;
+    }
+
+    private static long shape(final Segment segment, final Map<String, ?> values, final long shape) {
+        long result = shape;
+        for (final Segment child : segment.children) {
+            if (child.parameters.length == 0) {
+                // A group, rendered if any nested segment is
+                final long nested = shape(child, values, 0L);
+                if (nested != 0L) {
+                    result |= nested | 1L << child.bit;
+                }
+            } else if (child.isRendered(values)) {
+                result = shape(child, values, result | 1L << child.bit);
+            }
+        }
+        return result;
+    }
+
+    private static void append(final Segment segment, final long shape, final StringBuilder sql) {
+        for (final Object part : segment.parts) {
+            if (part instanceof String) {
+                sql.append((String) part);
+            } else {
+                final Segment child = (Segment) part;
+                if ((shape & 1L << child.bit) != 0) {
+                    append(child, shape, sql);
+                }
+            }
+        }
+    }
+
+    /**
+     * A compiled segment: literals and nested segments in order, and the parameters it depends on
+     */
+    private static final class Segment {
+
+        private final int bit;
+        private final String[] parameters;
+        private final Object[] parts;
+        private final Segment[] children;
+
+        private Segment(final int bit, final String[] parameters, final Object[] parts, final Segment[] children) {
+            this.bit = bit;
+            this.parameters = parameters;
+            this.parts = parts;
+            this.children = children;
+        }
+
+        private boolean isRendered(final Map<String, ?> values) {
+            for (final String parameter : parameters) {
+                if (values.get(parameter) == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class SegmentBuilder {
+
+        private final int bit;
+        private final Set<String> parameters = new LinkedHashSet<>();
+        private final List<Object> parts = new ArrayList<>();
+
+        private SegmentBuilder(final int bit) {
+            this.bit = bit;
+        }
+
+        private boolean hasChildren() {
+            for (final Object part : parts) {
+                if (part instanceof SegmentBuilder) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int addLiteral(final String query, final int start, final int end) {
+            if (end > start) {
+                parts.add(query.substring(start, end));
+            }
+            return end - start;
+        }
+
+        private Segment build() {
+            final Object[] built = new Object[parts.size()];
+            final List<Segment> children = new ArrayList<>();
+            for (int i = 0; i < built.length; i++) {
+                final Object part = parts.get(i);
+                if (part instanceof SegmentBuilder) {
+                    final Segment child = ((SegmentBuilder) part).build();
+                    children.add(child);
+                    built[i] = child;
+                } else {
+                    built[i] = part;
+                }
+            }
+            return new Segment(bit, parameters.toArray(new String[parameters.size()]), built,
+                    children.toArray(new Segment[children.size()]));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.impl.template;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A query with <tt>{n}</tt> parameters compiled once into literal segments and parameter indexes. Formatting only
+ * appends the segments and the parameters to a pre-sized builder.
+ *
+ * <P> The syntax is the one of {@link MessageFormat} with quotes taken literally. Parameters are formatted without
+ * locale: numbers without grouping (<tt>1000</tt>, <tt>1500.25</tt>), {@link java.sql.Date}, {@link java.sql.Time}
+ * and {@link java.sql.Timestamp} with their JDBC escape format, any other {@link Date} as
+ * <tt>yyyy-MM-dd HH:mm:ss[.SSS]</tt> in the default time zone and the rest of objects with <tt>toString()</tt>.
+ * Parameters with an explicit format type, like <tt>{0,number,#.##}</tt>, are delegated to {@link MessageFormat}.
+ *
+ * <P> Instances are immutable and thread-safe.
+ */
+public final class QueryTemplate {
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DATE_TIME_MILLIS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static final int ESTIMATED_PARAMETER_LENGTH = 16;
+
+    private final String source;
+    /*
+     * literals[i] is appended before the parameter parameterIndexes[i]; the last literal closes the query.
+     */
+    private final String[] literals;
+    private final int[] parameterIndexes;
+    private final int literalsLength;
+    /*
+     * Not null when the template uses format types and has to be delegated to MessageFormat
+     */
+    private final String messageFormatPattern;
+
+    private QueryTemplate(final String source, final String[] literals, final int[] parameterIndexes,
+            final String messageFormatPattern) {
+        this.source = source;
+        this.literals = literals;
+        this.parameterIndexes = parameterIndexes;
+        this.messageFormatPattern = messageFormatPattern;
+        int length = 0;
+        for (final String literal : literals) {
+            length += literal.length();
+        }
+        this.literalsLength = length;
+    }
+
+    /**
+     * Compiles a query
+     *
+     * @param query - the query with <tt>{n}</tt> parameters
+     * @return the compiled template
+     * @throws IllegalArgumentException if the parameters syntax is not valid
+     */
+    public static QueryTemplate compile(final String query) {
+        final List<String> literals = new ArrayList<>();
+        final List<Integer> indexes = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        int position = 0;
+        while (position < query.length()) {
+            final char c = query.charAt(position);
+            if (c != '{') {
+                literal.append(c);
+                position++;
+                continue;
+            }
+            final int end = endOfArgument(query, position);
+            final String argument = query.substring(position + 1, end);
+            if (argument.indexOf(',') != -1) {
+                // Format types are left to MessageFormat
+                return new QueryTemplate(query, new String[0], new int[0], StringUtils.replace(query, "'", "''"));
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            indexes.add(argumentIndex(argument));
+            position = end + 1;
+        }
+        literals.add(literal.toString());
+
+        final int[] parameterIndexes = new int[indexes.size()];
+        for (int i = 0; i < parameterIndexes.length; i++) {
+            parameterIndexes[i] = indexes.get(i);
+        }
+        return new QueryTemplate(query, literals.toArray(new String[literals.size()]), parameterIndexes, null);
+    }
+
+    /**
+     * @param query - a query text
+     * @return true if this template has been compiled from that text
+     */
+    public boolean isCompiledFrom(final String query) {
+        return source.equals(query);
+    }
+
+    /**
+     * Interpolates the parameters into the query. Parameters referenced by the query but not provided are left as
+     * <tt>{n}</tt>.
+     *
+     * @param parameters - the parameters
+     * @return the interpolated query
+     */
+    public String format(final Object... parameters) {
+        if (messageFormatPattern != null) {
+            return MessageFormat.format(messageFormatPattern, parameters);
+        }
+        final StringBuilder result =
+                new StringBuilder(literalsLength + parameterIndexes.length * ESTIMATED_PARAMETER_LENGTH);
+        for (int i = 0; i < parameterIndexes.length; i++) {
+            result.append(literals[i]);
+            final int index = parameterIndexes[i];
+            if (parameters == null || index >= parameters.length) {
+                result.append('{').append(index).append('}');
+            } else {
+                appendParameter(result, parameters[index]);
+            }
+        }
+        result.append(literals[parameterIndexes.length]);
+        return result.toString();
+    }
+
+    private static void appendParameter(final StringBuilder result, final Object parameter) {
+        if (parameter instanceof String) {
+            result.append((String) parameter);
+        } else if (parameter instanceof Integer || parameter instanceof Long || parameter instanceof Short
+                || parameter instanceof Byte) {
+            result.append(((Number) parameter).longValue());
+        } else if (parameter instanceof BigDecimal) {
+            result.append(((BigDecimal) parameter).toPlainString());
+        } else if (parameter instanceof Double || parameter instanceof Float) {
+            appendFloatingPoint(result, (Number) parameter);
+        } else if (parameter instanceof java.sql.Date || parameter instanceof java.sql.Time
+                || parameter instanceof java.sql.Timestamp) {
+            result.append(parameter.toString());
+        } else if (parameter instanceof Date) {
+            appendDate(result, (Date) parameter);
+        } else {
+            result.append(parameter);
+        }
+    }
+
+    private static void appendFloatingPoint(final StringBuilder result, final Number value) {
+        final double doubleValue = value.doubleValue();
+        if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+            result.append(value);
+        } else {
+            // The shortest decimal of a float, not of the double it widens to
+            result.append(new BigDecimal(value.toString()).stripTrailingZeros().toPlainString());
+        }
+    }
+
+    private static void appendDate(final StringBuilder result, final Date date) {
+        final long time = date.getTime();
+        final LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        (time % 1000 == 0 ? DATE_TIME : DATE_TIME_MILLIS).formatTo(dateTime, result);
+    }
+
+    private static int endOfArgument(final String query, final int start) {
+        int depth = 0;
+        for (int i = start; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unmatched braces in the query: " + query);
+    }
+
+    private static int argumentIndex(final String argument) {
+        final String trimmed = argument.trim();
+        try {
+            final int index = Integer.parseInt(trimmed);
+            if (index >= 0) {
+                return index;
+            }
+        } catch (final NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Can't parse argument number: " + trimmed);
+    }
+}
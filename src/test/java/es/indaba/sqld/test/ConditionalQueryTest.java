@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.NamedParameterQuery;
+import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.impl.parser.TextBlockReader;
+import es.indaba.sqld.impl.parser.YamlFileReader;
+import es.indaba.sqld.impl.template.ConditionalQuery;
+
+public class ConditionalQueryTest {
+
+    private static final String QUERY =
+            "SELECT * FROM T[[ WHERE 1 = 1[[ AND A = :a]][[ AND B IN (:b, :b2)]]]] ORDER BY D";
+
+    @Test
+    public void testOptionalClauses() {
+        ConditionalQuery query = ConditionalQuery.compile(QUERY);
+        assertEquals(3, query.getSegmentCount());
+
+        NamedParameterQuery rendered = query.render(values("a", 1));
+        assertEquals("SELECT * FROM T WHERE 1 = 1 AND A = ? ORDER BY D", rendered.getSql());
+        assertArrayEquals(new int[] {1}, rendered.getParameterIndexes("a"));
+
+        assertEquals("SELECT * FROM T WHERE 1 = 1 AND B IN (?, ?) ORDER BY D",
+                query.render(values("a", null, "b", 1, "b2", 2)).getSql());
+        assertEquals("SELECT * FROM T ORDER BY D", query.render(values("b", 1)).getSql());
+    }
+
+    @Test
+    public void testShapesAreCached() {
+        ConditionalQuery query = ConditionalQuery.compile(QUERY);
+        assertSame(query.render(values("a", 1)), query.render(values("a", 2, "b", 3)));
+    }
+
+    @Test
+    public void testNestedSegments() {
+        ConditionalQuery query = ConditionalQuery.compile("SELECT * FROM T[[ JOIN U ON U.ID = T.U[[ AND U.X = :x]]"
+                + " WHERE U.Y = :y]]");
+        assertEquals("SELECT * FROM T", query.render(values("x", 1)).getSql());
+        assertEquals("SELECT * FROM T JOIN U ON U.ID = T.U WHERE U.Y = ?", query.render(values("y", 1)).getSql());
+        assertEquals("SELECT * FROM T JOIN U ON U.ID = T.U AND U.X = ? WHERE U.Y = ?",
+                query.render(values("x", 1, "y", 2)).getSql());
+    }
+
+    @Test
+    public void testMarkersInLiteralsAndComments() {
+        ConditionalQuery query = ConditionalQuery.compile("SELECT '[[' -- ]]\n, \"]]\" FROM T /* [[ */[[ WHERE A = :a]]");
+        assertEquals(1, query.getSegmentCount());
+        assertEquals("SELECT '[[' -- ]]\n, \"]]\" FROM T /* [[ */", query.render(values()).getSql());
+    }
+
+    @Test
+    public void testUnbalancedSegments() {
+        for (String invalid : new String[] {"SELECT [[ A", "SELECT A ]]", "[[ [[ ]]", "SELECT [[ A ]]"}) {
+            try {
+                ConditionalQuery.compile(invalid);
+                fail("The unbalanced segments of '" + invalid + "' have not been detected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testDefinitionFiles() throws Exception {
+        Properties text = new TextBlockReader(stream("Q1 {\nSELECT * FROM T\nWHERE 1 = 1\n[[AND A = :a]]\n}\n"),
+                "conditional.sqld").read();
+        QueryDefinition query = new QueryDefinition("q1", text.getProperty("q1"));
+        assertEquals("SELECT * FROM T\nWHERE 1 = 1\nAND A = ?", query.getNamedParameterQuery(values("a", 1)).getSql());
+        assertEquals("SELECT * FROM T\nWHERE 1 = 1\n", query.getNamedParameterQuery(values()).getSql());
+
+        Properties yaml = new YamlFileReader(stream("q2: SELECT * FROM T [[WHERE A = :a]]\n"), "conditional.ysqld")
+                .read();
+        assertEquals("SELECT * FROM T WHERE A = ?",
+                new QueryDefinition("q2", yaml.getProperty("q2")).getNamedParameterQuery(values("a", 1)).getSql());
+    }
+
+    private static ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, Object> values(Object... namesAndValues) {
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            values.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return values;
+    }
+}
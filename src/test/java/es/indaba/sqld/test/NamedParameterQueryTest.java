@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ * 
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.NamedParameterQuery;
+
+public class NamedParameterQueryTest {
+
+    @Test
+    public void testParse() {
+        NamedParameterQuery query =
+                NamedParameterQuery.parse("SELECT * FROM T WHERE A = :codDni AND B = :other AND C = :codDni");
+        assertEquals("SELECT * FROM T WHERE A = ? AND B = ? AND C = ?", query.getSql());
+        assertEquals(3, query.getParameterCount());
+        assertEquals(Arrays.asList("codDni", "other"), query.getParameterNames());
+        assertArrayEquals(new int[] {1, 3}, query.getParameterIndexes("codDni"));
+        assertArrayEquals(new int[] {2}, query.getParameterIndexes("other"));
+        assertArrayEquals(new int[0], query.getParameterIndexes("missing"));
+    }
+
+    @Test
+    public void testIgnoredPlaceholders() {
+        String sql = "SELECT ':a', \":b\", X::int -- :c\n /* :d */ FROM T WHERE A = ? AND B = :e";
+        NamedParameterQuery query = NamedParameterQuery.parse(sql);
+        assertEquals(sql.replace(":e", "?"), query.getSql());
+        assertEquals(Arrays.asList("e"), query.getParameterNames());
+        assertArrayEquals(new int[] {2}, query.getParameterIndexes("e"));
+    }
+
+    @Test
+    public void testWithoutNamedParameters() {
+        String sql = "SELECT * FROM T WHERE A = ?";
+        NamedParameterQuery query = NamedParameterQuery.parse(sql);
+        assertFalse(query.hasNamedParameters());
+        assertEquals(sql, query.getSql());
+        assertEquals(1, query.getParameterCount());
+    }
+
+    @Test
+    public void testBindMap() throws Exception {
+        Map<Integer, Object> bound = new TreeMap<>();
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "x");
+        values.put("b", 2);
+        NamedParameterQuery.parse("SELECT :a, :b, :a").bind(statement(bound), values);
+        assertEquals("{1=x, 2=2, 3=x}", bound.toString());
+    }
+
+    @Test
+    public void testBindBean() throws Exception {
+        Map<Integer, Object> bound = new TreeMap<>();
+        NamedParameterQuery.parse("SELECT :name, :size").bind(statement(bound), new Bean());
+        assertEquals("{1=bean, 2=5}", bound.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBindMissing() throws Exception {
+        NamedParameterQuery.parse("SELECT :a").bind(statement(new TreeMap<Integer, Object>()),
+                new HashMap<String, Object>());
+    }
+
+    public static class Bean {
+
+        public String getName() {
+            return "bean";
+        }
+
+        public int getSize() {
+            return 5;
+        }
+    }
+
+    private static PreparedStatement statement(final Map<Integer, Object> bound) {
+        return (PreparedStatement) Proxy.newProxyInstance(NamedParameterQueryTest.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("setObject".equals(method.getName())) {
+                            bound.put((Integer) args[0], args[1]);
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.PreparedStatementCache;
+import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+
+public class PreparedStatementCacheTest {
+
+    private final List<String> prepared = new ArrayList<>();
+    private final Set<PreparedStatement> closed = new HashSet<>();
+    private final Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                if ("prepareStatement".equals(method.getName())) {
+                    prepared.add((String) args[0]);
+                    return statement();
+                }
+                return null;
+            });
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        PreparedStatementCache cache = new PreparedStatementCache(connection, 2);
+        QueryDefinition query1 = new QueryDefinition("Q1", "SELECT * FROM T WHERE A = :a");
+
+        PreparedStatement statement = cache.prepare(query1);
+        assertSame(statement, cache.prepare(new QueryDefinition("q1", "SELECT * FROM T WHERE A = :a")));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, prepared.size());
+        assertEquals("SELECT * FROM T WHERE A = ?", prepared.get(0));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsClosed() throws Exception {
+        PreparedStatementCache cache = new PreparedStatementCache(connection, 2);
+        QueryDefinition query1 = new QueryDefinition("Q1", "SELECT 1");
+        QueryDefinition query2 = new QueryDefinition("Q2", "SELECT 2");
+        QueryDefinition query3 = new QueryDefinition("Q3", "SELECT 3");
+
+        PreparedStatement statement1 = cache.prepare(query1);
+        PreparedStatement statement2 = cache.prepare(query2);
+        cache.prepare(query1);
+        cache.prepare(query3);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(closed.contains(statement2));
+        assertFalse(closed.contains(statement1));
+        assertSame(statement1, cache.prepare(query1));
+
+        cache.close();
+        assertEquals(0, cache.size());
+        assertTrue(closed.contains(statement1));
+    }
+
+    @Test
+    public void testChangedQueryIsPreparedAgain() throws Exception {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "SELECT 1"), "a.sqld");
+        QueryDefinition query = repository.getQueryDefinition("q1");
+        PreparedStatementCache cache = new PreparedStatementCache(connection, 2);
+
+        PreparedStatement statement = cache.prepare(query);
+        repository.replaceFile("a.sqld", properties("q1", "SELECT 2"));
+        PreparedStatement reloaded = cache.prepare(query);
+
+        assertNotSame(statement, reloaded);
+        assertTrue(closed.contains(statement));
+        assertEquals("SELECT 2", prepared.get(1));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new PreparedStatementCache(connection, 0);
+    }
+
+    private PreparedStatement statement() {
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            closed.add((PreparedStatement) proxy);
+                            return null;
+                        case "isClosed":
+                            return closed.contains(proxy);
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ * 
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import es.indaba.sqld.api.QueryConstants;
+import es.indaba.sqld.impl.processor.QueryConstantsProcessor;
+
+@QueryConstants({"es/indaba/sqld/test/loader/test/package1/read.sqld",
+        "es/indaba/sqld/test/loader/test/package1/test.ysqld"})
+public class QueryConstantsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGeneratedConstants() {
+        assertEquals("QUERY1_CONTENT", QueryConstantsTestQueries.QUERY1);
+        assertEquals("QUERY2_CONTENT", QueryConstantsTestQueries.QUERY2);
+        assertEquals("QUERY_SUBSTITUTION {0},{1},{2}", QueryConstantsTestQueries.QUERY_SUBSTITUTION);
+        assertEquals("QUERY_YAML_CONTENT\n", QueryConstantsTestQueries.QUERY_YAML);
+    }
+
+    @Test
+    public void testGeneratedKeys() {
+        assertEquals("query1", QueryConstantsTestQueries.Keys.QUERY1);
+        assertEquals("query_yaml", QueryConstantsTestQueries.Keys.QUERY_YAML);
+    }
+
+    @Test
+    public void testIncludesAreRejected() throws IOException {
+        final Path root = folder.getRoot().toPath();
+        write(root.resolve("includes.sqld"), "columns {\n id, name\n}\n"
+                + "find {\n SELECT ${columns} FROM items\n}\n");
+        write(root.resolve("IncludesDao.java"),
+                "@es.indaba.sqld.api.QueryConstants(\"includes.sqld\")\npublic class IncludesDao {\n}\n");
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    Arrays.asList("-proc:only", "-sourcepath", root.toString(), "-d", root.toString(), "-classpath",
+                            System.getProperty("java.class.path")),
+                    null, fileManager.getJavaFileObjects(new File(root.toFile(), "IncludesDao.java")));
+            task.setProcessors(Arrays.asList(new QueryConstantsProcessor()));
+            assertFalse(task.call());
+        }
+        final Diagnostic<? extends JavaFileObject> error = diagnostics.getDiagnostics().get(0);
+        assertEquals(Diagnostic.Kind.ERROR, error.getKind());
+        assertTrue(error.getMessage(null).contains("The query 'find' of includes.sqld includes 'columns'"));
+    }
+}
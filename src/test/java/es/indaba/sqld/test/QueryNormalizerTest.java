@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.api.QueryNormalizer;
+
+public class QueryNormalizerTest {
+
+    @Test
+    public void testWhitespaceAndComments() {
+        assertEquals("SELECT A, B FROM T WHERE A = ?",
+                QueryNormalizer.normalize("\n  SELECT A,  B -- the columns\r\n\tFROM T /* table */\n WHERE A = ?  \n"));
+        assertEquals("SELECT A FROM T", QueryNormalizer.normalize("SELECT A/* x */FROM T"));
+        assertEquals("SELECT 1", QueryNormalizer.normalize("SELECT 1 -- unterminated"));
+        assertEquals("", QueryNormalizer.normalize(" -- only a comment\n"));
+    }
+
+    @Test
+    public void testQuotedTextIsKept() {
+        assertEquals("SELECT 'a  -- b', \"C  /* D */\" FROM T WHERE X = 'it''s  '",
+                QueryNormalizer.normalize("SELECT 'a  -- b',\n \"C  /* D */\"\nFROM T WHERE X = 'it''s  '"));
+        assertEquals("SELECT /*+ INDEX(T IDX) */ A FROM T",
+                QueryNormalizer.normalize("SELECT  /*+ INDEX(T IDX) */\n A FROM T"));
+    }
+
+    @Test
+    public void testFingerprint() {
+        // Reference values of 64 bit FNV-1a
+        assertEquals(0xcbf29ce484222325L, QueryNormalizer.fingerprint(""));
+        assertEquals(0xaf63dc4c8601ec8cL, QueryNormalizer.fingerprint("a"));
+        assertEquals(0x85944171f73967e8L, QueryNormalizer.fingerprint("foobar"));
+
+        String query = "SELECT 'a\u00f1o \u20ac \ud83d\ude00'";
+        assertEquals(fingerprint(query.getBytes(StandardCharsets.UTF_8)), QueryNormalizer.fingerprint(query));
+        assertEquals(QueryNormalizer.fingerprint(QueryNormalizer.normalize("SELECT *\n  FROM T")),
+                QueryNormalizer.fingerprint(QueryNormalizer.normalize("SELECT * FROM T -- v2")));
+        assertNotEquals(QueryNormalizer.fingerprint("SELECT 1"), QueryNormalizer.fingerprint("SELECT 2"));
+    }
+
+    @Test
+    public void testRepositoryNormalization() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.setNormalizeQueries(true);
+        repository.addQueries(Collections.singletonMap("a.sqld",
+                properties("q1", "SELECT *\n  FROM T -- all\n  WHERE A = :a", "q2", "SELECT * FROM T WHERE A = :a")));
+
+        assertEquals("SELECT * FROM T WHERE A = :a", repository.getQuery("q1"));
+        assertEquals("SELECT * FROM T WHERE A = ?", repository.getNamedParameterQuery("q1").getSql());
+        assertEquals(repository.getFingerprint("q1"), repository.getFingerprint("q2"));
+        assertEquals(repository.getFingerprint("q1"), repository.getQueryDefinition("q1").getFingerprint());
+
+        repository.replaceFile("a.sqld", properties("q1", "SELECT  *  FROM  T\nWHERE A = :a"));
+        assertEquals("SELECT * FROM T WHERE A = :a", repository.getQuery("q1"));
+        try {
+            repository.setNormalizeQueries(false);
+            fail("The normalization has been changed on a repository with queries");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    private static long fingerprint(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ * 
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.impl.template.QueryTemplate;
+
+public class QueryTemplateTest {
+
+    @Test
+    public void testLiteralQuotes() {
+        QueryDefinition query = new QueryDefinition("q", "SELECT * FROM T WHERE A = '{0}' AND B = 'X'");
+        assertEquals("SELECT * FROM T WHERE A = 'a' AND B = 'X'", query.getQueryAsString("a"));
+        assertEquals("SELECT * FROM T WHERE A = 'b' AND B = 'X'", query.getQueryAsString("b"));
+    }
+
+    @Test
+    public void testNumbersWithoutGrouping() {
+        QueryTemplate template = QueryTemplate.compile("{0} {1} {2} {3}");
+        assertEquals("1000 1500.25 2.5 1000000", template.format(1000, new BigDecimal("1500.25"), 2.5d, 1000000L));
+    }
+
+    @Test
+    public void testFloats() {
+        QueryTemplate template = QueryTemplate.compile("{0} {1} {2} {3}");
+        assertEquals("0.1 1500.25 10000000000 NaN", template.format(0.1f, 1500.25f, 1e10f, Float.NaN));
+    }
+
+    @Test
+    public void testDates() {
+        QueryTemplate template = QueryTemplate.compile("{0}");
+        assertEquals("2024-01-31 10:20:30.0", template.format(Timestamp.valueOf("2024-01-31 10:20:30")));
+        assertEquals("2024-01-31", template.format(java.sql.Date.valueOf("2024-01-31")));
+        assertEquals("2024-01-31 10:20:30",
+                template.format(new java.util.Date(Timestamp.valueOf("2024-01-31 10:20:30").getTime())));
+    }
+
+    @Test
+    public void testMissingAndRepeatedParameters() {
+        QueryTemplate template = QueryTemplate.compile("{0}-{1}-{0}");
+        assertEquals("a-{1}-a", template.format("a"));
+        assertEquals("null-b-null", template.format(null, "b"));
+    }
+
+    @Test
+    public void testFormatTypeDelegated() {
+        QueryTemplate template = QueryTemplate.compile("'{0,number,#}'");
+        assertEquals("'1235'", template.format(1234.7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnmatchedBraces() {
+        QueryTemplate.compile("SELECT {0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalArgument() {
+        QueryTemplate.compile("SELECT {A}");
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static es.indaba.sqld.test.SQLDTestSupport.read;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import es.indaba.sqld.QueryDefinitionsStaticHolder;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+
+public class SQLDBackgroundLoadTest {
+
+    private static final String LOADED = "es/indaba/sqld/test/background/loaded.sqld";
+    private static final String DUPLICATED = "es/indaba/sqld/test/background/duplicated.sqld";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLookupsWaitForTheLoad() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "Q1"), "a.sqld");
+        CompletableFuture<Void> loading = repository.loadInBackground(loaded -> {
+            await(release);
+            loaded.addQuery(read(LOADED), LOADED);
+        }, executor);
+
+        assertTrue(repository.isLoading());
+        assertEquals("Q1", repository.getQuery("q1"));
+        Future<String> waiting = executor.submit(() -> repository.getQuery("q2"));
+        Thread.sleep(50);
+        assertFalse(waiting.isDone());
+
+        release.countDown();
+        assertEquals("Q2", waiting.get(10, TimeUnit.SECONDS));
+        loading.get(10, TimeUnit.SECONDS);
+        assertFalse(repository.isLoading());
+    }
+
+    @Test
+    public void testBoundedWait() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.setLoadTimeout(100, TimeUnit.MILLISECONDS);
+        CompletableFuture<Void> loading = repository.loadInBackground(loaded -> await(release), executor);
+
+        long start = System.nanoTime();
+        assertNull(repository.getQuery("q1"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        release.countDown();
+        loading.get(10, TimeUnit.SECONDS);
+        start = System.nanoTime();
+        assertNull(repository.getQuery("q1"));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testFailedLoad() throws Exception {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "Q1"), "a.sqld");
+        CompletableFuture<Void> loading = repository.loadInBackground(
+                loaded -> loaded.addQuery(read(DUPLICATED), DUPLICATED), executor);
+        try {
+            loading.get(10, TimeUnit.SECONDS);
+            fail("The failed load has not been reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertFalse(repository.isLoading());
+        assertEquals("Q1", repository.getQuery("q1"));
+    }
+
+    @Test
+    public void testStaticHolderBackgroundLoad() throws Exception {
+        CompletableFuture<Void> loading =
+                QueryDefinitionsStaticHolder.loadQueryDefinitionsInBackground("es.indaba.sqld.test.loader.test.package1");
+        try {
+            assertEquals("QUERY1_CONTENT", QueryDefinitionsStaticHolder.getQueryAsString("QUERY1"));
+        } finally {
+            loading.get(10, TimeUnit.SECONDS);
+            QueryDefinitionsStaticHolder.clear();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryBundle;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+
+public class SQLDBundleTest {
+
+    @Test
+    public void testKeysByPrefix() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("user_find", "Q1", "user_delete", "Q2", "order_find", "Q3", "users", "Q4"),
+                "a.sqld");
+        repository.addLazyQueries(Collections.singletonMap("b.sqld", new HashSet<>(Arrays.asList("user_update"))),
+                file -> properties("user_update", "Q5"));
+
+        assertEquals(Arrays.asList("user_delete", "user_find", "user_update"), repository.getKeys("User_"));
+        assertEquals(Arrays.asList("user_delete", "user_find", "user_update", "users"), repository.getKeys("USER"));
+        assertEquals(5, repository.getKeys("").size());
+        assertTrue(repository.getKeys("X").isEmpty());
+        assertTrue(repository.getKeys("zz").isEmpty());
+    }
+
+    @Test
+    public void testBundleByPrefix() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("user_find", "SELECT * FROM U WHERE ID = :id", "order_find", "Q3"), "a.sqld");
+        AtomicInteger reads = new AtomicInteger();
+        repository.addLazyQueries(Collections.singletonMap("b.sqld", new HashSet<>(Arrays.asList("user_update"))),
+                file -> {
+                    reads.incrementAndGet();
+                    return properties("user_update", "UPDATE U");
+                });
+
+        long version = repository.getVersion();
+        QueryBundle bundle = repository.getBundleByPrefix("USER_");
+        // The lazy file has been loaded
+        assertEquals(1, reads.get());
+        assertEquals(version, bundle.getVersion());
+        assertEquals(Arrays.asList("user_find", "user_update"), bundle.getKeys());
+        assertEquals("UPDATE U", bundle.getQuery("User_Update"));
+        assertEquals("SELECT * FROM U WHERE ID = ?", bundle.getNamedParameterQuery("USER_FIND").getSql());
+        assertFalse(bundle.containsQuery("ORDER_FIND"));
+        try {
+            bundle.getQuery("ORDER_FIND");
+            fail("A query out of the bundle has been returned");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The query 'ORDER_FIND' is not present in the bundle", e.getMessage());
+        }
+
+        // The bundle is immutable
+        repository.replaceFile("a.sqld", properties("user_find", "SELECT 1"));
+        assertEquals("SELECT * FROM U WHERE ID = :id", bundle.getQuery("USER_FIND"));
+        assertTrue(bundle.getVersion() < repository.getVersion());
+    }
+
+    @Test
+    public void testBundleOfKeys() {
+        QueryDefinitionRepository base = new QueryDefinitionRepository();
+        base.addQuery(properties("q1", "Q1", "q2", "Q2"), "a.sqld");
+        QueryDefinitionRepository overlay = base.createOverlay();
+        overlay.addQuery(properties("q2", "Q2_OVERLAY", "q3", "Q3"), "b.sqld");
+
+        assertEquals(Arrays.asList("q1", "q2", "q3"), overlay.getKeys("q"));
+        QueryBundle bundle = overlay.getBundle(Arrays.asList("Q3", "q1", "q2"));
+        assertEquals(3, bundle.size());
+        assertEquals("Q1", bundle.getQuery("q1"));
+        assertEquals("Q2_OVERLAY", bundle.getQuery("q2"));
+        assertEquals(3, overlay.getMetrics().getLookupCount());
+
+        try {
+            overlay.getBundle(Arrays.asList("q1", "q5", "q4"));
+            fail("The missing queries have not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The queries [q4, q5] are not present", e.getMessage());
+        }
+    }
+}
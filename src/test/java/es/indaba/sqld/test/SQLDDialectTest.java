@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+
+public class SQLDDialectTest {
+
+    @Test
+    public void testWithoutDialects() {
+        QueryDefinitionRepository repository = repository();
+        assertEquals("GENERIC", repository.getQuery("Q1"));
+        assertEquals("POSTGRES", repository.getQuery("postgres.Q1"));
+        assertTrue(repository.getDialects().isEmpty());
+    }
+
+    @Test
+    public void testFallbackOrder() {
+        QueryDefinitionRepository repository = repository();
+        repository.setDialects("Postgres", "generic");
+
+        assertEquals(Arrays.asList("postgres", "generic"), repository.getDialects());
+        assertEquals("POSTGRES", repository.getQuery("q1"));
+        assertEquals("GENERIC_Q2", repository.getQuery("Q2"));
+        assertEquals("Q3", repository.getQuery("Q3"));
+        assertEquals("ORACLE", repository.getQuery("oracle.Q1"));
+        assertEquals("SELECT ? FROM PG", repository.getNamedParameterQuery("Q4").getSql());
+        assertTrue(repository.containsQuery("Q5"));
+        assertNull(repository.getQuery("Q6"));
+
+        repository.setDialects("oracle");
+        assertEquals("ORACLE", repository.getQuery("Q1"));
+        assertEquals("SELECT ?", repository.getNamedParameterQuery("Q4").getSql());
+
+        repository.setDialects();
+        assertEquals("GENERIC", repository.getQuery("Q1"));
+    }
+
+    @Test
+    public void testResolutionFollowsChanges() {
+        QueryDefinitionRepository repository = repository();
+        repository.setDialects("postgres");
+        repository.replaceFile("postgres.sqld", properties("postgres.q2", "POSTGRES_Q2"));
+
+        assertEquals("GENERIC", repository.getQuery("Q1"));
+        assertEquals("POSTGRES_Q2", repository.getQuery("Q2"));
+        assertEquals("SELECT ?", repository.getNamedParameterQuery("Q4").getSql());
+        assertFalse(repository.containsQuery("Q5"));
+    }
+
+    @Test
+    public void testLazyDialectQuery() {
+        final AtomicInteger reads = new AtomicInteger();
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("lazy1", "GENERIC"), "generic.sqld");
+        repository.addLazyQueries(
+                Collections.singletonMap("lazy.sqld", new LinkedHashSet<>(Arrays.asList("postgres.lazy1"))),
+                file -> {
+                    reads.incrementAndGet();
+                    return properties("postgres.lazy1", "POSTGRES");
+                });
+        repository.setDialects("postgres");
+
+        assertTrue(repository.containsQuery("LAZY1"));
+        assertEquals(0, reads.get());
+        assertEquals("POSTGRES", repository.getQuery("LAZY1"));
+        assertEquals("POSTGRES", repository.getQuery("LAZY1"));
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void testInvalidDialect() {
+        QueryDefinitionRepository repository = repository();
+        try {
+            repository.setDialects("postgres.9");
+            fail("The invalid dialect has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The dialect 'postgres.9' is not valid", e.getMessage());
+        }
+        assertFalse(repository.getDialects().contains("postgres.9"));
+    }
+
+    private static QueryDefinitionRepository repository() {
+        Map<String, Properties> filesQueries = new LinkedHashMap<>();
+        filesQueries.put("generic.sqld", properties("q1", "GENERIC", "generic.q2", "GENERIC_Q2", "q2", "Q2", "q3", "Q3",
+                "q4", "SELECT :a"));
+        filesQueries.put("postgres.sqld", properties("postgres.q1", "POSTGRES", "postgres.q4", "SELECT :a FROM PG",
+                "postgres.q5", "Q5"));
+        filesQueries.put("oracle.sqld", properties("oracle.q1", "ORACLE"));
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQueries(filesQueries);
+        return repository;
+    }
+}
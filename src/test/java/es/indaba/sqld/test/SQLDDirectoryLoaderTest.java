@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionDirectoryLoader;
+
+public class SQLDDirectoryLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadDirectoryTree() throws Exception {
+        Path root = folder.newFolder("sql").toPath();
+        write(root.resolve("a.sqld"), "QUERY_A {\nSELECT 'a\u00f1o'\n}\n");
+        write(root.resolve("orders/b.ysqld"), "\ufeffquery_b: |\n SELECT 'B'\n");
+        write(root.resolve("orders/deep/er/c.sqld"), "QUERY_C {\nC\n}\n");
+        write(root.resolve("orders/readme.txt"), "QUERY_D {\nD\n}\n");
+
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        // A single thread, the walk must not wait for its own tasks
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(root, repository, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals("SELECT 'a\u00f1o'", repository.getQuery("QUERY_A"));
+        assertEquals("SELECT 'B'\n", repository.getQuery("QUERY_B"));
+        assertEquals("C", repository.getQuery("QUERY_C"));
+        assertFalse(repository.containsQuery("QUERY_D"));
+        assertEquals(3, repository.getProcessedFiles().size());
+        assertTrue(repository.isFileProcessed(root.toAbsolutePath().resolve("orders/deep/er/c.sqld").toString()));
+        assertEquals(3, repository.getMetrics().getParseMicrosByFile().size());
+
+        // Loaded files are skipped
+        write(root.resolve("e.sqld"), "QUERY_E {\nE\n}\n");
+        QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(root, repository);
+        assertEquals("E", repository.getQuery("QUERY_E"));
+        assertEquals(4, repository.getMetrics().getParseMicrosByFile().size());
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        Path root = folder.newFolder("large").toPath();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append("QUERY_").append(i).append(" {\nSELECT * FROM TABLE_").append(i).append("\n}\n");
+        }
+        write(root.resolve("large.sqld"), content.toString());
+
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(root, repository);
+        assertEquals("SELECT * FROM TABLE_0", repository.getQuery("QUERY_0"));
+        assertEquals("SELECT * FROM TABLE_4999", repository.getQuery("QUERY_4999"));
+    }
+
+    @Test
+    public void testDuplicatedKey() throws Exception {
+        Path root = folder.newFolder("duplicated").toPath();
+        write(root.resolve("z/a.ysqld"), "query_a: A\n");
+        write(root.resolve("b.sqld"), "QUERY_B {\nB\n}\n");
+        write(root.resolve("y/a.sqld"), "QUERY_A {\nA\n}\n");
+
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        try {
+            QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(root, repository);
+            fail("The duplicated key has not been detected");
+        } catch (IllegalArgumentException e) {
+            // Text files are merged first, sorted by path
+            Path base = root.toAbsolutePath();
+            assertEquals("The query 'query_a' is duplicated in files " + base.resolve("z/a.ysqld") + " and "
+                    + base.resolve("y/a.sqld"), e.getMessage());
+        }
+        assertFalse(repository.containsQuery("QUERY_B"));
+    }
+
+    @Test
+    public void testMissingDirectory() {
+        try {
+            QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(folder.getRoot().toPath().resolve("missing"),
+                    new QueryDefinitionRepository());
+            fail("The missing directory has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("missing does not exist"));
+        }
+    }
+}
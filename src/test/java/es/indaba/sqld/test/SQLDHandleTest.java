@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import es.indaba.sqld.QueryDefinitionsStaticHolder;
+import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.api.QueryHandle;
+
+public class SQLDHandleTest {
+
+    @Test
+    public void testCanonicalHandles() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "SELECT :a", "q2", "Q2"), "a.sqld");
+
+        QueryHandle handle1 = repository.getHandle("Q1");
+        QueryHandle handle2 = repository.getHandle("q2");
+        assertSame(handle1, repository.getHandle("q1"));
+        assertSame(handle1.getDefinition(), repository.getQueryDefinition("q1"));
+        assertEquals(0, handle1.getIndex());
+        assertEquals(1, handle2.getIndex());
+        assertEquals("Q1", handle1.getKey());
+        assertEquals("SELECT :a", handle1.getQuery());
+        assertEquals("SELECT ?", handle1.getNamedParameterQuery().getSql());
+        assertEquals("Q2", handle2.getDefinition().getQueryAsString());
+        assertEquals(2, repository.getMetrics().getLookupCount("q1"));
+    }
+
+    @Test
+    public void testHandlesFollowChanges() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryHandle handle = repository.getHandle("q1");
+        QueryDefinition definition = handle.getDefinition();
+        assertNull(handle.getQuery());
+        try {
+            definition.getQueryAsString();
+            fail("The missing query has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The query 'q1' is not present", e.getMessage());
+        }
+
+        repository.addQuery(properties("q1", "Q1"), "a.sqld");
+        assertEquals("Q1", definition.getQueryAsString());
+        repository.replaceFile("a.sqld", properties("q1", "Q1_NEW"));
+        assertEquals("Q1_NEW", handle.getQuery());
+        repository.clear();
+        assertNull(handle.getQuery());
+    }
+
+    @Test
+    public void testLazyAndBaseQueries() {
+        QueryDefinitionRepository base = new QueryDefinitionRepository();
+        base.addLazyQueries(Collections.singletonMap("lazy.sqld", new LinkedHashSet<>(Arrays.asList("lazy1"))),
+                file -> properties("lazy1", "LAZY1"));
+        QueryDefinitionRepository overlay = base.createOverlay();
+        overlay.addQuery(properties("q1", "Q1"), "a.sqld");
+
+        QueryHandle lazy = overlay.getHandle("LAZY1");
+        QueryHandle own = overlay.getHandle("q1");
+        assertEquals("LAZY1", lazy.getQuery());
+        assertEquals("LAZY1", lazy.getQuery());
+        assertEquals("Q1", own.getQuery());
+    }
+
+    @Test
+    public void testManyHandles() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        Properties queries = new Properties();
+        for (int i = 0; i < 1000; i++) {
+            queries.setProperty("q" + i, "Q" + i);
+        }
+        repository.addQuery(queries, "a.sqld");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("Q" + i, repository.getHandle("q" + i).getQuery());
+        }
+        assertEquals("Q0", repository.getHandle("q0").getQuery());
+    }
+
+    @Test
+    public void testMissingKeysAreNotRegistered() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryHandle missing = repository.getHandle("q1");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(-1, repository.getHandle("missing" + i).getIndex());
+        }
+        assertEquals(-1, missing.getIndex());
+        assertNull(missing.getQuery());
+        // Shared by the requests of the key, with its definition
+        assertSame(missing, repository.getHandle("Q1"));
+        assertSame(missing.getDefinition(), repository.getQueryDefinition("q1"));
+
+        repository.addQuery(properties("q1", "SELECT :a"), "a.sqld");
+        QueryHandle handle = repository.getHandle("q1");
+        assertEquals(0, handle.getIndex());
+        assertSame(handle, repository.getHandle("Q1"));
+        assertEquals("SELECT :a", missing.getQuery());
+        assertEquals("SELECT ?", missing.getNamedParameterQuery().getSql());
+        assertEquals(2, repository.getMetrics().getLookupCount("q1"));
+        assertEquals(0, repository.getMetrics().getLookupCount("missing0"));
+    }
+
+    @Test
+    public void testReloadsWithLiveHandles() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        Properties queries = new Properties();
+        for (int i = 0; i < 100; i++) {
+            queries.setProperty("q" + i, "SELECT :p" + i);
+        }
+        repository.addQuery(queries, "a.sqld");
+        QueryHandle[] handles = new QueryHandle[100];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = repository.getHandle("q" + i);
+        }
+        // Each reload rebuilds the table of the handles, which must not grow with the number of reloads
+        for (int reload = 0; reload < 1000; reload++) {
+            queries.setProperty("q0", "SELECT :r" + reload);
+            repository.replaceFile("a.sqld", queries);
+            for (int i = 0; i < handles.length; i++) {
+                assertEquals(i == 0 ? "SELECT :r" + reload : "SELECT :p" + i, handles[i].getQuery());
+            }
+            assertEquals("SELECT ?", handles[reload % handles.length].getNamedParameterQuery().getSql());
+        }
+    }
+
+    @Test
+    public void testStaticHolderDefinitionsAreCanonical() {
+        QueryDefinitionsStaticHolder.getDefaultRepository().addQuery(properties("handle_test", "SELECT 1"),
+                "handle-test.sqld");
+        assertSame(QueryDefinitionsStaticHolder.getQueryDefinition("HANDLE_TEST"),
+                QueryDefinitionsStaticHolder.getQueryDefinition("handle_test"));
+        assertSame(QueryDefinitionsStaticHolder.getQueryHandle("HANDLE_TEST").getDefinition(),
+                QueryDefinitionsStaticHolder.getQueryDefinition("HANDLE_TEST"));
+    }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.api.QueryStorage;
+import es.indaba.sqld.impl.parser.TextBlockReader;
+import es.indaba.sqld.impl.parser.YamlFileReader;
+
+public class SQLDIncludeTest {
+
+    @Test
+    public void testIncludesAcrossFiles() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        // The including file is added first
+        repository.addQuery(properties("q1", "SELECT ${COLUMNS} FROM T WHERE ${FILTER}"), "a.sqld");
+        assertEquals("SELECT ${COLUMNS} FROM T WHERE ${FILTER}", repository.getQuery("q1"));
+
+        repository.addQuery(properties("columns", "A, ${extra_columns}", "extra_columns", "B",
+                "filter", "A = :a"), "b.sqld");
+        assertEquals("SELECT A, B FROM T WHERE A = :a", repository.getQuery("q1"));
+        assertEquals("SELECT A, B FROM T WHERE A = ?", repository.getNamedParameterQuery("q1").getSql());
+        assertEquals("A, B", repository.getQuery("columns"));
+        // Lookups return the stored expansion
+        assertSame(repository.getQuery("q1"), repository.getQuery("q1"));
+    }
+
+    @Test
+    public void testIncludeReload() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository(QueryStorage.UTF8, 0);
+        Map<String, Properties> filesQueries = new LinkedHashMap<>();
+        filesQueries.put("a.sqld", properties("q1", "SELECT ${columns} FROM T", "q2", "SELECT ${columns} FROM U"));
+        filesQueries.put("b.sqld", properties("columns", "A"));
+        repository.addQueries(filesQueries);
+        assertEquals("SELECT A FROM T", repository.getQuery("q1"));
+
+        repository.replaceFile("b.sqld", properties("columns", "A, B"));
+        assertEquals("SELECT A, B FROM T", repository.getQuery("q1"));
+        assertEquals("SELECT A, B FROM U", repository.getQuery("q2"));
+
+        repository.removeFile("b.sqld");
+        assertEquals("SELECT ${columns} FROM T", repository.getQuery("q1"));
+    }
+
+    @Test
+    public void testNotIncludes() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "SELECT '${not a key}', '${}', '${1A}' FROM T", "not", "X"), "a.sqld");
+        assertEquals("SELECT '${not a key}', '${}', '${1A}' FROM T", repository.getQuery("q1"));
+    }
+
+    @Test
+    public void testDialectIncludes() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.setDialects("oracle");
+        repository.addQuery(properties("q1", "SELECT * FROM T ${limit}", "oracle.q2", "${q1} -- oracle", "limit",
+                "LIMIT 10", "oracle.limit", "FETCH FIRST 10 ROWS ONLY"), "a.sqld");
+        assertEquals("SELECT * FROM T FETCH FIRST 10 ROWS ONLY", repository.getQuery("q1"));
+        assertEquals("SELECT * FROM T FETCH FIRST 10 ROWS ONLY -- oracle", repository.getQuery("q2"));
+    }
+
+    @Test
+    public void testOverlayIncludesBase() {
+        QueryDefinitionRepository base = new QueryDefinitionRepository();
+        base.addQuery(properties("columns", "A, B"), "a.sqld");
+        QueryDefinitionRepository overlay = base.createOverlay();
+        overlay.addQuery(properties("q1", "SELECT ${columns} FROM T"), "b.sqld");
+        assertEquals("SELECT A, B FROM T", overlay.getQuery("q1"));
+    }
+
+    @Test
+    public void testCyclicIncludes() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "SELECT ${q2}", "q2", "A,\n${q3}"), "a.sqld");
+        try {
+            repository.addQuery(properties("q3", "B, ${Q1}"), "b.sqld");
+            fail("The cycle has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[b.sqld] The query 'q3' includes 'q1' at line 1 of its body, closing the cycle "
+                    + "q1 -> q2 -> q3 -> q1", e.getMessage());
+        }
+        // The repository is left untouched
+        assertFalse(repository.containsQuery("q3"));
+        assertEquals("SELECT A,\n${q3}", repository.getQuery("q1"));
+
+        try {
+            repository.addQuery(properties("q4", "SELECT\n *\n FROM ${q4}"), "c.sqld");
+            fail("The cycle has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[c.sqld] The query 'q4' includes 'q4' at line 3 of its body, closing the cycle q4 -> q4",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCyclicIncludesAtFileLines() throws IOException {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        String text = "-- Columns\nq4 {\n\n  SELECT A,\n    ${Q4}\n}\n";
+        try {
+            repository.addQuery(new TextBlockReader(input(text), "b.sqld").read(), "b.sqld");
+            fail("The cycle has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[b.sqld:5] The query 'q4' includes 'q4', closing the cycle q4 -> q4", e.getMessage());
+        }
+
+        String yaml = "q1: SELECT 1\nq5: |\n  SELECT *\n  FROM ${q5}\n";
+        try {
+            repository.addQuery(new YamlFileReader(input(yaml), "c.ysqld").read(), "c.ysqld");
+            fail("The cycle has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[c.ysqld:4] The query 'q5' includes 'q5', closing the cycle q5 -> q5", e.getMessage());
+        }
+
+        yaml = "q1: SELECT 1\n\nq6: SELECT ${q6}\n";
+        try {
+            repository.addQuery(new YamlFileReader(input(yaml), "d.ysqld").read(), "d.ysqld");
+            fail("The cycle has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[d.ysqld:3] The query 'q6' includes 'q6', closing the cycle q6 -> q6", e.getMessage());
+        }
+    }
+
+    private static ByteArrayInputStream input(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ * 
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+import es.indaba.sqld.impl.loader.QueryDefinitionIndexer;
+
+public class SQLDIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteIndex() throws IOException {
+        Path root = folder.getRoot().toPath();
+        write(root.resolve("idx/pkg/a.sqld"), "INDEXED_QUERY {\n INDEXED_CONTENT\n}\n");
+        write(root.resolve("idx/pkg/sub/b.ysqld"), "indexed_yaml: |\n INDEXED_YAML_CONTENT\n");
+        write(root.resolve("idx/pkg/c.template"), "IGNORED {\n}\n");
+
+        assertEquals(Arrays.asList("idx/pkg/a.sqld", "idx/pkg/sub/b.ysqld"), QueryDefinitionIndexer.writeIndex(root));
+        try (InputStream index = Files.newInputStream(root.resolve(QueryDefinitionIndexer.INDEX_RESOURCE))) {
+            assertEquals(Arrays.asList("idx/pkg/a.sqld", "idx/pkg/sub/b.ysqld"), QueryDefinitionIndexer.readIndex(index));
+        }
+    }
+
+    @Test
+    public void testIndexedJarIsNotScanned() throws IOException {
+        Path jar = folder.getRoot().toPath().resolve("queries.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            add(out, QueryDefinitionIndexer.INDEX_RESOURCE, "idx/jar/a.sqld\n");
+            add(out, "idx/jar/a.sqld", "INDEXED_QUERY {\n INDEXED_CONTENT\n}\n");
+            // Not in the index, it is only found by scanning
+            add(out, "idx/jar/d.sqld", "NOT_INDEXED_QUERY {\n NOT_INDEXED_CONTENT\n}\n");
+        }
+
+        QueryDefinitionRepository repository = load(jar, "idx.jar");
+        assertEquals("INDEXED_CONTENT", repository.getQuery("INDEXED_QUERY"));
+        assertFalse(repository.containsQuery("NOT_INDEXED_QUERY"));
+    }
+
+    @Test
+    public void testIndexedDirectoryIsListed() throws IOException {
+        Path root = folder.getRoot().toPath();
+        write(root.resolve("idx/pkg/a.sqld"), "INDEXED_QUERY {\n INDEXED_CONTENT\n}\n");
+        write(root.resolve("idx/pkg/sub/b.ysqld"), "indexed_yaml: |\n INDEXED_YAML_CONTENT\n");
+        write(root.resolve("idx/other/c.sqld"), "OTHER_PREFIX_QUERY {\n OTHER_CONTENT\n}\n");
+        QueryDefinitionIndexer.writeIndex(root);
+        // Added after the index was written, as an IDE builds the classes directory
+        write(root.resolve("idx/pkg/d.sqld"), "NOT_INDEXED_QUERY {\n NOT_INDEXED_CONTENT\n}\n");
+
+        QueryDefinitionRepository repository = load(root, "idx.pkg");
+        assertEquals("INDEXED_CONTENT", repository.getQuery("INDEXED_QUERY"));
+        assertEquals("INDEXED_YAML_CONTENT\n", repository.getQuery("INDEXED_YAML"));
+        assertFalse(repository.containsQuery("OTHER_PREFIX_QUERY"));
+        assertEquals("NOT_INDEXED_CONTENT", repository.getQuery("NOT_INDEXED_QUERY"));
+        assertTrue(repository.isFileProcessed("idx/pkg/d.sqld"));
+    }
+
+    private static QueryDefinitionRepository load(Path root, String prefix) throws IOException {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {root.toUri().toURL()}, previous)) {
+            thread.setContextClassLoader(classLoader);
+            QueryDefinitionClassPathLoader.loadQueryDefinitionFiles(prefix, repository);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+        return repository;
+    }
+
+    private static void add(JarOutputStream jar, String resource, String content) throws IOException {
+        jar.putNextEntry(new ZipEntry(resource));
+        jar.write(content.getBytes(StandardCharsets.UTF_8));
+        jar.closeEntry();
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ * 
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static es.indaba.sqld.test.SQLDTestSupport.read;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+
+public class SQLDLazyLoaderTest {
+
+    private static final String LAZY = "es/indaba/sqld/test/lazy/lazy.sqld";
+    private static final String COLUMNS = "es/indaba/sqld/test/lazy/columns.sqld";
+    private static final String MORE_COLUMNS = "es/indaba/sqld/test/lazy/more.sqld";
+    private static final String BROKEN = "es/indaba/sqld/test/parser/test-illegal-block.sqld";
+
+    @Test
+    public void testLazyLoad() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.indexQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", repository);
+
+        assertTrue(repository.isFileProcessed("es/indaba/sqld/test/loader/test/package1/read.sqld"));
+        assertTrue(repository.containsQuery("QUERY1"));
+        assertTrue(repository.containsQuery("QUERY_YAML"));
+        assertFalse(repository.containsQuery("QUERY3"));
+
+        assertEquals("QUERY1_CONTENT", repository.getQuery("QUERY1"));
+        assertEquals("QUERY_YAML_CONTENT\n", repository.getQuery("QUERY_YAML"));
+        assertEquals("SELECT * FROM T WHERE A = ? AND B = ? OR A2 = ?",
+                repository.getNamedParameterQuery("QUERY_NAMED").getSql());
+        assertNull(repository.getQuery("QUERY3"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLazyDuplicatedKey() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.indexQueryDefinitionFiles("es.indaba.sqld.test.loader", repository);
+    }
+
+    @Test
+    public void testConcurrentFirstRequests() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch reading = new CountDownLatch(1);
+        final QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        Set<String> keys = new LinkedHashSet<>(Arrays.asList("lazy1", "lazy2"));
+        repository.addLazyQueries(Collections.singletonMap(LAZY, keys), file -> {
+            reads.incrementAndGet();
+            try {
+                reading.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return read(file);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final String key = i % 2 == 0 ? "LAZY1" : "LAZY2";
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return repository.getQuery(key);
+                    }
+                }));
+            }
+            reading.countDown();
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i % 2 == 0 ? "LAZY1_CONTENT" : "LAZY2_CONTENT", results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void testIncludesOfLazyFiles() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        Map<String, Set<String>> filesKeys = new HashMap<>();
+        filesKeys.put(COLUMNS, Collections.singleton("columns"));
+        filesKeys.put(MORE_COLUMNS, Collections.singleton("more_columns"));
+        repository.addLazyQueries(filesKeys, SQLDTestSupport::read);
+        repository.addQuery(properties("select", "SELECT ${COLUMNS} FROM T WHERE ID = :id"), "select.sqld");
+
+        assertEquals("SELECT ${COLUMNS} FROM T WHERE ID = :id", repository.getQuery("SELECT"));
+        long version = repository.getVersion();
+        assertEquals("A, ${MORE_COLUMNS}", repository.getQuery("COLUMNS"));
+        assertNotEquals(version, repository.getVersion());
+        assertEquals("SELECT A, ${MORE_COLUMNS} FROM T WHERE ID = :id", repository.getQuery("SELECT"));
+
+        assertEquals("B", repository.getQuery("MORE_COLUMNS"));
+        assertEquals("A, B", repository.getQuery("COLUMNS"));
+        assertEquals("SELECT A, B FROM T WHERE ID = ?", repository.getNamedParameterQuery("SELECT").getSql());
+
+        // A file added later expands the loaded lazy files again
+        repository.addQuery(properties("other", "SELECT ${COLUMNS} FROM U"), "other.sqld");
+        assertEquals("SELECT A, B FROM U", repository.getQuery("OTHER"));
+        assertEquals("SELECT A, B FROM T WHERE ID = ?", repository.getNamedParameterQuery("SELECT").getSql());
+        assertEquals("A, B", repository.getQuery("COLUMNS"));
+    }
+
+    @Test
+    public void testLazyFileErrorsAreReadOnce() {
+        AtomicInteger reads = new AtomicInteger();
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addLazyQueries(Collections.singletonMap(BROKEN, Collections.singleton("illegal_block_test")),
+                file -> {
+                    reads.incrementAndGet();
+                    return read(file);
+                });
+        assertNull(repository.getQuery("ILLEGAL_BLOCK_TEST"));
+        assertNull(repository.getQuery("ILLEGAL_BLOCK_TEST"));
+        assertEquals(1, reads.get());
+        assertTrue(repository.isFileProcessed(BROKEN));
+    }
+
+    @Test
+    public void testLazyLoadKeepsVersion() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addLazyQueries(Collections.singletonMap(LAZY, new HashSet<>(Arrays.asList("lazy1", "lazy2"))),
+                SQLDTestSupport::read);
+        long version = repository.getVersion();
+        assertEquals("LAZY1_CONTENT", repository.getQuery("LAZY1"));
+        // Nothing was waiting for the file, so the contents did not change
+        assertEquals(version, repository.getVersion());
+        assertEquals(2, repository.getMetrics().getQueryCount());
+
+        repository.removeFile(LAZY);
+        assertNull(repository.getQuery("LAZY1"));
+        assertEquals(0, repository.getMetrics().getQueryCount());
+    }
+}
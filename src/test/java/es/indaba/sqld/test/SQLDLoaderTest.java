@@ -10,12 +10,26 @@
 package es.indaba.sqld.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
 import es.indaba.sqld.QueryDefinitionsStaticHolder;
 import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+import es.indaba.sqld.impl.parser.TextBlockReader;
 
 public class SQLDLoaderTest {
 
@@ -33,6 +47,10 @@ public class SQLDLoaderTest {
         assertEquals(querySubs.getQueryAsString(), querySubs.toString());
         assertEquals("QUERY_SUBSTITUTION a,'b',3", querySubs.getQueryAsString("a", "'b'", 3));
 
+        QueryDefinition queryNamed = QueryDefinitionsStaticHolder.getQueryDefinition("QUERY_NAMED");
+        assertEquals("SELECT * FROM T WHERE A = ? AND B = ? OR A2 = ?", queryNamed.getNamedParameterQuery().getSql());
+        assertEquals(3, queryNamed.getNamedParameterQuery().getParameterCount());
+
         QueryDefinition queryYaml = QueryDefinitionsStaticHolder.getQueryDefinition("QUERY_YAML");
         assertEquals("QUERY_YAML_CONTENT\n", queryYaml.getQueryAsString());
 
@@ -72,6 +90,59 @@ public class SQLDLoaderTest {
     }
 
 
+    @Test
+    public void testParallelLoadReportsDuplicatesInOrder() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 5; i++) {
+                QueryDefinitionRepository repository = new QueryDefinitionRepository();
+                try {
+                    QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader", repository,
+                            executor);
+                    fail("Duplicated keys not detected");
+                } catch (IllegalArgumentException e) {
+                    assertTrue(e.getMessage().endsWith("in files es/indaba/sqld/test/loader/test/package1/read.sqld"
+                            + " and es/indaba/sqld/test/loader/duplicated/read.sqld"));
+                }
+                assertFalse(repository.containsQuery("QUERY1"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOverlappingLoadsSkipLoadedFiles() throws Exception {
+        String prefix = "es.indaba.sqld.test.loader.test.package1";
+        String resource = "es/indaba/sqld/test/loader/test/package1/read.sqld";
+        ExecutorService loads = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 5; i++) {
+                QueryDefinitionRepository repository = new QueryDefinitionRepository();
+                List<Future<?>> running = new ArrayList<>();
+                for (int j = 0; j < 4; j++) {
+                    running.add(loads.submit(
+                            () -> QueryDefinitionClassPathLoader.loadQueryDefinitionFiles(prefix, repository)));
+                }
+                for (Future<?> load : running) {
+                    load.get();
+                }
+                assertEquals("QUERY1_CONTENT", repository.getQuery("QUERY1"));
+
+                // A load that listed the file before it was loaded
+                long version = repository.getVersion();
+                Properties queries;
+                try (InputStream stream = getClass().getClassLoader().getResourceAsStream(resource)) {
+                    queries = new TextBlockReader(stream, resource).read();
+                }
+                repository.addQueries(Collections.singletonMap(resource, queries));
+                assertEquals(version, repository.getVersion());
+            }
+        } finally {
+            loads.shutdown();
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testDuplicatedKey() {
         QueryDefinitionsStaticHolder.loadQueryDefinitions("es.indaba.sqld.test.loader");
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinitionListener;
+import es.indaba.sqld.api.QueryDefinitionMetrics;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+
+public class SQLDMetricsTest {
+
+    private static final String PACKAGE1 = "es/indaba/sqld/test/loader/test/package1/read.sqld";
+
+    @Test
+    public void testLookupCounters() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", repository);
+        QueryDefinitionMetrics metrics = repository.getMetrics();
+
+        repository.getQuery("QUERY1");
+        repository.getQuery("query1");
+        repository.getQuery("QUERY_YAML");
+        repository.getQuery("QUERY3");
+
+        assertEquals(4, metrics.getLookupCount());
+        assertEquals(2, metrics.getLookupCount("QUERY1"));
+        assertEquals(1, metrics.getMissingQueryCount());
+        // Missing keys are only counted together
+        assertFalse(metrics.getLookupCountByKey().containsKey("query3"));
+        assertEquals(0, metrics.getLookupCount("QUERY3"));
+
+        metrics.resetLookupCounts();
+        assertEquals(0, metrics.getLookupCount());
+        assertEquals(0, metrics.getMissingQueryCount());
+    }
+
+    @Test
+    public void testLoadCounters() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", repository);
+        QueryDefinitionMetrics metrics = repository.getMetrics();
+
+        assertEquals(2, metrics.getFileCount());
+        assertEquals(repository.getProcessedFiles().size(), metrics.getBytesByFile().size());
+        assertTrue(metrics.getBytesByFile().get(PACKAGE1) > 0);
+        assertTrue(metrics.getParseMicrosByFile().containsKey(PACKAGE1));
+        assertTrue(metrics.getQueryCount() >= 4);
+        assertTrue(metrics.getEstimatedMemoryBytes() > 0);
+
+        repository.clear();
+        assertEquals(0, metrics.getQueryCount());
+        assertEquals(0, metrics.getEstimatedMemoryBytes());
+    }
+
+    @Test
+    public void testListener() {
+        final List<String> events = new ArrayList<>();
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.getMetrics().addListener(new QueryDefinitionListener() {
+            @Override
+            public void queryRequested(String key, boolean found) {
+                events.add("lookup " + key + " " + found);
+            }
+
+            @Override
+            public void fileParsed(String file, long bytes, long nanos, int queries) {
+                events.add("parsed " + file + " " + queries);
+            }
+
+            @Override
+            public void catalogChanged(int queries, int files, long estimatedBytes) {
+                events.add("catalog " + queries + " " + files);
+            }
+        });
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", repository);
+        repository.getQuery("QUERY1");
+        repository.getQuery("QUERY3");
+
+        assertTrue(events.toString(), events.contains("parsed " + PACKAGE1 + " 4"));
+        assertEquals("lookup query1 true", events.get(events.size() - 2));
+        assertEquals("lookup query3 false", events.get(events.size() - 1));
+        assertTrue(events.toString(), events.get(events.size() - 3).startsWith("catalog "));
+    }
+
+    @Test
+    public void testListenerOutOfWriteLock() throws Exception {
+        final QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.getMetrics().addListener(new QueryDefinitionListener() {
+            @Override
+            public void catalogChanged(int queries, int files, long estimatedBytes) {
+                if (files == 1) {
+                    // Another thread can change the repository while the listener runs
+                    Thread writer = new Thread(() -> repository.fileLoaded("b.sqld"));
+                    writer.start();
+                    try {
+                        writer.join(10000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        repository.fileLoaded("a.sqld");
+        assertEquals(2, repository.getProcessedFiles().size());
+        assertEquals(2, repository.getMetrics().getFileCount());
+    }
+
+    @Test
+    public void testEstimatedBytesFollowChanges() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionMetrics metrics = repository.getMetrics();
+        Properties queries = new Properties();
+        queries.setProperty("q1", "SELECT 1");
+        repository.addQuery(queries, "a.sqld");
+        long oneQuery = metrics.getEstimatedMemoryBytes();
+        assertTrue(oneQuery > 0);
+
+        queries.setProperty("q2", "SELECT 2");
+        repository.replaceFile("a.sqld", queries);
+        assertEquals(2 * oneQuery, metrics.getEstimatedMemoryBytes());
+        assertEquals(2, metrics.getQueryCount());
+
+        repository.removeFile("a.sqld");
+        assertEquals(0, metrics.getEstimatedMemoryBytes());
+        assertEquals(0, metrics.getQueryCount());
+    }
+
+    @Test
+    public void testFailingListenerIsIgnored() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.getMetrics().addListener(new QueryDefinitionListener() {
+            @Override
+            public void queryRequested(String key, boolean found) {
+                throw new IllegalStateException("Failing listener");
+            }
+        });
+        assertEquals(null, repository.getQuery("QUERY1"));
+        assertEquals(1, repository.getMetrics().getMissingQueryCount());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", repository);
+        repository.getQuery("QUERY1");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = repository.getMetrics().registerMBean("es.indaba.sqld:type=QueryDefinitionMetrics,name=test");
+        try {
+            assertEquals(1L, server.getAttribute(name, "LookupCount"));
+            assertEquals(2, server.getAttribute(name, "FileCount"));
+            TabularData lookups = (TabularData) server.getAttribute(name, "LookupCountByKey");
+            assertEquals(1, lookups.size());
+            Map<?, ?> bytes = toMap((TabularData) server.getAttribute(name, "BytesByFile"));
+            assertTrue(bytes.containsKey(PACKAGE1));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static Map<?, ?> toMap(TabularData data) {
+        Map<Object, Object> map = new HashMap<>();
+        for (Object row : data.values()) {
+            CompositeData composite = (CompositeData) row;
+            map.put(composite.get("key"), composite.get("value"));
+        }
+        return map;
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinition;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+
+public class SQLDOverlayTest {
+
+    @Test
+    public void testOverlaysShareTheBase() {
+        QueryDefinitionRepository base = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", base);
+        QueryDefinitionRepository module1 = base.createOverlay();
+        QueryDefinitionRepository module2 = base.createOverlay();
+        module1.addQueries(Collections.singletonMap("module1.sqld", properties("q1", "M1", "query2", "M1_QUERY2")));
+        module2.addQueries(Collections.singletonMap("module2.sqld", properties("q1", "M2", "q2", "SELECT :a")));
+
+        assertTrue(base.isFrozen());
+        assertSame(base, module1.getBase());
+        assertSame(base.getQuery("QUERY1"), module1.getQuery("QUERY1"));
+        assertSame(base.getQuery("QUERY1"), module2.getQuery("QUERY1"));
+        assertEquals("M1", module1.getQuery("q1"));
+        assertEquals("M2", module2.getQuery("q1"));
+        assertEquals("M1_QUERY2", module1.getQuery("QUERY2"));
+        assertEquals("QUERY2_CONTENT", module2.getQuery("QUERY2"));
+        assertNull(base.getQuery("q1"));
+        assertFalse(base.containsQuery("q1"));
+        assertTrue(module2.containsQuery("QUERY_NAMED"));
+
+        assertEquals("SELECT * FROM T WHERE A = ? AND B = ? OR A2 = ?",
+                module1.getNamedParameterQuery("QUERY_NAMED").getSql());
+        assertEquals("SELECT ?", module2.getNamedParameterQuery("q2").getSql());
+        assertEquals(1, module1.getMetrics().getLookupCount("query_named"));
+        assertEquals(0, base.getMetrics().getLookupCount("query_named"));
+    }
+
+    @Test
+    public void testBaseFilesAreNotLoadedAgain() {
+        QueryDefinitionRepository base = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", base);
+        QueryDefinitionRepository overlay = base.createOverlay();
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", overlay);
+
+        assertTrue(overlay.getProcessedFiles().isEmpty());
+        assertEquals("QUERY1_CONTENT", overlay.getQuery("QUERY1"));
+    }
+
+    @Test
+    public void testFrozenBase() {
+        QueryDefinitionRepository base = new QueryDefinitionRepository();
+        base.addQuery(properties("q1", "Q1"), "a.sqld");
+        base.createOverlay();
+        try {
+            base.addQuery(properties("q2", "Q2"), "b.sqld");
+            fail("The frozen repository has been modified");
+        } catch (IllegalStateException e) {
+            assertEquals("The query repository is frozen", e.getMessage());
+        }
+        try {
+            base.clear();
+            fail("The frozen repository has been cleared");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals("Q1", base.getQuery("q1"));
+    }
+
+    @Test
+    public void testQueryDefinitionFollowsOverlayChanges() {
+        QueryDefinitionRepository base = new QueryDefinitionRepository();
+        base.addQuery(properties("q1", "Q1"), "a.sqld");
+        QueryDefinitionRepository overlay = base.createOverlay();
+        QueryDefinition query = overlay.getQueryDefinition("q1");
+        assertEquals("Q1", query.getQueryAsString());
+
+        long version = overlay.getVersion();
+        overlay.addQuery(properties("q1", "Q1_OVERLAY"), "b.sqld");
+        assertNotEquals(version, overlay.getVersion());
+        assertEquals("Q1_OVERLAY", query.getQueryAsString());
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+import es.indaba.sqld.test.regression.QueryRegressionHarness;
+import es.indaba.sqld.test.regression.QueryRegressionHarness.QueryMeasurement;
+
+/**
+ * Runs the queries of <tt>es.indaba.sqld.test.regression</tt> against an H2 database and compares them with the
+ * stored baseline. Run with <tt>-Dsqld.regression.update=true</tt> to write a new baseline.
+ *
+ * <P> The stored baseline has only the plans, so only the plans are gated: its times would come from another machine.
+ * The slowdown check is tested against a baseline with made up times.
+ */
+public class SQLDRegressionTest {
+
+    private static final String BASELINE = "es/indaba/sqld/test/regression/baseline.properties";
+    private static final double MAX_SLOWDOWN = 10;
+    private static final long MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static String url;
+    private static Map<String, QueryMeasurement> measurements;
+
+    @BeforeClass
+    public static void measure() throws Exception {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.regression", repository);
+
+        // A database of its own, so a run never sees the objects of another
+        url = "jdbc:h2:mem:sqld_regression_" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        QueryRegressionHarness harness = new QueryRegressionHarness(url, repository);
+        harness.runScript("es/indaba/sqld/test/regression/schema.sql");
+        harness.setParameters("CUSTOMER_BY_ID", Collections.singletonMap("id", 10));
+        harness.setParameters("CUSTOMERS_BY_CITY", Collections.singletonMap("city", "CITY 7"));
+        Map<String, Object> rename = new HashMap<>();
+        rename.put("id", 10);
+        rename.put("name", "RENAMED");
+        harness.setParameters("RENAME_CUSTOMER", rename);
+        measurements = harness.measure(repository.getKeys(""), 4);
+
+        if (Boolean.getBoolean("sqld.regression.update")) {
+            QueryRegressionHarness.writeBaseline(Paths.get("src/test/resources", BASELINE), measurements, false);
+        }
+    }
+
+    @AfterClass
+    public static void dropDatabase() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url);
+                Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    @Test
+    public void testBaseline() throws IOException {
+        assertEquals(4, measurements.size());
+        List<String> failures =
+                QueryRegressionHarness.compare(baseline(), measurements, MAX_SLOWDOWN, MARGIN_NANOS);
+        assertEquals("", String.join("\n\n", failures));
+    }
+
+    @Test
+    public void testPlanChange() throws IOException {
+        Map<String, QueryMeasurement> baseline = baseline();
+        QueryMeasurement byCity = baseline.get("customers_by_city");
+        // As if the index on the city were not used
+        baseline.put("customers_by_city", new QueryMeasurement(byCity.getKey(), byCity.getNanos(),
+                byCity.getPlan().replace("IDX_CUSTOMER_CITY: CITY = ?1", "CUSTOMER.tableScan")));
+
+        List<String> failures = QueryRegressionHarness.compare(baseline, measurements, MAX_SLOWDOWN, MARGIN_NANOS);
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0), failures.get(0).startsWith("The plan of the query 'customers_by_city' has"));
+    }
+
+    @Test
+    public void testSlowdown() throws IOException {
+        Map<String, QueryMeasurement> baseline = new TreeMap<>();
+        for (QueryMeasurement measurement : baseline().values()) {
+            baseline.put(measurement.getKey(), new QueryMeasurement(measurement.getKey(), 1, measurement.getPlan()));
+        }
+        assertEquals(4, QueryRegressionHarness.compare(baseline, measurements, MAX_SLOWDOWN, 0).size());
+        assertTrue(QueryRegressionHarness.compare(baseline, measurements, MAX_SLOWDOWN, MARGIN_NANOS).isEmpty());
+    }
+
+    @Test
+    public void testMissingBaseline() {
+        List<String> failures = QueryRegressionHarness.compare(Collections.<String, QueryMeasurement>emptyMap(),
+                measurements, MAX_SLOWDOWN, MARGIN_NANOS);
+        assertEquals(4, failures.size());
+        assertEquals("The query 'amount_by_city' is not in the baseline", failures.get(0));
+    }
+
+    private static Map<String, QueryMeasurement> baseline() throws IOException {
+        try (Reader input = new InputStreamReader(
+                SQLDRegressionTest.class.getClassLoader().getResourceAsStream(BASELINE), StandardCharsets.ISO_8859_1)) {
+            return QueryRegressionHarness.readBaseline(input);
+        }
+    }
+}
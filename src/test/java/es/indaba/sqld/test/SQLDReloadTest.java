@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static es.indaba.sqld.test.SQLDTestSupport.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+import es.indaba.sqld.impl.loader.QueryDefinitionDirectoryLoader;
+import es.indaba.sqld.impl.loader.QueryDefinitionFileWatcher;
+
+public class SQLDReloadTest {
+
+    private static final long WAIT_MILLIS = 20000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplaceFile() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQueries(Collections.singletonMap("a.sqld", properties("q1", "Q1", "q2", "SELECT :p")));
+        repository.addQueries(Collections.singletonMap("b.sqld", properties("q3", "Q3")));
+        long version = repository.getVersion();
+
+        repository.replaceFile("a.sqld", properties("q1", "Q1_NEW", "q4", "SELECT :n"));
+        assertNotEquals(version, repository.getVersion());
+        assertEquals("Q1_NEW", repository.getQuery("q1"));
+        assertNull(repository.getQuery("q2"));
+        assertNull(repository.getNamedParameterQuery("q2"));
+        assertEquals("SELECT ?", repository.getNamedParameterQuery("q4").getSql());
+        assertEquals("Q3", repository.getQuery("q3"));
+
+        repository.removeFile("a.sqld");
+        assertFalse(repository.containsQuery("q1"));
+        assertFalse(repository.isFileProcessed("a.sqld"));
+        assertTrue(repository.isFileProcessed("b.sqld"));
+    }
+
+    @Test
+    public void testReplaceFileWithDuplicateKeepsPreviousQueries() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "Q1"), "a.sqld");
+        repository.addQuery(properties("q2", "Q2"), "b.sqld");
+        long version = repository.getVersion();
+        try {
+            repository.replaceFile("a.sqld", properties("q2", "Q2_DUPLICATED"));
+            fail("The duplicated key has not been detected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(version, repository.getVersion());
+        assertEquals("Q1", repository.getQuery("q1"));
+        assertEquals("Q2", repository.getQuery("q2"));
+    }
+
+    @Test
+    public void testVersionIsNotReusedAfterClear() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        repository.addQuery(properties("q1", "Q1"), "a.sqld");
+        long version = repository.getVersion();
+        repository.clear();
+        assertTrue(repository.getVersion() > version);
+    }
+
+    @Test
+    public void testWatcherReloadsModifiedFiles() throws Exception {
+        File root = folder.getRoot();
+        Path file = root.toPath().resolve("reload/test/watched.sqld");
+        Files.createDirectories(file.getParent());
+        write(file, "WATCHED {\nFIRST\n}\n");
+
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {root.toURI().toURL()}, previous)) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("reload.test", repository);
+            assertEquals("FIRST", repository.getQuery("WATCHED"));
+
+            try (QueryDefinitionFileWatcher watcher = QueryDefinitionFileWatcher.watch(repository, classLoader)) {
+                write(file, "WATCHED {\nSECOND\n}\n");
+                waitFor(() -> "SECOND".equals(repository.getQuery("WATCHED")));
+
+                write(file, "WATCHED! {\nBROKEN\n}\n");
+                write(file.resolveSibling("added.sqld"), "ADDED {\nTHIRD\n}\n");
+                waitFor(() -> repository.containsQuery("ADDED"));
+                assertEquals("SECOND", repository.getQuery("WATCHED"));
+
+                Files.delete(file);
+                waitFor(() -> !repository.containsQuery("WATCHED"));
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+        }
+    }
+
+    @Test
+    public void testWatcherReloadsDirectoryFiles() throws Exception {
+        Path root = folder.newFolder("mounted").toPath();
+        Path file = root.resolve("orders/watched.ysqld");
+        Files.createDirectories(file.getParent());
+        write(file, "watched: FIRST\n");
+
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        QueryDefinitionDirectoryLoader.loadQueryDefinitionFiles(root, repository);
+        assertEquals("FIRST", repository.getQuery("WATCHED"));
+
+        // The files are registered by their path, not found in the class loader
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try (QueryDefinitionFileWatcher watcher = QueryDefinitionFileWatcher.watch(repository, classLoader)) {
+            write(file, "watched: SECOND\n");
+            waitFor(() -> "SECOND".equals(repository.getQuery("WATCHED")));
+            assertEquals(Collections.singleton(file.toAbsolutePath().normalize().toString()),
+                    repository.getProcessedFiles());
+
+            write(file.resolveSibling("added.sqld"), "ADDED {\nTHIRD\n}\n");
+            waitFor(() -> repository.containsQuery("ADDED"));
+            assertTrue(repository.isFileProcessed(file.resolveSibling("added.sqld").toAbsolutePath().toString()));
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The change has not been reloaded");
+            }
+            Thread.sleep(50);
+        }
+    }
+}
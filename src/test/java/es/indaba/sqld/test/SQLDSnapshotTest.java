@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+
+public class SQLDSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotOfDirectory() throws Exception {
+        File root = folder.newFolder("classes");
+        Path file = root.toPath().resolve("snapshot/test/a.sqld");
+        Files.createDirectories(file.getParent());
+        write(file, "QUERY_A {\nSELECT 'a\u00f1o'\n}\nQUERY_B {\nB\n}\n");
+        Path snapshot = folder.getRoot().toPath().resolve("cache/queries.snapshot");
+
+        QueryDefinitionRepository parsed = load(root, snapshot);
+        assertTrue(Files.isRegularFile(snapshot));
+        assertEquals(1, parsed.getMetrics().getParseMicrosByFile().size());
+
+        QueryDefinitionRepository restored = load(root, snapshot);
+        assertTrue(restored.getMetrics().getParseMicrosByFile().isEmpty());
+        assertEquals("SELECT 'a\u00f1o'", restored.getQuery("QUERY_A"));
+        assertEquals("B", restored.getQuery("QUERY_B"));
+        assertTrue(restored.isFileProcessed("snapshot/test/a.sqld"));
+
+        write(file, "QUERY_A {\nSELECT 2\n}\n");
+        QueryDefinitionRepository outdated = load(root, snapshot);
+        assertEquals(1, outdated.getMetrics().getParseMicrosByFile().size());
+        assertEquals("SELECT 2", outdated.getQuery("QUERY_A"));
+        assertEquals("SELECT 2", load(root, snapshot).getQuery("QUERY_A"));
+    }
+
+    @Test
+    public void testSnapshotOfJar() throws Exception {
+        File jar = folder.newFile("queries.jar");
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            output.putNextEntry(new ZipEntry("snapshot/test/b.sqld"));
+            output.write("QUERY_C {\nC\n}\n".getBytes(StandardCharsets.UTF_8));
+            output.closeEntry();
+        }
+        Path snapshot = folder.getRoot().toPath().resolve("jar.snapshot");
+
+        load(jar, snapshot);
+        QueryDefinitionRepository restored = load(jar, snapshot);
+        assertTrue(restored.getMetrics().getParseMicrosByFile().isEmpty());
+        assertEquals("C", restored.getQuery("QUERY_C"));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws Exception {
+        File root = folder.newFolder("classes");
+        Path file = root.toPath().resolve("snapshot/test/a.sqld");
+        Files.createDirectories(file.getParent());
+        write(file, "QUERY_A {\nA\n}\n");
+        Path snapshot = folder.getRoot().toPath().resolve("queries.snapshot");
+        load(root, snapshot);
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length - 6] ^= 0x20;
+        Files.write(snapshot, bytes);
+        QueryDefinitionRepository repository = load(root, snapshot);
+        assertEquals(1, repository.getMetrics().getParseMicrosByFile().size());
+        assertEquals("A", repository.getQuery("QUERY_A"));
+
+        try (OutputStream output = Files.newOutputStream(snapshot)) {
+            output.write(new byte[] {1, 2, 3});
+        }
+        assertEquals("A", load(root, snapshot).getQuery("QUERY_A"));
+    }
+
+    private static QueryDefinitionRepository load(File root, Path snapshot) throws Exception {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {root.toURI().toURL()}, previous)) {
+            Thread.currentThread().setContextClassLoader(classLoader);
+            QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("snapshot.test", repository,
+                    ForkJoinPool.commonPool(), snapshot);
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+        }
+        return repository;
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import static es.indaba.sqld.test.SQLDTestSupport.properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import es.indaba.sqld.api.QueryDefinitionRepository;
+import es.indaba.sqld.api.QueryStorage;
+import es.indaba.sqld.impl.loader.QueryDefinitionClassPathLoader;
+
+public class SQLDStorageTest {
+
+    @Test
+    public void testUtf8Storage() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository(QueryStorage.UTF8, 0);
+        QueryDefinitionClassPathLoader.loadQueryDefinitionFiles("es.indaba.sqld.test.loader.test.package1", repository);
+
+        assertEquals(QueryStorage.UTF8, repository.getStorage());
+        assertEquals("QUERY1_CONTENT", repository.getQuery("QUERY1"));
+        assertEquals("QUERY_YAML_CONTENT\n", repository.getQuery("QUERY_YAML"));
+        assertEquals("SELECT * FROM T WHERE A = ? AND B = ? OR A2 = ?",
+                repository.getNamedParameterQuery("QUERY_NAMED").getSql());
+        assertNull(repository.getQuery("QUERY3"));
+        // Without cache every lookup builds its string
+        assertNotSame(repository.getQuery("QUERY1"), repository.getQuery("QUERY1"));
+    }
+
+    @Test
+    public void testUtf8NonAsciiQueries() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository(QueryStorage.UTF8, 16);
+        repository.addQuery(properties("q1", "SELECT 'a\u00f1o \u20ac \ud83d\ude00'"), "a.sqld");
+        assertEquals("SELECT 'a\u00f1o \u20ac \ud83d\ude00'", repository.getQuery("q1"));
+    }
+
+    @Test
+    public void testHotKeysCache() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository(QueryStorage.UTF8, 16);
+        repository.addQuery(properties("q1", "Q1"), "a.sqld");
+
+        String query = repository.getQuery("q1");
+        assertSame(query, repository.getQuery("Q1"));
+
+        repository.replaceFile("a.sqld", properties("q1", "Q1_NEW"));
+        assertEquals("Q1_NEW", repository.getQuery("q1"));
+    }
+
+    @Test
+    public void testUtf8NamedParameters() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository(QueryStorage.UTF8, 16);
+        repository.addQuery(properties("q1", "SELECT * FROM T WHERE A = :a", "q2", "SELECT ${Q1} AND B = :b"), "a.sqld");
+
+        // Parsed on request and kept with the cached string of the key
+        assertEquals("SELECT * FROM T WHERE A = ?", repository.getNamedParameterQuery("q1").getSql());
+        assertSame(repository.getNamedParameterQuery("q1"), repository.getNamedParameterQuery("Q1"));
+        assertEquals("SELECT SELECT * FROM T WHERE A = ? AND B = ?",
+                repository.getNamedParameterQuery("q2").getSql());
+
+        repository.replaceFile("a.sqld", properties("q1", "SELECT * FROM T WHERE C = :c"));
+        assertEquals("SELECT * FROM T WHERE C = ?", repository.getNamedParameterQuery("q1").getSql());
+    }
+
+    @Test
+    public void testIdenticalBodies() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository();
+        Map<String, Properties> filesQueries = new LinkedHashMap<>();
+        filesQueries.put("a.sqld", properties("q1", new String("SELECT 1"), "q2", "SELECT 2"));
+        filesQueries.put("b.sqld", properties("q3", new String("SELECT 1")));
+        repository.addQueries(filesQueries);
+
+        assertSame(repository.getQuery("q1"), repository.getQuery("q3"));
+        assertEquals("SELECT 2", repository.getQuery("q2"));
+        assertTrue(repository.isFileProcessed("b.sqld"));
+    }
+
+    @Test
+    public void testDuplicatedKeyReportsFile() {
+        QueryDefinitionRepository repository = new QueryDefinitionRepository(QueryStorage.UTF8, 0);
+        repository.addQuery(properties("q1", "Q1", "q2", "Q2"), "a.sqld");
+        try {
+            repository.addQuery(properties("q2", "Q2"), "b.sqld");
+            fail("The duplicated key has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("The query 'q2' is duplicated in files b.sqld and a.sqld", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ * 
+ *******************************************************************************/
+package es.indaba.sqld.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import es.indaba.sqld.impl.parser.TextBlockReader;
+
+/**
+ * Helpers shared by the tests
+ */
+final class SQLDTestSupport {
+
+    private SQLDTestSupport() {
+        // Avoid instances of this Utility Class
+    }
+
+    /**
+     * @param keysAndValues - the keys, each followed by its query
+     * @return the queries
+     */
+    static Properties properties(String... keysAndValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return properties;
+    }
+
+    /**
+     * Parses a <tt>.sqld</tt> fixture of the test class path, as the loaders do
+     *
+     * @param resource - the resource path
+     * @return the queries of the fixture
+     */
+    static Properties read(String resource) {
+        try (InputStream stream = SQLDTestSupport.class.getClassLoader().getResourceAsStream(resource)) {
+            if (stream == null) {
+                throw new IllegalArgumentException("The fixture " + resource + " has not been found");
+            }
+            return new TextBlockReader(stream, resource).read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a file in UTF-8, creating its directories
+     *
+     * @param file - the file
+     * @param content - the content
+     */
+    static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,8 +3,15 @@ package es.indaba.sqld.test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Properties;
 
 import org.junit.Test;
@@ -35,6 +42,15 @@ public class TestSQLDParser {
     }
 
 
+    @Test
+    public void testReadKeys() throws Exception {
+        InputStream stream = this.getClass().getClassLoader().getResourceAsStream("es/indaba/sqld/test/parser/test.sqld");
+
+        TextBlockReader sqlReader = new TextBlockReader(stream, "es/indaba/sqld/test/parser/test.sqld");
+        assertEquals(Arrays.asList("query1", "query2", "contains_0_number", "ends_with_number_0", "obtenerprimaport"),
+                new ArrayList<>(sqlReader.readKeys()));
+    }
+
     @Test
     public void testCaseInsensitiveKeys() throws Exception {
         InputStream stream = this.getClass().getClassLoader().getResourceAsStream("es/indaba/sqld/test/parser/test.sqld");
@@ -103,5 +119,40 @@ public class TestSQLDParser {
         TextBlockReader sqlReader = new TextBlockReader(stream, "es/indaba/sqld/test/parser/test-empty-key.sqld");
         sqlReader.read();
     }
-}
 
+    @Test
+    public void testLineSeparators() throws Exception {
+        String content = "-- windows\r\nQUERY1 {\r\nSELECT *\r\n\r\n  FROM T\r\n}\r\nQUERY2 {\rSELECT 2\r-- skipped\rFROM T\r}";
+        InputStream stream = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+
+        Properties blocks = new TextBlockReader(stream, "separators.sqld").read();
+        assertEquals("SELECT *\n\n  FROM T", blocks.getProperty("query1"));
+        assertEquals("SELECT 2\nFROM T", blocks.getProperty("query2"));
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        String content = "QUERY1 {\nSELECT 'a\u00f1o \u20ac'\n}\n";
+
+        ByteBuffer utf8 = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        assertEquals("SELECT 'a\u00f1o \u20ac'",
+                new TextBlockReader(utf8, "utf8.sqld", StandardCharsets.UTF_8).read().getProperty("query1"));
+
+        byte[] latin1Content = content.replace('\u20ac', 'E').getBytes(StandardCharsets.ISO_8859_1);
+        InputStream latin1 = new ByteArrayInputStream(latin1Content);
+        assertEquals("SELECT 'a\u00f1o E'",
+                new TextBlockReader(latin1, "latin1.sqld", StandardCharsets.ISO_8859_1).read().getProperty("query1"));
+    }
+
+    @Test
+    public void testErrorLineNumber() throws Exception {
+        String content = "QUERY1 {\nSELECT 1\n}\n\n-- comment\n2QUERY {\nSELECT 2\n}\n";
+        InputStream stream = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        try {
+            new TextBlockReader(stream, "lines.sqld").read();
+            fail("The illegal key has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("[lines.sqld:6] The name '2QUERY'"));
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package es.indaba.sqld.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Properties;
 
 import org.junit.Assert;
@@ -28,6 +33,14 @@ public class TestYamlParser {
         assertEquals("QUERY2_CONTENT\n", query2);
     }
 
+    @Test
+    public void testReadKeys() throws Exception {
+        InputStream stream = this.getClass().getClassLoader().getResourceAsStream("es/indaba/sqld/test/yaml/test.ysqld");
+
+        YamlFileReader sqlReader = new YamlFileReader(stream, "es/indaba/sqld/test/yaml/test.ysqld");
+        assertEquals(Arrays.asList("query1", "query2", "query5", "query6"), new ArrayList<>(sqlReader.readKeys()));
+    }
+
     @Test
     public void testCaseSensitiveKeys() throws Exception {
         InputStream stream = this.getClass().getClassLoader().getResourceAsStream("es/indaba/sqld/test/yaml/test.ysqld");
@@ -58,7 +71,56 @@ public class TestYamlParser {
         sqlReader.read();
     }
 
-    
+    @Test
+    public void testNonScalarValues() throws Exception {
+        try {
+            new YamlFileReader(stream("query1: |\n SELECT 1\nquery2:\n  nested: SELECT 2\n"), "nested.ysqld").read();
+            fail("The nested mapping has not been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[nested.ysqld:4] The value of the key 'query2' is not a scalar", e.getMessage());
+        }
+        try {
+            new YamlFileReader(stream("query1:\n - SELECT 1\n"), "sequence.ysqld").readKeys();
+            fail("The sequence has not been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[sequence.ysqld:2] The value of the key 'query1' is not a scalar", e.getMessage());
+        }
+        try {
+            new YamlFileReader(stream("- SELECT 1\n"), "list.ysqld").read();
+            fail("The sequence has not been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[list.ysqld:1] The file is not a mapping of keys to queries", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testScalarValues() throws Exception {
+        Properties blocks = new YamlFileReader(
+                stream("query1: &columns ID, NAME\nquery2: *columns\nquery3: 10\nquery4: 'SELECT \u00f1'\n"),
+                "scalars.ysqld").read();
+        assertEquals("ID, NAME", blocks.getProperty("query1"));
+        assertEquals("ID, NAME", blocks.getProperty("query2"));
+        assertEquals("10", blocks.getProperty("query3"));
+        assertEquals("SELECT \u00f1", blocks.getProperty("query4"));
+    }
+
+    @Test
+    public void testDuplicatedKeyLine() throws Exception {
+        try {
+            new YamlFileReader(stream("query1: A\nquery2: B\nquery1: C\n"), "duplicate.ysqld").readKeys();
+            fail("The duplicated key has not been detected");
+        } catch (DuplicateKeyException e) {
+            assertEquals(2, e.getProblemMark().getLine());
+            assertEquals("[duplicate.ysqld:3] DUPLICATE Value found for this key 'query1'", e.getMessage());
+        }
+        try {
+            new YamlFileReader(stream("query1: A\nQUERY1: B\n"), "case.ysqld").read();
+            fail("The duplicated key has not been detected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("[case.ysqld:2] DUPLICATE Value found for this key 'QUERY1'", e.getMessage());
+        }
+    }
+
     @Test
     public void testEmptyFile() throws Exception {
         InputStream stream = this.getClass().getClassLoader().getResourceAsStream("es/indaba/sqld/test/yaml/empty.ysqld");
@@ -70,6 +132,10 @@ public class TestYamlParser {
     }
 
     
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
 /*
     @Test(expected = IllegalArgumentException.class)
     public void testKeyStartsWithNumber() throws Exception {
@@ -0,0 +1,361 @@
+/*******************************************************************************
+ * This program is free software: you can redistribute it and/or modify it under the terms of the GNU Lesser General
+ * Public License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any
+ * later version. This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details. You should have received a copy of the GNU Lesser General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>
+ *
+ *******************************************************************************/
+package es.indaba.sqld.test.regression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import es.indaba.sqld.api.NamedParameterQuery;
+import es.indaba.sqld.api.QueryDefinitionRepository;
+
+/**
+ * Runs the queries of a repository against an embedded database with a fixture schema, and compares their plans and
+ * execution times with a baseline, so a query whose plan changes or that becomes slower is caught before it is
+ * deployed.
+ *
+ * <P> Each query is run on its own connection with auto-commit off and rolled back, so updates leave the fixture as
+ * it was. Its <tt>:name</tt> parameters are bound from the values set with {@link #setParameters(String, Map)}, and
+ * to null when there are none. The time of a query is the median of several runs after a warm-up run, and its plan is
+ * the output of <tt>EXPLAIN</tt>.
+ *
+ * <P> A baseline is a properties file with the <tt>KEY.plan</tt> and optionally the <tt>KEY.nanos</tt> of each
+ * query, written by {@link #writeBaseline(Path, Map, boolean)} with sorted keys so it can be kept in version control.
+ * Times depend on the machine, so a baseline kept in version control has only the plans, and the times are only
+ * compared against a baseline written with them on the same machine.
+ */
+public final class QueryRegressionHarness {
+
+    /**
+     * The time of a query of a baseline with only its plan
+     */
+    public static final long NO_TIME = -1;
+
+    private static final String PLAN_SUFFIX = ".plan";
+    private static final String NANOS_SUFFIX = ".nanos";
+    private static final String STATEMENT_SEPARATOR = ";";
+
+    private final String url;
+    private final QueryDefinitionRepository repository;
+    private final Map<String, Map<String, ?>> parameters = new HashMap<>();
+    private int runs = 5;
+
+    /**
+     * @param url - the JDBC url of the database, like <tt>jdbc:h2:mem:test;DB_CLOSE_DELAY=-1</tt>. An in-memory
+     *        database has to be kept open between connections
+     * @param repository - the queries
+     */
+    public QueryRegressionHarness(final String url, final QueryDefinitionRepository repository) {
+        this.url = url;
+        this.repository = repository;
+    }
+
+    /**
+     * Runs a script of statements separated by <tt>;</tt>, like the fixture schema and its data
+     *
+     * @param resource - the class path resource of the script
+     * @throws SQLException if a statement fails
+     * @throws IOException if the script can not be read
+     */
+    public void runScript(final String resource) throws SQLException, IOException {
+        final String script;
+        try (InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new IllegalArgumentException("The script '" + resource + "' is not present");
+            }
+            try (Scanner scanner = new Scanner(input, StandardCharsets.UTF_8.name())) {
+                script = scanner.useDelimiter("\\A").hasNext() ? scanner.next() : "";
+            }
+        }
+        try (Connection connection = DriverManager.getConnection(url);
+                Statement statement = connection.createStatement()) {
+            for (final String sql : script.split(STATEMENT_SEPARATOR)) {
+                if (!sql.trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key - the query key
+     * @param values - the values of the named parameters of the query
+     */
+    public void setParameters(final String key, final Map<String, ?> values) {
+        parameters.put(key.toLowerCase(), values);
+    }
+
+    /**
+     * @param runs - the number of timed runs of each query, 5 by default
+     */
+    public void setRuns(final int runs) {
+        if (runs <= 0) {
+            throw new IllegalArgumentException("The number of runs has to be positive");
+        }
+        this.runs = runs;
+    }
+
+    /**
+     * Runs the queries in parallel
+     *
+     * @param keys - the query keys, like those of {@link QueryDefinitionRepository#getKeys(String)}
+     * @param threads - the number of queries run at the same time
+     * @return the measurement of each query, by lower case key
+     * @throws SQLException if a query fails, with the key in its message
+     */
+    public Map<String, QueryMeasurement> measure(final Collection<String> keys, final int threads)
+            throws SQLException {
+        final Map<String, QueryMeasurement> measurements = new ConcurrentHashMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(keys.size());
+            for (final String key : keys) {
+                futures.add(executor.submit(() -> {
+                    final QueryMeasurement measurement = measure(key.toLowerCase());
+                    measurements.put(measurement.getKey(), measurement);
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("The queries have been interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return new TreeMap<>(measurements);
+    }
+
+    /**
+     * Compares the measurements with a baseline. A query fails if it is not in the baseline, if its plan is not the
+     * same, or if the baseline has its time and it is slower by both the ratio and the margin; the margin keeps the
+     * noise of very fast queries from failing them.
+     *
+     * @param baseline - the baseline measurements
+     * @param measurements - the current measurements
+     * @param maxSlowdown - the ratio to the baseline time a query can take, like 2 for twice
+     * @param marginNanos - the time a query can be slower than the baseline regardless of the ratio
+     * @return a description of each failure, empty if there are none
+     */
+    public static List<String> compare(final Map<String, QueryMeasurement> baseline,
+            final Map<String, QueryMeasurement> measurements, final double maxSlowdown, final long marginNanos) {
+        final List<String> failures = new ArrayList<>();
+        for (final QueryMeasurement current : measurements.values()) {
+            final String key = current.getKey();
+            final QueryMeasurement expected = baseline.get(key);
+            if (expected == null) {
+                failures.add("The query '" + key + "' is not in the baseline");
+                continue;
+            }
+            if (!expected.getPlan().equals(current.getPlan())) {
+                failures.add("The plan of the query '" + key + "' has changed from\n" + expected.getPlan()
+                        + "\nto\n" + current.getPlan());
+            }
+            final long slowdown = current.getNanos() - expected.getNanos();
+            if (expected.getNanos() != NO_TIME && current.getNanos() > expected.getNanos() * maxSlowdown
+                    && slowdown > marginNanos) {
+                failures.add("The query '" + key + "' takes " + current.getNanos() + " ns, " + expected.getNanos()
+                        + " ns in the baseline");
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @param input - a baseline written by {@link #writeBaseline(Path, Map, boolean)}
+     * @return the measurements, by lower case key, with a time of {@link #NO_TIME} if the baseline has only the plan
+     * @throws IOException if the baseline can not be read
+     */
+    public static Map<String, QueryMeasurement> readBaseline(final Reader input) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(input);
+        final Map<String, QueryMeasurement> baseline = new TreeMap<>();
+        for (final String name : properties.stringPropertyNames()) {
+            if (name.endsWith(PLAN_SUFFIX)) {
+                final String key = name.substring(0, name.length() - PLAN_SUFFIX.length());
+                final String nanos = properties.getProperty(key + NANOS_SUFFIX, Long.toString(NO_TIME));
+                baseline.put(key,
+                        new QueryMeasurement(key, Long.parseLong(nanos), properties.getProperty(name)));
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * Writes a baseline, with its entries sorted
+     *
+     * @param file - the baseline file
+     * @param measurements - the measurements
+     * @param withTimes - true to write the times too, for a baseline only used on this machine
+     * @throws IOException if the baseline can not be written
+     */
+    public static void writeBaseline(final Path file, final Map<String, QueryMeasurement> measurements,
+            final boolean withTimes) throws IOException {
+        final Properties properties = new Properties();
+        for (final QueryMeasurement measurement : measurements.values()) {
+            properties.setProperty(measurement.getKey() + PLAN_SUFFIX, measurement.getPlan());
+            if (withTimes) {
+                properties.setProperty(measurement.getKey() + NANOS_SUFFIX, Long.toString(measurement.getNanos()));
+            }
+        }
+        // Properties are written in hash order and with the date; the escaped entries are single lines
+        final StringWriter escaped = new StringWriter();
+        properties.store(escaped, null);
+        final List<String> lines = new ArrayList<>();
+        for (final String line : escaped.toString().split("\n")) {
+            if (!line.startsWith("#")) {
+                lines.add(line.trim());
+            }
+        }
+        Collections.sort(lines);
+        try (Writer output = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+            output.write("# Query regression baseline, written by " + QueryRegressionHarness.class.getName() + "\n");
+            for (final String line : lines) {
+                output.write(line);
+                output.write('\n');
+            }
+        }
+    }
+
+    private QueryMeasurement measure(final String key) throws SQLException {
+        final NamedParameterQuery query = repository.getNamedParameterQuery(key);
+        if (query == null) {
+            throw new IllegalArgumentException("The query '" + key + "' is not present");
+        }
+        try (Connection connection = DriverManager.getConnection(url)) {
+            connection.setAutoCommit(false);
+            final String plan = explain(connection, key, query);
+            // Warm-up
+            execute(connection, key, query);
+            final long[] times = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                times[i] = execute(connection, key, query);
+            }
+            Arrays.sort(times);
+            return new QueryMeasurement(key, times[runs / 2], plan);
+        } catch (SQLException e) {
+            throw new SQLException("The query '" + key + "' has failed: " + e.getMessage(), e.getSQLState(), e);
+        }
+    }
+
+    private String explain(final Connection connection, final String key, final NamedParameterQuery query)
+            throws SQLException {
+        final StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + query.getSql())) {
+            bind(statement, key, query);
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(rows.getString(1));
+                }
+            }
+        }
+        return plan.toString();
+    }
+
+    private long execute(final Connection connection, final String key, final NamedParameterQuery query)
+            throws SQLException {
+        final long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(query.getSql())) {
+            bind(statement, key, query);
+            if (statement.execute()) {
+                try (ResultSet rows = statement.getResultSet()) {
+                    while (rows.next()) {
+                        // Every row is read
+                    }
+                }
+            }
+        } finally {
+            connection.rollback();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void bind(final PreparedStatement statement, final String key, final NamedParameterQuery query)
+            throws SQLException {
+        final Map<String, ?> values = parameters.get(key);
+        if (values != null) {
+            query.bind(statement, values);
+            return;
+        }
+        for (int i = 1; i <= query.getParameterCount(); i++) {
+            statement.setObject(i, null);
+        }
+    }
+
+    /**
+     * The plan and the median time of a query
+     */
+    public static final class QueryMeasurement {
+
+        private final String key;
+        private final long nanos;
+        private final String plan;
+
+        public QueryMeasurement(final String key, final long nanos, final String plan) {
+            this.key = key;
+            this.nanos = nanos;
+            this.plan = plan;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public String getPlan() {
+            return plan;
+        }
+
+        @Override
+        public String toString() {
+            return key + " (" + nanos + " ns)\n" + plan;
+        }
+    }
+}
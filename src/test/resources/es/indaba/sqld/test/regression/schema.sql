@@ -0,0 +1,13 @@
+-- H2 names the index of a primary key after its object id, so the keys are unique constraints over named indexes
+-- and the plans in the baseline do not depend on the order the objects were created
+CREATE TABLE CUSTOMER (ID INT NOT NULL, NAME VARCHAR(100), CITY VARCHAR(100));
+CREATE UNIQUE INDEX IDX_CUSTOMER_ID ON CUSTOMER (ID);
+ALTER TABLE CUSTOMER ADD CONSTRAINT UK_CUSTOMER_ID UNIQUE (ID);
+CREATE INDEX IDX_CUSTOMER_CITY ON CUSTOMER (CITY);
+CREATE TABLE PURCHASE (ID INT NOT NULL, CUSTOMER_ID INT, AMOUNT DECIMAL(10, 2));
+CREATE UNIQUE INDEX IDX_PURCHASE_ID ON PURCHASE (ID);
+ALTER TABLE PURCHASE ADD CONSTRAINT UK_PURCHASE_ID UNIQUE (ID);
+CREATE INDEX IDX_PURCHASE_CUSTOMER ON PURCHASE (CUSTOMER_ID);
+ALTER TABLE PURCHASE ADD CONSTRAINT FK_PURCHASE_CUSTOMER FOREIGN KEY (CUSTOMER_ID) REFERENCES CUSTOMER (ID);
+INSERT INTO CUSTOMER SELECT X, 'NAME ' || X, 'CITY ' || MOD(X, 50) FROM SYSTEM_RANGE(1, 1000);
+INSERT INTO PURCHASE SELECT X, MOD(X, 1000) + 1, X * 1.5 FROM SYSTEM_RANGE(1, 5000);